@@ -4,11 +4,14 @@ precision highp float;
 
 uniform sampler2D   u_texture;
 varying vec2        v_textCords;
-varying vec4        v_color;
+varying float       v_alpha;
+varying float       v_fog;
+uniform vec4        u_fog_color;
 void main () {
   vec4 texel = texture2D(u_texture, v_textCords);
+  texel.a   *= v_alpha;
   if (texel.a <= 0.0) {
     discard;
   }
-  gl_FragColor = texel;
+  gl_FragColor = vec4(mix(texel.rgb, u_fog_color.rgb, v_fog), texel.a);
 }
\ No newline at end of file
@@ -5,19 +5,51 @@
 attribute vec4 a_position;
 attribute vec2 a_textCords;
 attribute vec4 a_color;
+// compact layout, see TriangleGrid.packVertices
+attribute vec4 a_position_xz;
+attribute vec4 a_position_y;
+attribute vec4 a_textCords_packed;
 varying vec2   v_textCords;
+varying float  v_alpha;
+varying float  v_fog;
 
 uniform mat4   u_model_view;
 uniform vec2   u_wave_data;
+uniform float  u_compact;
+uniform vec2   u_origin;
+// position scale, xz bias and height bias of the compact layout
+uniform vec3   u_position_decode;
+uniform float  u_uv_scale;
+uniform vec3   u_camera_position;
+// fade distance and length, the green channel scales the distance per density tier
+uniform vec2   u_fade;
+uniform vec2   u_fog_range;
 
 
+// normalized byte pairs back to 16 bit values, then scale and bias of TriangleGrid.packVertices
+vec4 decodePosition() {
+  vec2 xz = (a_position_xz.xz + a_position_xz.yw * 256.0) * (255.0 / u_position_decode.x) - u_position_decode.y + u_origin;
+  float y = (a_position_y.x + a_position_y.y * 256.0) * (255.0 / u_position_decode.x) - u_position_decode.z;
+  return vec4(xz.x, y, xz.y, 1.0);
+}
+
 void main() {
-  v_textCords = a_textCords;
+  vec4 position = a_position;
+  v_textCords   = a_textCords;
+  if (u_compact > 0.5) {
+    position    = decodePosition();
+    v_textCords = (a_textCords_packed.xz + a_textCords_packed.yw * 256.0) * (255.0 / u_uv_scale);
+  }
+  
   vec4 newPos       = vec4(
-    a_position.x + a_color.r * (u_wave_data.y * cos(u_wave_data.x+a_position.z)), 
-    a_position.y, 
-    a_position.z, 
-  a_position.w);
+    position.x + a_color.r * (u_wave_data.y * cos(u_wave_data.x+position.z)), 
+    position.y, 
+    position.z, 
+  position.w);
 
-  gl_Position = u_model_view * newPos;
+  float eye     = distance(position.xyz, u_camera_position);
+  float fadeEnd = u_fade.x * a_color.g;
+  v_alpha       = clamp((fadeEnd - eye) / u_fade.y, 0.0, 1.0);
+  v_fog         = clamp((eye - u_fog_range.x) / (u_fog_range.y - u_fog_range.x), 0.0, 1.0);
+  gl_Position   = u_model_view * newPos;
 }
@@ -3,9 +3,17 @@ precision highp float;
 #endif
 
 uniform samplerCube s_cubemap;
+// height of the view direction where the sky is clear of fog, 0 disables it
+uniform float       u_fog_horizon;
+uniform vec4        u_fog_color;
 
 varying vec3 v_texCoord;
  
 void main (void) {
-    gl_FragColor = textureCube(s_cubemap, v_texCoord);
+    vec4 texel   = textureCube(s_cubemap, v_texCoord);
+    float fog    = 0.0;
+    if (u_fog_horizon > 0.0) {
+      fog        = 1.0 - smoothstep(0.0, u_fog_horizon, normalize(v_texCoord).y);
+    }
+    gl_FragColor = vec4(mix(texel.rgb, u_fog_color.rgb, fog), texel.a);
 }
\ No newline at end of file
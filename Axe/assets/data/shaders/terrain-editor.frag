@@ -41,7 +41,7 @@ void main() {
   //}
   //v_color.r = glFragCord.x;
   //v_color   = clamp(v_color, 0;, 1.0);
-  vec4 current_texture = texture2D(u_texture0, v_textCords);
+  vec4 current_texture = texture2D(u_texture0, v_textCords) * v_color;
 
 
   if (isInRect()) {
@@ -5,6 +5,7 @@ precision mediump float;
 attribute vec4   a_position;
 attribute vec2   a_textCords;
 attribute vec2   a_tile_position;
+attribute vec4   a_color;
 
 varying vec2  v_textCords;
 varying vec2  v_tile_position;
@@ -19,7 +20,8 @@ uniform vec4 u_light_color;
 uniform float layer_style;
 
 void main() {
-  v_color = vec4(1.0,1.0,1.0,1.0);
+  // same baked light as terrain.vert
+  v_color = vec4((u_ambient_color.rgb * u_ambient_color.a + a_color.rgb * (1.0 - u_ambient_color.a)) * a_color.a, 1.0);
   
   if (((int)a_tile_position.x % 2 == 0) && ((int)a_tile_position.y % 2) != 0) {
     //v_color *= vec4(0.9f,0.9f,0.9f,1f);
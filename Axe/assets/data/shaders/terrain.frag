@@ -2,9 +2,13 @@
 precision mediump float;
 #endif 
 varying vec2  v_textCords;
+varying float v_fog;
+varying vec3  v_light;
 
 uniform sampler2D u_texture0;
+uniform vec4      u_fog_color;
 
 void main() {
-  gl_FragColor = texture2D(u_texture0, v_textCords);
+  vec4 texel   = texture2D(u_texture0, v_textCords);
+  gl_FragColor = vec4(mix(texel.rgb * v_light, u_fog_color.rgb, v_fog), texel.a);
 }
\ No newline at end of file
@@ -1,17 +1,52 @@
 #ifdef GL_ES
-precision mediump float;
+precision highp float;
 #endif 
 
 attribute vec4   a_position;
 attribute vec2   a_textCords;
+// rgb sun light and alpha ambient occlusion, baked by TerrainLighting
+attribute vec4   a_color;
+// compact layout, see TriangleGrid.packVertices
+attribute vec4   a_position_xz;
+attribute vec4   a_position_y;
+attribute vec4   a_textCords_packed;
 
 varying vec2  v_textCords;
+varying float v_fog;
+varying vec3  v_light;
 
 uniform mat4 u_projectionViewMatrix;
 uniform vec3 u_light_direction;
 uniform vec4 u_light_color;
 uniform vec4 u_ambient_color;
+uniform float u_compact;
+uniform vec2  u_origin;
+// position scale, xz bias and height bias of the compact layout
+uniform vec3  u_position_decode;
+uniform float u_uv_scale;
+uniform vec3  u_camera_position;
+uniform vec2  u_fog_range;
+
+// normalized byte pairs back to 16 bit values, then scale and bias of TriangleGrid.packVertices
+vec4 decodePosition() {
+  vec2 xz = (a_position_xz.xz + a_position_xz.yw * 256.0) * (255.0 / u_position_decode.x) - u_position_decode.y + u_origin;
+  float y = (a_position_y.x + a_position_y.y * 256.0) * (255.0 / u_position_decode.x) - u_position_decode.z;
+  return vec4(xz.x, y, xz.y, 1.0);
+}
+
+vec2 decodeTextCords() {
+  return (a_textCords_packed.xz + a_textCords_packed.yw * 256.0) * (255.0 / u_uv_scale);
+}
+
 void main() {
-  v_textCords          = a_textCords;
-  gl_Position          = u_projectionViewMatrix * a_position;
+  vec4 position        = a_position;
+  if (u_compact > 0.5) {
+    v_textCords        = decodeTextCords();
+    position           = decodePosition();
+  } else {
+    v_textCords        = a_textCords;
+  }
+  v_light              = (u_ambient_color.rgb * u_ambient_color.a + a_color.rgb * (1.0 - u_ambient_color.a)) * a_color.a;
+  v_fog                = clamp((distance(position.xyz, u_camera_position) - u_fog_range.x) / (u_fog_range.y - u_fog_range.x), 0.0, 1.0);
+  gl_Position          = u_projectionViewMatrix * position;
 }
\ No newline at end of file
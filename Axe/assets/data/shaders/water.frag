@@ -6,11 +6,26 @@ uniform samplerCube s_cubemap;
 uniform sampler2D   u_texture;
 uniform float       u_water_alpha;
 uniform float       u_water_mix;
-varying vec2        v_texCoord;
-varying vec3        v_reflection;
-varying vec4        v_color;
+uniform vec2        u_wave_data;
+uniform vec3        u_camera_position;
+uniform vec4        u_texture_cordinates;
+uniform vec2        u_fog_range;
+uniform vec4        u_fog_color;
+varying vec3        v_position;
+varying vec3        v_normal;
 void main () {
-  vec4 texel   = mix(texture2D(u_texture, v_texCoord), textureCube(s_cubemap, v_reflection), u_water_mix);
+  vec3 wave          = vec3(
+    v_position.x + u_wave_data.y * sin(u_wave_data.x+v_position.x+v_position.y), 
+    v_position.y + u_wave_data.y * cos(u_wave_data.x+v_position.x+v_position.y), 
+    v_position.z + u_wave_data.y * cos(u_wave_data.x+v_position.y+v_position.z));
+  vec3 eye_direction = normalize(wave - u_camera_position);
+  vec3 reflection    = reflect(eye_direction, normalize(v_normal));
+  // every tile shows the whole water region, like the per tile quads did
+  vec2 texCoord      = mix(u_texture_cordinates.xy, u_texture_cordinates.zw, fract(v_position.xz));
+  
+  vec4 texel   = mix(texture2D(u_texture, texCoord), textureCube(s_cubemap, reflection), u_water_mix);
+  float fog    = clamp((distance(v_position, u_camera_position) - u_fog_range.x) / (u_fog_range.y - u_fog_range.x), 0.0, 1.0);
+  texel.rgb    = mix(texel.rgb, u_fog_color.rgb, fog);
   texel.a      = u_water_alpha;
   gl_FragColor = texel;
-}
\ No newline at end of file
+}
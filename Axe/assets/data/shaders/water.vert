@@ -3,37 +3,38 @@ precision highp float;
 #endif
 
 attribute vec4 a_position;
-attribute vec4 a_color;
 attribute vec3 a_normal;
+// compact layout, see TriangleGrid.packVertices
+attribute vec4 a_position_xz;
+attribute vec4 a_position_y;
+attribute vec4 a_normal_packed;
 
-uniform vec2 u_wave_data;
 uniform mat4 u_model_view;
-uniform vec3 u_camera_position;
-uniform vec4 u_texture_cordinates;
+uniform float u_compact;
+uniform vec2  u_origin;
+// position scale, xz bias and height bias of the compact layout
+uniform vec3  u_position_decode;
 
-varying vec2 v_texCoord;
-varying vec3 v_reflection;
-varying vec4 v_color;
+// merged liquid quads span many tiles, so waves and texture cords are computed per fragment from world position
+varying vec3 v_position;
+varying vec3 v_normal;
+
+// normalized byte pairs back to 16 bit values, then scale and bias of TriangleGrid.packVertices
+vec4 decodePosition() {
+  vec2 xz = (a_position_xz.xz + a_position_xz.yw * 256.0) * (255.0 / u_position_decode.x) - u_position_decode.y + u_origin;
+  float y = (a_position_y.x + a_position_y.y * 256.0) * (255.0 / u_position_decode.x) - u_position_decode.z;
+  return vec4(xz.x, y, xz.y, 1.0);
+}
 
 void main() {
-  vec4 newPos       = vec4(
-    a_position.x + u_wave_data.y * sin(u_wave_data.x+a_position.x+a_position.y), 
-    a_position.y + u_wave_data.y * cos(u_wave_data.x+a_position.x+a_position.y), 
-    a_position.z + u_wave_data.y * cos(u_wave_data.x+a_position.y+a_position.z), 
-  a_position.w);
-  
-  vec3 eye_direction = normalize(newPos.xyz - u_camera_position);
-  v_reflection       = reflect(eye_direction, a_normal);
-  v_color            = a_color;
-  if (a_color.r > 0.0) {
-    v_texCoord = vec2(u_texture_cordinates.z,u_texture_cordinates.y);
-  } else if (a_color.g > 0.0) {
-    v_texCoord = vec2(u_texture_cordinates.x,u_texture_cordinates.y);
-  } else if (a_color.b > 0.0) {
-    v_texCoord = vec2(u_texture_cordinates.z,u_texture_cordinates.w);
-  } else {
-    v_texCoord = vec2(u_texture_cordinates.x,u_texture_cordinates.w);
+  vec4 position     = a_position;
+  vec3 normal       = a_normal;
+  if (u_compact > 0.5) {
+    position        = decodePosition();
+    normal          = a_normal_packed.xyz * 2.0 - 1.0;
   }
   
-  gl_Position        = u_model_view * newPos;
+  v_position         = position.xyz;
+  v_normal           = normal;
+  gl_Position        = u_model_view * position;
 }
@@ -617,6 +617,7 @@ public class WorldEditorFrame extends JFrame implements ChangeListener, ItemList
     
     DirectionalLight sun = scene.getSunLight();
     this.gameManager.getWorldEditScreen().setChangeManager(changeManager);
+    changeManager.setJournal(scene.getJournal());
     /*this.lightPositionXSpinner.setValue(sun.direction.x);
     this.lightPositionYSpinner.setValue(sun.direction.y);
     this.lightPositionZSpinner.setValue(sun.direction.z);*/
@@ -806,9 +807,11 @@ public class WorldEditorFrame extends JFrame implements ChangeListener, ItemList
   }
 
   private void reloadMap() {
-    resetEditor();
-    
+    // unsaved edits are dropped, the journal would bring them back
+    this.gameManager.getWorldEditScreen().getScene().getJournal().truncate();
     this.gameManager.getWorldEditScreen().openMap(G.fs(this.gameManager.getWorldEditScreen().getScene().getPath()).file());
+    // after openMap, so the change manager journals into the journal of the reloaded scene
+    resetEditor();
   }
 
   private void updateSelectedBrush() {
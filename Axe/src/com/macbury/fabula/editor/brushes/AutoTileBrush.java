@@ -26,6 +26,7 @@ import com.macbury.fabula.terrain.tile.Tile;
 import com.macbury.fabula.terrain.tileset.AutoTiles;
 import com.macbury.fabula.terrain.tileset.Tileset;
 import com.macbury.fabula.terrain.tileset.AutoTiles.Types;
+import com.macbury.fabula.terrain.Sector;
 import com.macbury.fabula.terrain.Terrain;
 import com.macbury.fabula.utils.OffScreen2DRenderer;
 
@@ -151,11 +152,11 @@ public class AutoTileBrush extends Brush {
 
 
   public void rebuildCombinations() {
-    Tile[][] tiles = terrain.getTiles();
+    Tile cursor = new Tile(terrain.getStore(), 0, 0);
     
     for (int x = 0; x < terrain.getColumns(); x++) {
       for (int y = 0; y < terrain.getRows(); y++) {
-        Tile tile  = tiles[x][y];
+        Tile tile  = terrain.getTile(x, y, cursor);
         if (tile.getAutoTile().getAutoTiles() == currentAutoTiles) {
           String tid = Long.toHexString(computeAutoTileUID(tile)).toUpperCase();
           G.db.CORNER_MAP.put(tid, tile.getAutoType());
@@ -209,7 +210,7 @@ public class AutoTileBrush extends Brush {
     int x = (int) currentTile.getX();
     int z = (int) currentTile.getZ();
     
-    this.terrain.addSectorToRebuildFromTile(currentTile);
+    this.terrain.addSectorToRebuildFromTile(currentTile, getRebuildLayers());
     
     long out = 0;
     
@@ -230,7 +231,7 @@ public class AutoTileBrush extends Brush {
     if (topLeftTile != null && topLeftTile.haveTheSameAutoTileAndIsNotSimple(currentTile.getAutoTile())) {
       mask = topLeftTile.getAutoTile().getCornerMask(AutoTiles.CORNER_BOTTOM_RIGHT);
       mask <<= 28;
-      this.terrain.addSectorToRebuildFromTile(topLeftTile);
+      this.terrain.addSectorToRebuildFromTile(topLeftTile, getRebuildLayers());
     }
     
     out |= mask;
@@ -239,7 +240,7 @@ public class AutoTileBrush extends Brush {
     if (topTile != null && topTile.haveTheSameAutoTileAndIsNotSimple(currentTile.getAutoTile())) {
       mask = topTile.getAutoTile().getCornerMask(AutoTiles.CORNER_BOTTOM_LEFT) | topTile.getAutoTile().getCornerMask(AutoTiles.CORNER_BOTTOM_RIGHT);
       mask <<= 24;
-      this.terrain.addSectorToRebuildFromTile(topTile);
+      this.terrain.addSectorToRebuildFromTile(topTile, getRebuildLayers());
     }
     
     out |= mask;
@@ -248,7 +249,7 @@ public class AutoTileBrush extends Brush {
     if (topRightTile != null && topRightTile.haveTheSameAutoTileAndIsNotSimple(currentTile.getAutoTile())) {
       mask = topRightTile.getAutoTile().getCornerMask(AutoTiles.CORNER_BOTTOM_LEFT);
       mask <<= 20;
-      this.terrain.addSectorToRebuildFromTile(topRightTile);
+      this.terrain.addSectorToRebuildFromTile(topRightTile, getRebuildLayers());
     }
     
     out |= mask;
@@ -257,7 +258,7 @@ public class AutoTileBrush extends Brush {
     if (leftTile != null && leftTile.haveTheSameAutoTileAndIsNotSimple(currentTile.getAutoTile())) {
       mask = leftTile.getAutoTile().getCornerMask(AutoTiles.CORNER_TOP_RIGHT) | leftTile.getAutoTile().getCornerMask(AutoTiles.CORNER_BOTTOM_RIGHT);
       mask <<= 16;
-      this.terrain.addSectorToRebuildFromTile(leftTile);
+      this.terrain.addSectorToRebuildFromTile(leftTile, getRebuildLayers());
     }
     
     out |= mask;
@@ -266,7 +267,7 @@ public class AutoTileBrush extends Brush {
     if (rightTile != null && rightTile.haveTheSameAutoTileAndIsNotSimple(currentTile.getAutoTile())) {
       mask = rightTile.getAutoTile().getCornerMask(AutoTiles.CORNER_TOP_LEFT) | rightTile.getAutoTile().getCornerMask(AutoTiles.CORNER_BOTTOM_LEFT);
       mask <<= 12;
-      this.terrain.addSectorToRebuildFromTile(rightTile);
+      this.terrain.addSectorToRebuildFromTile(rightTile, getRebuildLayers());
     }
     
     out |= mask;
@@ -275,7 +276,7 @@ public class AutoTileBrush extends Brush {
     if (bottomLeftTile != null && bottomLeftTile.haveTheSameAutoTileAndIsNotSimple(currentTile.getAutoTile())) {
       mask = bottomLeftTile.getAutoTile().getCornerMask(AutoTiles.CORNER_TOP_RIGHT);
       mask <<= 8;
-      this.terrain.addSectorToRebuildFromTile(bottomLeftTile);
+      this.terrain.addSectorToRebuildFromTile(bottomLeftTile, getRebuildLayers());
     }
     
     out |= mask;
@@ -284,7 +285,7 @@ public class AutoTileBrush extends Brush {
     if (bottomTile != null && bottomTile.haveTheSameAutoTileAndIsNotSimple(currentTile.getAutoTile())) {
       mask = bottomTile.getAutoTile().getCornerMask(AutoTiles.CORNER_TOP_LEFT) | bottomTile.getAutoTile().getCornerMask(AutoTiles.CORNER_TOP_RIGHT);
       mask <<= 4;
-      this.terrain.addSectorToRebuildFromTile(bottomTile);
+      this.terrain.addSectorToRebuildFromTile(bottomTile, getRebuildLayers());
     }
     
     out |= mask;
@@ -293,7 +294,7 @@ public class AutoTileBrush extends Brush {
     if (bottomRightTile != null && bottomRightTile.haveTheSameAutoTileAndIsNotSimple(currentTile.getAutoTile())) {
       mask = bottomRightTile.getAutoTile().getCornerMask(AutoTiles.CORNER_TOP_LEFT);
       mask <<= 0;
-      this.terrain.addSectorToRebuildFromTile(bottomRightTile);
+      this.terrain.addSectorToRebuildFromTile(bottomRightTile, getRebuildLayers());
     }
     
     out |= mask;
@@ -335,6 +336,11 @@ public class AutoTileBrush extends Brush {
     this.currentAutoTiles = currentAutoTiles;
   }
 
+  @Override
+  protected int getRebuildLayers() {
+    return Sector.LAYER_TERRAIN;
+  }
+  
   @Override
   public String getStatusBarInfo() {
     Tile tile            = this.terrain.getTile((int)this.position.x, (int)this.position.y);
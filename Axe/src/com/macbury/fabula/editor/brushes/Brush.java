@@ -7,6 +7,7 @@ import com.badlogic.gdx.math.Vector3;
 import com.macbury.fabula.editor.undo_redo.ChangeManager;
 import com.macbury.fabula.editor.undo_redo.Changeable;
 import com.macbury.fabula.screens.WorldEditScreen;
+import com.macbury.fabula.terrain.Sector;
 import com.macbury.fabula.terrain.Terrain;
 import com.macbury.fabula.terrain.tile.Tile;
 
@@ -72,7 +73,7 @@ public abstract class Brush {
           Tile tile = this.terrain.getTile(x,y);
           if (tile != null) {
             this.brushTiles.add(tile);
-            this.terrain.addSectorToRebuildFromTile(tile);
+            this.terrain.addSectorToRebuildFromTile(tile, getRebuildLayers());
           }
         }
       }
@@ -92,7 +93,7 @@ public abstract class Brush {
             }
             
             this.brushTiles.add(tile);
-            this.terrain.addSectorToRebuildFromTile(tile);
+            this.terrain.addSectorToRebuildFromTile(tile, getRebuildLayers());
           }
         }
       }
@@ -103,6 +104,11 @@ public abstract class Brush {
   }
   
   public abstract void onApply();
+  
+  protected int getRebuildLayers() {
+    return Sector.LAYER_ALL;
+  }
+  
   public void setPosition(float x, float z) {
     position.x = x;
     position.y = z;
@@ -20,6 +20,11 @@ public class EventBrush extends Brush implements EditorEntityManagmentSystemList
     setSize(0);
   }
 
+  @Override
+  protected int getRebuildLayers() {
+    return 0;
+  }
+  
   @Override
   public String getStatusBarInfo() {
     return null;
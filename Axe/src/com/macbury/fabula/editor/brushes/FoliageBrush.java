@@ -1,6 +1,7 @@
 package com.macbury.fabula.editor.brushes;
 
 import com.macbury.fabula.editor.undo_redo.TileChanger;
+import com.macbury.fabula.terrain.Sector;
 import com.macbury.fabula.terrain.Terrain;
 import com.macbury.fabula.terrain.foliage.FoliageDescriptor;
 import com.macbury.fabula.terrain.tile.Tile;
@@ -15,6 +16,11 @@ public class FoliageBrush extends Brush {
     setBrushType(BrushType.Rectangle);
   }
 
+  @Override
+  protected int getRebuildLayers() {
+    return Sector.LAYER_FOLIAGE;
+  }
+  
   @Override
   public String getStatusBarInfo() {
     return "";
@@ -30,7 +36,7 @@ public class FoliageBrush extends Brush {
     for (Tile tile : brushTiles) {
       changer.add(tile);
       tile.setFoliage(fs);
-      this.terrain.addSectorToRebuildFromTile(tile);
+      this.terrain.addSectorToRebuildFromTile(tile, getRebuildLayers());
     }
     
     if (changer.haveTiles()) {
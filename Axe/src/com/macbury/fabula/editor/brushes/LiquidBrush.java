@@ -1,6 +1,7 @@
 package com.macbury.fabula.editor.brushes;
 
 import com.macbury.fabula.editor.undo_redo.TileChanger;
+import com.macbury.fabula.terrain.Sector;
 import com.macbury.fabula.terrain.Terrain;
 import com.macbury.fabula.terrain.tile.Tile;
 
@@ -15,6 +16,11 @@ public class LiquidBrush extends Brush {
     setBrushType(BrushType.Rectangle);
   }
 
+  @Override
+  protected int getRebuildLayers() {
+    return Sector.LAYER_WATER;
+  }
+  
   @Override
   public String getStatusBarInfo() {
     return "";
@@ -29,7 +35,7 @@ public class LiquidBrush extends Brush {
       
       tile.setLiquid(liquid);
       tile.setLiquidHeight(height);
-      this.terrain.addSectorToRebuildFromTile(tile);
+      this.terrain.addSectorToRebuildFromTile(tile, getRebuildLayers());
     }
     
     if (changer.haveTiles()) {
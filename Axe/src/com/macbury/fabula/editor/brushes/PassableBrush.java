@@ -13,6 +13,11 @@ public class PassableBrush extends Brush {
     setBrushType(BrushType.Rectangle);
   }
 
+  @Override
+  protected int getRebuildLayers() {
+    return 0;
+  }
+  
   @Override
   public String getStatusBarInfo() {
     return "";
@@ -26,7 +31,7 @@ public class PassableBrush extends Brush {
       changer.add(tile);
       
       tile.setPassable(passable);
-      this.terrain.addSectorToRebuildFromTile(tile);
+      this.terrain.addSectorToRebuildFromTile(tile, getRebuildLayers());
     }
     
     if (changer.haveTiles()) {
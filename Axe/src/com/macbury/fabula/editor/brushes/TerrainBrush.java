@@ -6,6 +6,7 @@ import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.Input;
 import com.macbury.fabula.editor.undo_redo.Changeable;
 import com.macbury.fabula.editor.undo_redo.TileChanger;
+import com.macbury.fabula.terrain.Sector;
 import com.macbury.fabula.terrain.Terrain;
 import com.macbury.fabula.terrain.tile.Tile;
 
@@ -176,10 +177,15 @@ public class TerrainBrush extends Brush {
   }
 
   private void addSectorToRebuildFromTile(Tile tile) {
-    this.terrain.addSectorToRebuildFromTile(tile);
+    this.terrain.addSectorToRebuildFromTile(tile, getRebuildLayers());
   }
 
 
+  @Override
+  protected int getRebuildLayers() {
+    return Sector.LAYER_TERRAIN | Sector.LAYER_FOLIAGE;
+  }
+  
   @Override
   public String getStatusBarInfo() {
     Tile tile = getTile();
@@ -4,8 +4,10 @@ import java.awt.Dimension;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyVetoException;
 
+import com.badlogic.gdx.Gdx;
 import com.macbury.fabula.editor.brushes.AutoTileBrush.PaintMode;
 import com.macbury.fabula.screens.WorldEditScreen;
+import com.macbury.fabula.terrain.Terrain;
 
 public class SceneInspect {
   private WorldEditScreen screen;
@@ -56,6 +58,33 @@ public class SceneInspect {
     return new Dimension(screen.getScene().getTerrain().getColumns(), screen.getScene().getTerrain().getRows());
   }
   
+  public int getSectorSize() {
+    return screen.getScene().getTerrain().getSectorSize();
+  }
+  
+  public void setSectorSize(final int size) throws PropertyVetoException {
+    final Terrain terrain = screen.getScene().getTerrain();
+    if (size < 1 || size > Terrain.MAX_SECTOR_SIZE) {
+      throw new PropertyVetoException("Error", new PropertyChangeEvent(this, "sectorSize", getSectorSize(), size));
+    }
+    
+    Gdx.app.postRunnable(new Runnable() {
+      @Override
+      public void run() {
+        terrain.setSectorSize(size);
+        terrain.buildSectors();
+      }
+    });
+  }
+  
+  public float getDrawDistance() {
+    return screen.getScene().getTerrain().getFog().getDrawDistance();
+  }
+  
+  public void setDrawDistance(float distance) {
+    screen.getScene().getTerrain().getFog().setDrawDistance(distance);
+  }
+  
   public boolean getShowWireframe() {
     return this.screen.getScene().getEditorEntityManagmentSystem().isShowWireframe();
   }
@@ -47,6 +47,14 @@ public class SceneInspectBeanInfo extends BaseBeanInfo {
     sizeProperty.setShortDescription("Change map size");
     sizeProperty.setPropertyEditorClass(DimensionPropertyEditor.class);
     
+    ExtendedPropertyDescriptor sectorSizeProperty = addProperty("sectorSize").setCategory(CATEGORY_MAP);
+    sectorSizeProperty.setDisplayName("Sector size");
+    sectorSizeProperty.setShortDescription("Tiles per sector side, bigger sectors mean less draw calls but slower edits");
+    
+    ExtendedPropertyDescriptor drawDistanceProperty = addProperty("drawDistance").setCategory(CATEGORY_MAP);
+    drawDistanceProperty.setDisplayName("Draw distance");
+    drawDistanceProperty.setShortDescription("Sectors further away are hidden in fog, 0 draws everything");
+    
     ExtendedPropertyDescriptor shaderProperty = addProperty("shader").setCategory(CATEGORY_MAP);
     shaderProperty.setDisplayName("Shader");
     shaderProperty.setShortDescription("Final shader effect");
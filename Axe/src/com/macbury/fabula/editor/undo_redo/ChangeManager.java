@@ -1,9 +1,12 @@
 package com.macbury.fabula.editor.undo_redo;
 
+import com.macbury.fabula.persister.SceneJournal;
+
 public class ChangeManager {
   private Node currentIndex = null;
   private Node parentNode = new Node();
   private ChangeManagerListener listener;
+  private SceneJournal journal;
 
   /**
    * Creates a new ChangeManager object which is initially empty.
@@ -24,6 +27,13 @@ public class ChangeManager {
   }
 
 
+  /**
+   * Sets the journal that every added, undone and redone Changeable is written to.
+   */
+  public void setJournal(SceneJournal journal) {
+    this.journal = journal;
+  }
+
   /**
    * Adds a Changeable to manage.
    * @param changeable 
@@ -33,6 +43,7 @@ public class ChangeManager {
     currentIndex.right = node;
     node.left          = currentIndex;
     currentIndex       = node;
+    journal(changeable);
     this.listener.onChangeManagerChange(this);
   }
 
@@ -63,6 +74,7 @@ public class ChangeManager {
     }
     //undo
     currentIndex.changeable.undo();
+    journal(currentIndex.changeable);
     //set index
     moveLeft();
   }
@@ -107,6 +119,13 @@ public class ChangeManager {
     moveRight();
     //redo
     currentIndex.changeable.redo();
+    journal(currentIndex.changeable);
+  }
+
+  private void journal(Changeable changeable) {
+    if (journal != null) {
+      changeable.journal(journal);
+    }
   }
 
   
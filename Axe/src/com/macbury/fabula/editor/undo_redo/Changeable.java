@@ -1,6 +1,10 @@
 package com.macbury.fabula.editor.undo_redo;
 
+import com.macbury.fabula.persister.SceneJournal;
+
 public interface Changeable {
   public void undo();
   public void redo();
+  // Writes the state after the last apply, undo or redo, so a crash does not lose it
+  public void journal(SceneJournal journal);
 }
@@ -3,6 +3,7 @@ package com.macbury.fabula.editor.undo_redo;
 import java.util.ArrayList;
 
 import com.badlogic.gdx.Gdx;
+import com.macbury.fabula.persister.SceneJournal;
 import com.macbury.fabula.terrain.Terrain;
 import com.macbury.fabula.terrain.tile.Tile;
 
@@ -63,4 +64,9 @@ public class TileChanger implements Changeable {
     
     terrain.rebuildUsedSectors();
   }
+
+  @Override
+  public void journal(SceneJournal journal) {
+    journal.writeTiles(terrain, undoTiles);
+  }
 }
\ No newline at end of file
@@ -36,6 +36,7 @@ public class CubeMapScreen extends BaseScreen {
     TriangleGrid triangleGrid = new TriangleGrid(5, 5, true);
     triangleGrid.using(AttributeType.Position);
     triangleGrid.using(AttributeType.Normal);
+    triangleGrid.using(AttributeType.TextureCord);
     triangleGrid.begin();
     
     short n1, n2, n3 = 0;
@@ -121,6 +121,7 @@ public class WorldEditScreen extends BaseScreen implements InputProcessor, Timer
   }
   
   public void newMap(int width, int height) {
+    closeJournal();
     String uuid  = UUID.randomUUID().toString();
     this.scene   = new Scene(null, uuid, width, height);
     this.scene.setCamera(camera);
@@ -135,6 +136,13 @@ public class WorldEditScreen extends BaseScreen implements InputProcessor, Timer
     createBrushes();
   }
   
+  // pending records of the current map are written before a map, possibly the same one, replays its journal
+  private void closeJournal() {
+    if (this.scene != null) {
+      this.scene.getJournal().dispose();
+    }
+  }
+  
   private void createBrushes() {
     terrainBrush      = new TerrainBrush(terrain);
     autoTileBrush     = new AutoTileBrush(terrain);
@@ -145,6 +153,7 @@ public class WorldEditScreen extends BaseScreen implements InputProcessor, Timer
   }
 
   public void openMap(File file) {
+    closeJournal();
     this.scene = Scene.open(file);
     
     if (this.scene == null) {
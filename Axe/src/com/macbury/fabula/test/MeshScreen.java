@@ -20,6 +20,7 @@ import com.macbury.fabula.manager.GameManager;
 import com.macbury.fabula.screens.BaseScreen;
 import com.macbury.fabula.terrain.Terrain;
 import com.macbury.fabula.terrain.geometry.TriangleGrid;
+import com.macbury.fabula.terrain.geometry.TriangleGrid.AttributeType;
 import com.macbury.fabula.utils.TopDownCamera;
 
 public class MeshScreen extends BaseScreen {
@@ -59,6 +60,8 @@ public class MeshScreen extends BaseScreen {
     
     
     TriangleGrid builder = new TriangleGrid(10, 10, true);
+    builder.using(AttributeType.Color);
+    builder.using(AttributeType.TextureCord);
     
     short n1 = 0;
     short n2 = 0;
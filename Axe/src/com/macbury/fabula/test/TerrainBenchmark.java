@@ -0,0 +1,26 @@
+package com.macbury.fabula.test;
+
+import com.badlogic.gdx.Screen;
+import com.badlogic.gdx.backends.lwjgl.LwjglApplication;
+import com.badlogic.gdx.backends.lwjgl.LwjglApplicationConfiguration;
+import com.macbury.fabula.manager.DesktopGameManager;
+
+public class TerrainBenchmark {
+
+  public static void main(String[] args) {
+    DesktopGameManager manager = new DesktopGameManager() {
+      @Override
+      public Screen getInitialScreen() {
+        return new TerrainBenchmarkScreen(this);
+      }
+    };
+
+    LwjglApplicationConfiguration config = new LwjglApplicationConfiguration();
+    config.width        = 640;
+    config.height       = 480;
+    config.useGL20      = true;
+    config.vSyncEnabled = false;
+    new LwjglApplication(manager, config);
+  }
+
+}
@@ -0,0 +1,574 @@
+package com.macbury.fabula.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.graphics.Camera;
+import com.badlogic.gdx.graphics.PerspectiveCamera;
+import com.badlogic.gdx.graphics.VertexAttributes;
+import com.badlogic.gdx.math.MathUtils;
+import com.badlogic.gdx.math.Vector3;
+import com.macbury.fabula.manager.G;
+import com.macbury.fabula.manager.GameManager;
+import com.macbury.fabula.map.Scene;
+import com.macbury.fabula.persister.ChunkCodecPool;
+import com.macbury.fabula.persister.SceneContainer;
+import com.macbury.fabula.persister.SceneJournal;
+import com.macbury.fabula.persister.ScenePersister;
+import com.macbury.fabula.persister.TerrainChunkCodec;
+import com.macbury.fabula.screens.BaseScreen;
+import com.macbury.fabula.terrain.Sector;
+import com.macbury.fabula.terrain.SectorBuilder;
+import com.macbury.fabula.terrain.SectorGeometry;
+import com.macbury.fabula.terrain.Terrain;
+import com.macbury.fabula.terrain.TerrainPage;
+import com.macbury.fabula.terrain.foliage.Foliage;
+import com.macbury.fabula.terrain.foliage.FoliageDescriptor;
+import com.macbury.fabula.terrain.geometry.MeshPool;
+import com.macbury.fabula.terrain.geometry.QuadIndexBuffer;
+import com.macbury.fabula.terrain.geometry.TriangleGrid;
+import com.macbury.fabula.terrain.tile.Tile;
+
+public class TerrainBenchmarkScreen extends BaseScreen {
+  private static final String TAG       = "TerrainBenchmark";
+  private static final int[] MAP_SIZES  = { 100, 250, 500 };
+  private static final int BUILD_PASSES = 5;
+  private static final int WARMUP_PASSES = 10;
+  private static final int EDIT_PASSES   = 50;
+  private static final int[] SECTOR_SIZES = { 5, 8, 16, 32 };
+  private static final int CULL_PASSES   = 360;
+  // Tile object with its Vector3 and the Tile[][] slot, compressed oops. A generated 500x500 map held 20540 KB of heap
+  // with the old Tile[][] terrain, 84 bytes per tile.
+  private static final int LEGACY_BYTES_PER_TILE = 84;
+
+  private boolean finished = false;
+
+  public TerrainBenchmarkScreen(GameManager manager) {
+    super(manager);
+  }
+
+  @Override
+  public void render(float delta) {
+    if (finished) {
+      return;
+    }
+
+    for (int size : MAP_SIZES) {
+      benchmarkTerrainStore(size);
+    }
+    benchmarkBuildScaling(MAP_SIZES[MAP_SIZES.length - 1]);
+    for (int sectorSize : SECTOR_SIZES) {
+      benchmarkSectorSize(MAP_SIZES[MAP_SIZES.length - 1], sectorSize);
+    }
+    benchmarkVertexLayouts(MAP_SIZES[MAP_SIZES.length - 1]);
+    benchmarkSectorMeshing(MAP_SIZES[MAP_SIZES.length - 1]);
+    benchmarkFrozenTerrain(MAP_SIZES[MAP_SIZES.length - 1]);
+    benchmarkPageUpdates(MAP_SIZES[MAP_SIZES.length - 1]);
+    benchmarkWaterMeshing(MAP_SIZES[MAP_SIZES.length - 1]);
+    benchmarkFoliageTiers(MAP_SIZES[MAP_SIZES.length - 1]);
+    benchmarkTerrainCodec("generated " + MAP_SIZES[MAP_SIZES.length - 1], createScene(MAP_SIZES[MAP_SIZES.length - 1]).getTerrain());
+    benchmarkChunkCodecScaling(MAP_SIZES[MAP_SIZES.length - 1]);
+    benchmarkIncrementalSave(MAP_SIZES[MAP_SIZES.length - 1]);
+    benchmarkJournal(MAP_SIZES[MAP_SIZES.length - 1]);
+    for (FileHandle map : G.fs("maps/").list()) {
+      if (map.extension().equalsIgnoreCase(Scene.FILE_EXT)) {
+        // read like the game loader does, Scene.open would start a journal next to the map
+        try {
+          benchmarkTerrainCodec(map.nameWithoutExtension(), ScenePersister.read(map.file(), false).getScene().getTerrain());
+        } catch (Exception e) {
+          Gdx.app.error(TAG, "Could not read " + map.path(), e);
+        }
+      }
+    }
+
+    finished = true;
+    Gdx.app.exit();
+  }
+
+  private void benchmarkTerrainStore(int size) {
+    long heapBefore = usedHeap();
+    Scene scene     = createScene(size);
+    long heapAfter  = usedHeap();
+    Terrain terrain = scene.getTerrain();
+
+    long buildTime  = 0;
+    for (int i = 0; i < BUILD_PASSES; i++) {
+      long start = System.nanoTime();
+      terrain.buildSectors();
+      buildTime += System.nanoTime() - start;
+    }
+
+    long tiles = (long)size * size;
+    Gdx.app.log(TAG, size + "x" + size + " tiles: heap " + kb(heapAfter - heapBefore) + " KB (store " + kb(terrain.getStore().getMemoryFootprint()) + " KB, Tile[][] estimate " + kb(tiles * LEGACY_BYTES_PER_TILE) + " KB)");
+    Gdx.app.log(TAG, size + "x" + size + " tiles: buildSectors " + (buildTime / BUILD_PASSES / 1000000f) + " ms for " + terrain.getTotalSectorCount() + " sectors");
+    terrain.dispose();
+  }
+
+  private void benchmarkBuildScaling(int size) {
+    Terrain terrain = createScene(size).getTerrain();
+    int cores       = Runtime.getRuntime().availableProcessors();
+    float baseline  = 0;
+
+    for (int threads = 1; threads <= cores; threads *= 2) {
+      SectorBuilder builder = new SectorBuilder(threads);
+      terrain.setSectorBuilder(builder);
+      terrain.buildSectors();
+
+      long start = System.nanoTime();
+      for (int i = 0; i < BUILD_PASSES; i++) {
+        terrain.buildSectors();
+      }
+      float time = (System.nanoTime() - start) / BUILD_PASSES / 1000000f;
+      if (threads == 1) {
+        baseline = time;
+      }
+      Gdx.app.log(TAG, size + "x" + size + " tiles: buildSectors on " + threads + " threads " + time + " ms, speedup " + (baseline / time) + "x");
+      builder.dispose();
+    }
+    terrain.setSectorBuilder(SectorBuilder.shared());
+    terrain.dispose();
+  }
+
+  private void benchmarkSectorSize(int size, int sectorSize) {
+    Terrain terrain = createScene(size).getTerrain();
+    terrain.setSectorSize(sectorSize);
+    terrain.buildSectors();
+
+    long start = System.nanoTime();
+    for (int i = 0; i < BUILD_PASSES; i++) {
+      terrain.buildSectors();
+    }
+    float buildTime = (System.nanoTime() - start) / BUILD_PASSES / 1000000f;
+
+    long vertices = 0;
+    long indices  = 0;
+    Tile cursor   = new Tile(terrain.getStore(), 0, 0);
+    for (int x = 0; x < size; x += sectorSize) {
+      for (int z = 0; z < size; z += sectorSize) {
+        SectorGeometry geometry = terrain.getSectorForTile(terrain.getTile(x, z, cursor)).getGeometry();
+        vertices += geometry.terrain.getVertexCount() + geometry.water.getVertexCount() + geometry.foliage.getVertexCount();
+        indices  += geometry.terrain.getIndicesCount() + geometry.water.getIndicesCount() + geometry.foliage.getIndicesCount();
+      }
+    }
+
+    // a single brush stroke in the middle of the map rebuilds one sector
+    Sector sector = terrain.getSectorForTile(terrain.getTile(size / 2, size / 2, cursor));
+    start         = System.nanoTime();
+    for (int i = 0; i < BUILD_PASSES; i++) {
+      sector.build();
+    }
+    float rebuildTime = (System.nanoTime() - start) / BUILD_PASSES / 1000000f;
+
+    // the quadtree walk of renderTerrainGeometry, a full turn of the player camera over the middle of the map. An
+    // upload budget of 0 only culls, the camera moves every pass so the culling cache never hits.
+    PerspectiveCamera camera = new PerspectiveCamera(67, 1280, 720);
+    camera.position.set(size / 2, 12, size / 2);
+    camera.far             = 300;
+    long cullTime          = 0;
+    long visibleSectors    = 0;
+    long visibleDrawCalls  = 0;
+    HashSet<TerrainPage> visiblePages = new HashSet<TerrainPage>();
+    for (int i = 0; i < WARMUP_PASSES + CULL_PASSES; i++) {
+      camera.direction.set(MathUtils.cosDeg(i), -0.5f, MathUtils.sinDeg(i)).nor();
+      camera.up.set(Vector3.Y);
+      camera.update();
+      long cullStart = System.nanoTime();
+      terrain.uploadPages(camera, 0);
+      if (i >= WARMUP_PASSES) {
+        cullTime += System.nanoTime() - cullStart;
+        visiblePages.clear();
+        for (Sector visible : terrain.getVisibleSectors()) {
+          visiblePages.add(visible.getPage());
+        }
+        visibleSectors   += terrain.getVisibleSectorCount();
+        visibleDrawCalls += visiblePages.size() * 3;
+      }
+    }
+
+    int sectors = terrain.getTotalSectorCount();
+    Gdx.app.log(TAG, size + "x" + size + " tiles, sector " + sectorSize + ": buildSectors " + buildTime + " ms, " + sectors + " sectors, " + (terrain.getPageCount() * 3) + " draw calls when all visible (" + (sectors * 3) + " without pages), " + (vertices / sectors) + " vertices per sector, single sector rebuild " + rebuildTime + " ms");
+    Gdx.app.log(TAG, size + "x" + size + " tiles, sector " + sectorSize + ": culling " + (cullTime / CULL_PASSES / 1000f) + " us per frame, " + (visibleSectors / CULL_PASSES) + " visible sectors and " + (visibleDrawCalls / CULL_PASSES) + " draw calls on average");
+    // sector arrays, page arrays and the GPU buffer each held a copy before the shared quad index buffer
+    Gdx.app.log(TAG, size + "x" + size + " tiles, sector " + sectorSize + ": per sector indices would take " + kb(indices * 2 * 3) + " KB, shared quad index buffer takes " + kb(QuadIndexBuffer.getMemoryFootprint()) + " KB");
+    terrain.dispose();
+  }
+
+  // page buffers hold one copy of every vertex, and each visible vertex is fetched once per frame
+  private void benchmarkVertexLayouts(int size) {
+    Terrain terrain = createScene(size).getTerrain();
+    terrain.buildSectors();
+
+    String[] names  = { "terrain", "water", "foliage" };
+    long[] full     = new long[names.length];
+    long[] compact  = new long[names.length];
+    Tile cursor     = new Tile(terrain.getStore(), 0, 0);
+    int sectorSize  = terrain.getSectorSize();
+    for (int x = 0; x < size; x += sectorSize) {
+      for (int z = 0; z < size; z += sectorSize) {
+        SectorGeometry geometry = terrain.getSectorForTile(terrain.getTile(x, z, cursor)).getGeometry();
+        TriangleGrid[] grids    = { geometry.terrain, geometry.water, geometry.foliage };
+        for (int i = 0; i < grids.length; i++) {
+          full[i]    += (long)grids[i].getVertexCount() * new VertexAttributes(grids[i].getVertexAttributes(false)).vertexSize;
+          compact[i] += (long)grids[i].getVertexCount() * new VertexAttributes(grids[i].getVertexAttributes(true)).vertexSize;
+        }
+      }
+    }
+
+    for (int i = 0; i < names.length; i++) {
+      Gdx.app.log(TAG, size + "x" + size + " tiles, " + names[i] + " vertices: full " + kb(full[i]) + " KB, compact " + kb(compact[i]) + " KB (" + (100 - compact[i] * 100 / Math.max(1, full[i])) + "% less memory and vertex fetch)");
+    }
+    terrain.dispose();
+  }
+
+  // meshes every sector on this thread, warm up first so the JIT has compiled the tile loop
+  private void benchmarkSectorMeshing(int size) {
+    Terrain terrain = createScene(size).getTerrain();
+    terrain.buildSectors();
+
+    Tile cursor     = new Tile(terrain.getStore(), 0, 0);
+    int sectorSize  = terrain.getSectorSize();
+    for (int i = 0; i < WARMUP_PASSES; i++) {
+      buildAllSectors(terrain, size, sectorSize, cursor);
+    }
+
+    long start = System.nanoTime();
+    for (int i = 0; i < BUILD_PASSES; i++) {
+      buildAllSectors(terrain, size, sectorSize, cursor);
+    }
+    long time  = (System.nanoTime() - start) / BUILD_PASSES;
+    Gdx.app.log(TAG, size + "x" + size + " tiles: sector meshing " + (time / 1000000f) + " ms, " + (time / ((long)size * size)) + " ns per tile");
+    terrain.dispose();
+  }
+
+  private void buildAllSectors(Terrain terrain, int size, int sectorSize, Tile cursor) {
+    for (int x = 0; x < size; x += sectorSize) {
+      for (int z = 0; z < size; z += sectorSize) {
+        terrain.getSectorForTile(terrain.getTile(x, z, cursor)).build();
+      }
+    }
+  }
+
+  // heap held by an uploaded terrain in the editor compared to the player after freeze()
+  private void benchmarkFrozenTerrain(int size) {
+    Terrain terrain  = createScene(size).getTerrain();
+    terrain.buildSectors();
+    terrain.setCompactVertices(true);
+    long storeBefore = terrain.getStore().getMemoryFootprint();
+    long heapBefore  = usedHeap();
+    terrain.freeze();
+    terrain.uploadAllPages();
+    long heapAfter   = usedHeap();
+    Gdx.app.log(TAG, size + "x" + size + " tiles: heap editable " + kb(heapBefore) + " KB, frozen " + kb(heapAfter) + " KB (" + kb(heapBefore - heapAfter) + " KB released, store " + kb(storeBefore) + " KB -> " + kb(terrain.getStore().getMemoryFootprint()) + " KB)");
+    terrain.dispose();
+  }
+
+  // brush ticks rewrite one sector of a resident page, only its slot range should reach the GPU
+  private void benchmarkPageUpdates(int size) {
+    Terrain terrain = createScene(size).getTerrain();
+    terrain.buildSectors();
+    terrain.uploadAllPages();
+
+    Tile cursor     = new Tile(terrain.getStore(), 0, 0);
+    Sector sector   = terrain.getSectorForTile(terrain.getTile(size / 2, size / 2, cursor));
+    long start      = System.nanoTime();
+    for (int i = 0; i < EDIT_PASSES; i++) {
+      sector.build();
+      sector.getPage().upload();
+    }
+    float editTime  = (System.nanoTime() - start) / EDIT_PASSES / 1000000f;
+
+    int capacity    = MeshPool.getCapacity(sector.getGeometry().terrain.getVertexCount());
+    Gdx.app.log(TAG, size + "x" + size + " tiles: sector edit with in place page update " + editTime + " ms, pooled mesh capacity " + capacity + " vertices");
+    terrain.dispose();
+  }
+
+  // a lake over a quarter of the map next to the scattered puddles, one quad per tile was the old layout
+  private void benchmarkWaterMeshing(int size) {
+    Terrain terrain = createScene(size).getTerrain();
+    Tile cursor     = new Tile(terrain.getStore(), 0, 0);
+    for (int x = 0; x < size / 2; x++) {
+      for (int z = 0; z < size / 2; z++) {
+        Tile tile = terrain.getTile(x, z, cursor);
+        tile.setLiquid(true);
+        tile.setLiquidHeight(0.5f);
+      }
+    }
+    terrain.buildSectors();
+
+    long tiles      = 0;
+    long quads      = 0;
+    int sectorSize  = terrain.getSectorSize();
+    for (int x = 0; x < size; x++) {
+      for (int z = 0; z < size; z++) {
+        if (terrain.getTile(x, z, cursor).isLiquid()) {
+          tiles++;
+        }
+      }
+    }
+    for (int x = 0; x < size; x += sectorSize) {
+      for (int z = 0; z < size; z += sectorSize) {
+        quads += terrain.getSectorForTile(terrain.getTile(x, z, cursor)).getGeometry().water.getVertexCount() / 4;
+      }
+    }
+    Gdx.app.log(TAG, size + "x" + size + " tiles: water quads " + quads + " merged, " + tiles + " per tile (" + (100 - quads * 100 / Math.max(1, tiles)) + "% less water vertices)");
+    terrain.dispose();
+  }
+
+  // whole map as one rectangle through the version 3 and version 4 tile records
+  private void benchmarkTerrainCodec(String name, Terrain terrain) {
+    int columns       = terrain.getColumns();
+    int rows          = terrain.getRows();
+    Deflater deflater = SceneContainer.newDeflater();
+    long[] encodeTime = new long[2];
+    long[] decodeTime = new long[2];
+    byte[][] records  = new byte[2][];
+    for (int pass = 0; pass < WARMUP_PASSES + BUILD_PASSES; pass++) {
+      for (int version = 0; version < 2; version++) {
+        long start       = System.nanoTime();
+        records[version] = version == 0 ? TerrainChunkCodec.encodeVersion3(terrain, 0, 0, columns, rows) : TerrainChunkCodec.encode(terrain, 0, 0, columns, rows);
+        long encoded     = System.nanoTime();
+        TerrainChunkCodec.decode(version == 0 ? 3 : TerrainChunkCodec.VERSION, ByteBuffer.wrap(records[version]), terrain, 0, 0, columns, rows);
+        if (pass >= WARMUP_PASSES) {
+          encodeTime[version] += encoded - start;
+          decodeTime[version] += System.nanoTime() - encoded;
+        }
+      }
+    }
+    int[] deflated = { SceneContainer.compress(records[0], deflater).length, SceneContainer.compress(records[1], deflater).length };
+    deflater.end();
+
+    Gdx.app.log(TAG, name + ": version 3 records " + kb(records[0].length) + " KB, deflated " + kb(deflated[0]) + " KB, encode " + (encodeTime[0] / BUILD_PASSES / 1000000f) + " ms, decode " + (decodeTime[0] / BUILD_PASSES / 1000000f) + " ms");
+    Gdx.app.log(TAG, name + ": version 4 records " + kb(records[1].length) + " KB, deflated " + kb(deflated[1]) + " KB, encode " + (encodeTime[1] / BUILD_PASSES / 1000000f) + " ms, decode " + (decodeTime[1] / BUILD_PASSES / 1000000f) + " ms");
+    terrain.dispose();
+  }
+
+  // compressing on save and decompressing on load through a temporary container
+  private void benchmarkChunkCodecScaling(int size) {
+    Terrain terrain  = createScene(size).getTerrain();
+    int cores        = Runtime.getRuntime().availableProcessors();
+    int chunkSize    = terrain.getSectorSize();
+    byte[][] chunks  = new byte[SceneContainer.getChunkCount(size, size, chunkSize)][];
+    int[] rawLengths = new int[chunks.length];
+    float[] baseline = new float[2];
+    try {
+      File file = File.createTempFile("benchmark", "." + Scene.FILE_EXT);
+      file.deleteOnExit();
+      for (int threads = 1; threads <= cores; threads *= 2) {
+        ChunkCodecPool pool = new ChunkCodecPool(threads);
+        pool.compress(terrain, chunkSize, chunks, rawLengths);
+        SceneContainer.write(file, new byte[0], size, size, chunkSize, chunks, rawLengths);
+        SceneContainer container = SceneContainer.open(file);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < BUILD_PASSES; i++) {
+          pool.compress(terrain, chunkSize, chunks, rawLengths);
+        }
+        long compressed = System.nanoTime();
+        for (int i = 0; i < BUILD_PASSES; i++) {
+          pool.decompress(container, terrain, TerrainChunkCodec.VERSION);
+        }
+        float[] time = { (compressed - start) / BUILD_PASSES / 1000000f, (System.nanoTime() - compressed) / BUILD_PASSES / 1000000f };
+        if (threads == 1) {
+          baseline = time;
+        }
+        Gdx.app.log(TAG, size + "x" + size + " tiles: " + chunks.length + " chunks on " + threads + " threads, compress " + time[0] + " ms, speedup " + (baseline[0] / time[0]) + "x, decompress " + time[1] + " ms, speedup " + (baseline[1] / time[1]) + "x");
+        container.close();
+        pool.dispose();
+      }
+    } catch (IOException e) {
+      Gdx.app.error(TAG, "Could not write benchmark container", e);
+    }
+    terrain.dispose();
+  }
+
+  // a one tile edit saved into the file written by a full save
+  private void benchmarkIncrementalSave(int size) {
+    Scene scene     = createScene(size);
+    Terrain terrain = scene.getTerrain();
+    terrain.buildSectors();
+    try {
+      File file = File.createTempFile("benchmark", "." + Scene.FILE_EXT);
+      file.delete();
+      file.deleteOnExit();
+      ScenePersister persister = new ScenePersister(scene);
+      long start               = System.nanoTime();
+      persister.write(file);
+      float full               = (System.nanoTime() - start) / 1000000f;
+      int fullChunks           = persister.getChunkCount();
+
+      Tile tile = terrain.getTile(size / 2, size / 2);
+      tile.setY(tile.getY() + 1);
+      terrain.addSectorToRebuildFromTile(tile, 0);
+      persister = new ScenePersister(scene);
+      start     = System.nanoTime();
+      persister.write(file);
+      float edit = (System.nanoTime() - start) / 1000000f;
+      Gdx.app.log(TAG, size + "x" + size + " tiles: full save " + full + " ms encoding " + fullChunks + " chunks, save after one tile edit " + edit + " ms encoding " + persister.getChunkCount() + " chunks");
+    } catch (Exception e) {
+      Gdx.app.error(TAG, "Could not save benchmark scene", e);
+    }
+    terrain.dispose();
+  }
+
+  // brush sized edits journaled as they would be while painting, the editing thread only pays for copying the tiles
+  private void benchmarkJournal(int size) {
+    Terrain terrain = createScene(size).getTerrain();
+    Random random   = new Random(1337);
+    try {
+      File file = File.createTempFile("benchmark", "." + Scene.FILE_EXT);
+      file.deleteOnExit();
+      SceneJournal.getFile(file).deleteOnExit();
+      SceneJournal journal = new SceneJournal();
+      journal.open(file);
+
+      long start = System.nanoTime();
+      for (int i = 0; i < EDIT_PASSES * 20; i++) {
+        int x = random.nextInt(size - 5);
+        int z = random.nextInt(size - 5);
+        journal.writeRectangle(terrain, x, z, x + 5, z + 5);
+      }
+      long written  = System.nanoTime();
+      journal.dispose();
+      long synced   = System.nanoTime();
+      int records   = SceneJournal.replay(file, terrain);
+      long replayed = System.nanoTime();
+      Gdx.app.log(TAG, size + "x" + size + " tiles: journal " + ((written - start) / (EDIT_PASSES * 20) / 1000f) + " us per 5x5 edit on the editing thread, writer done encoding " + ((synced - written) / 1000000f) + " ms later, " + kb(SceneJournal.getFile(file).length()) + " KB, replayed " + records + " records in " + ((replayed - synced) / 1000000f) + " ms");
+    } catch (IOException e) {
+      Gdx.app.error(TAG, "Could not write benchmark journal", e);
+    }
+    terrain.dispose();
+  }
+
+  // player camera over the middle of the map, fragments are estimated from the projected area of every foliage quad
+  private void benchmarkFoliageTiers(int size) {
+    Scene scene       = createScene(size);
+    Terrain terrain   = scene.getTerrain();
+    Foliage foliage   = scene.getFoliage();
+    terrain.buildSectors();
+
+    PerspectiveCamera camera = new PerspectiveCamera(67, 1280, 720);
+    camera.position.set(size / 2, 12, size / 2);
+    camera.lookAt(size / 2, 0, size / 2 - 12);
+    camera.far = 300;
+    camera.update();
+
+    long[] vertices   = new long[2];
+    long[] fragments  = new long[2];
+    Tile cursor       = new Tile(terrain.getStore(), 0, 0);
+    int sectorSize    = terrain.getSectorSize();
+    for (int x = 0; x < size; x += sectorSize) {
+      for (int z = 0; z < size; z += sectorSize) {
+        Sector sector = terrain.getSectorForTile(terrain.getTile(x, z, cursor));
+        if (!camera.frustum.boundsInFrustum(sector.getBounds())) {
+          continue;
+        }
+        SectorGeometry geometry = sector.getGeometry();
+        int tiers     = foliage.getTierCount(sector.getPage().getNearestDistance(camera.position));
+        int tierEnd   = tiers > 0 ? geometry.foliageTierEnds[tiers - 1] : 0;
+        int count     = geometry.foliage.getVertexCount();
+        vertices[0]  += count;
+        vertices[1]  += tierEnd;
+        fragments[0] += projectedArea(camera, geometry.foliage, 0, count);
+        fragments[1] += projectedArea(camera, geometry.foliage, 0, tierEnd);
+      }
+    }
+    Gdx.app.log(TAG, size + "x" + size + " tiles: foliage vertices " + vertices[1] + " with density tiers, " + vertices[0] + " without, fragments about " + fragments[1] + " with tiers, " + fragments[0] + " without");
+    terrain.dispose();
+  }
+
+  private long projectedArea(Camera camera, TriangleGrid grid, int start, int end) {
+    float[] vertices = grid.getVerties();
+    int vertexSize   = grid.getVertexSize();
+    Vector3[] quad   = { new Vector3(), new Vector3(), new Vector3(), new Vector3() };
+    float area       = 0;
+    for (int quadStart = start; quadStart < end; quadStart += 4) {
+      boolean behind = false;
+      for (int i = 0; i < 4; i++) {
+        int offset = (quadStart + i) * vertexSize;
+        quad[i].set(vertices[offset], vertices[offset + 1], vertices[offset + 2]);
+        behind    |= camera.direction.dot(quad[i].x - camera.position.x, quad[i].y - camera.position.y, quad[i].z - camera.position.z) <= camera.near;
+        camera.project(quad[i]);
+      }
+      if (!behind) {
+        // (0,1,2) and (2,1,3) cover the quad, so the half cross product of the diagonals is its area
+        area += Math.abs((quad[3].x - quad[0].x) * (quad[1].y - quad[2].y) - (quad[3].y - quad[0].y) * (quad[1].x - quad[2].x)) * 0.5f;
+      }
+    }
+    return (long)area;
+  }
+
+  protected Scene createScene(int size) {
+    Scene scene     = new Scene("benchmark", "benchmark", size, size);
+    Terrain terrain = scene.getTerrain();
+    Random random   = new Random(1337);
+    float[][] corners = new float[size + 1][size + 1];
+    for (int x = 0; x <= size; x++) {
+      for (int z = 0; z <= size; z++) {
+        corners[x][z] = random.nextInt(8) == 0 ? 1 : 0;
+      }
+    }
+
+    terrain.fillEmptyTilesWithDebugTile();
+    FoliageDescriptor descriptor = terrain.getFoliageSet().getLeaves().get(0);
+    Tile cursor                  = new Tile(terrain.getStore(), 0, 0);
+    for (int x = 0; x < size; x++) {
+      for (int z = 0; z < size; z++) {
+        Tile tile = terrain.getTile(x, z, cursor);
+        tile.setY1(corners[x][z]);
+        tile.setY2(corners[x][z + 1]);
+        tile.setY3(corners[x + 1][z]);
+        tile.setY4(corners[x + 1][z + 1]);
+        if (random.nextInt(10) == 0) {
+          tile.setLiquid(true);
+          tile.setLiquidHeight(0.5f);
+        }
+        if (random.nextInt(4) == 0) {
+          tile.setFoliage(descriptor);
+        }
+      }
+    }
+    return scene;
+  }
+
+  protected static long usedHeap() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  protected static long kb(long bytes) {
+    return bytes / 1024;
+  }
+
+  @Override
+  public void resize(int width, int height) {
+  }
+
+  @Override
+  public void show() {
+  }
+
+  @Override
+  public void hide() {
+  }
+
+  @Override
+  public void pause() {
+  }
+
+  @Override
+  public void resume() {
+  }
+
+  @Override
+  public void dispose() {
+  }
+}
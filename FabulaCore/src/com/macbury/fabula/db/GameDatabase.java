@@ -85,18 +85,14 @@ public class GameDatabase {
   }
   
   public void reloadMapData() {
-    Serializer serializer = GameDatabase.getDefaultSerializer();
     for (FileHandle fh : G.fs("maps/").list()) {
       if (fh.extension().equalsIgnoreCase(Scene.FILE_EXT)) {
-        ScenePersister scenePersister = new ScenePersister();
-        scenePersister.setSkipLoadingTerrainData(true);
         try {
-          serializer.read(scenePersister, fh.file());
+          ScenePersister scenePersister = ScenePersister.read(fh.file(), true);
+          maps.put(scenePersister.getUID(), fh.nameWithoutExtension());
         } catch (Exception e) {
           e.printStackTrace();
         }
-        
-        maps.put(scenePersister.getUID(), fh.nameWithoutExtension());
       }
     }
     
@@ -0,0 +1,55 @@
+package com.macbury.fabula.graphics;
+
+import com.badlogic.gdx.graphics.Camera;
+import com.badlogic.gdx.graphics.Color;
+import com.badlogic.gdx.graphics.glutils.ShaderProgram;
+
+// Distance fog that hides where the terrain draw distance cuts sectors off. Geometry fades into the fog color
+// between START of the draw distance and the draw distance itself, the sky fades into it towards the horizon.
+public class Fog {
+  public static final float DEFAULT_DRAW_DISTANCE = 0.0f;
+  private static final float START                = 0.6f;
+  private static final float HORIZON              = 0.25f;
+  private static final String UNIFORM_FOG_COLOR   = "u_fog_color";
+  private static final String UNIFORM_FOG_RANGE   = "u_fog_range";
+  private static final String UNIFORM_FOG_HORIZON = "u_fog_horizon";
+
+  private final Color color = new Color(0.74f, 0.8f, 0.86f, 1.0f);
+  private float drawDistance = DEFAULT_DRAW_DISTANCE;
+
+  // 0 or less means there is no draw distance and no fog
+  public boolean isEnabled() {
+    return drawDistance > 0;
+  }
+
+  public float getDrawDistance() {
+    return drawDistance;
+  }
+
+  public void setDrawDistance(float drawDistance) {
+    this.drawDistance = drawDistance;
+  }
+
+  public Color getColor() {
+    return color;
+  }
+
+  public void setColor(Color color) {
+    this.color.set(color);
+  }
+
+  // editor shaders do not use fog, so the uniforms are only set when the program has them
+  public void apply(ShaderProgram shader, Camera camera) {
+    if (shader.hasUniform(UNIFORM_FOG_RANGE)) {
+      // without draw distance the fog starts behind the far plane
+      float end = isEnabled() ? drawDistance : camera.far * 2.0f;
+      shader.setUniformf(UNIFORM_FOG_RANGE, end * START, end);
+    }
+    if (shader.hasUniform(UNIFORM_FOG_HORIZON)) {
+      shader.setUniformf(UNIFORM_FOG_HORIZON, isEnabled() ? HORIZON : 0.0f);
+    }
+    if (shader.hasUniform(UNIFORM_FOG_COLOR)) {
+      shader.setUniformf(UNIFORM_FOG_COLOR, color);
+    }
+  }
+}
@@ -40,6 +40,11 @@ public class SkyBox implements Disposable {
   }
   
   public void render(PerspectiveCamera camera) {
+    render(camera, null);
+  }
+  
+  // the fog color covers the sky near the horizon, where the terrain fades into it
+  public void render(PerspectiveCamera camera, Fog fog) {
     invView.set(camera.view);
     
     invView.val[Matrix4.M03] = 0;
@@ -66,6 +71,9 @@ public class SkyBox implements Disposable {
 
     G.shaders.setUniformMatrix(MODELVIEW_UNIFORM, mvp);
     G.shaders.setUniformi(CUBEMAP_UNIFORM, 0);
+    if (fog != null) {
+      fog.apply(G.shaders.getCurrent(), camera);
+    }
 
     mesh.render(G.shaders.getCurrent(), GL20.GL_TRIANGLE_STRIP);
 
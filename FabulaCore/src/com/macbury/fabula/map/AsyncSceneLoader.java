@@ -2,12 +2,11 @@ package com.macbury.fabula.map;
 
 import java.io.File;
 
-import org.simpleframework.xml.Serializer;
-
 import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.graphics.Camera;
 import com.badlogic.gdx.math.Vector2;
-import com.macbury.fabula.db.GameDatabase;
 import com.macbury.fabula.persister.ScenePersister;
+import com.macbury.fabula.terrain.Terrain;
 
 public class AsyncSceneLoader implements Runnable {
   private static final String TAG = "AsyncSceneLoader";
@@ -23,19 +22,15 @@ public class AsyncSceneLoader implements Runnable {
   @Override
   public void run() {
     Gdx.app.log(TAG, "Loading file: " + file.getAbsolutePath());
-    Serializer serializer = GameDatabase.getDefaultSerializer();
     try {
-      ScenePersister scenePersister = serializer.read(ScenePersister.class, file);
+      long start = System.currentTimeMillis();
+      ScenePersister scenePersister = ScenePersister.read(file, false);
       final Scene scene = scenePersister.getScene();
       Gdx.app.log(TAG, "Loaded " + scene.getName());
+      Scene.logTimings("Loaded", System.currentTimeMillis() - start, scenePersister);
       scene.getTerrain().buildSectors();
       Gdx.app.log(TAG, "Builded sectors");
-      Gdx.app.postRunnable(new Runnable() {
-        @Override
-        public void run() {
-          listener.onSceneDidLoad(scene, spawnPosition);
-        }
-      });
+      Gdx.app.postRunnable(new SceneUploader(scene));
       
     } catch (final Exception e) {
       Gdx.app.error(TAG, "Scene load error!", e);
@@ -48,7 +43,38 @@ public class AsyncSceneLoader implements Runnable {
     }
   }
   
+  // Uploads pages on the GL thread a frame budget at a time, the scene is handed over once the visible pages are resident
+  private class SceneUploader implements Runnable {
+    private Scene scene;
+    private Camera camera;
+    
+    public SceneUploader(Scene scene) {
+      this.scene = scene;
+    }
+    
+    @Override
+    public void run() {
+      try {
+        if (camera == null) {
+          camera = listener.onSceneWillUpload(scene, spawnPosition);
+        }
+        
+        if (scene.getTerrain().uploadPages(camera, Terrain.UPLOAD_BUDGET_NANOS)) {
+          Gdx.app.log(TAG, "Visible pages resident, " + scene.getTerrain().getPendingPageCount() + " pages left to upload");
+          listener.onSceneDidLoad(scene, spawnPosition);
+        } else {
+          Gdx.app.postRunnable(this);
+        }
+      } catch (Exception e) {
+        Gdx.app.error(TAG, "Scene upload error!", e);
+        listener.onSceneLoadError(e);
+      }
+    }
+  }
+  
   public interface AsyncSceneLoaderListener {
+    // Called on the GL thread before any page is uploaded, the returned camera decides which pages go first
+    public Camera onSceneWillUpload(Scene scene, Vector2 spawnPosition);
     public void onSceneDidLoad(Scene scene, Vector2 spawnPosition);
     public void onSceneLoadError(Exception e);
   }
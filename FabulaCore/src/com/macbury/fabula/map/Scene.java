@@ -2,7 +2,6 @@ package com.macbury.fabula.map;
 
 import java.io.File;
 
-import org.simpleframework.xml.Serializer;
 
 import com.artemis.Entity;
 import com.artemis.World;
@@ -23,7 +22,6 @@ import com.badlogic.gdx.graphics.glutils.ShapeRenderer.ShapeType;
 import com.badlogic.gdx.math.Vector2;
 import com.badlogic.gdx.math.Vector3;
 import com.badlogic.gdx.utils.Disposable;
-import com.macbury.fabula.db.GameDatabase;
 import com.macbury.fabula.db.PlayerStartPosition;
 import com.macbury.fabula.game_objects.components.DecalComponent;
 import com.macbury.fabula.game_objects.components.PositionComponent;
@@ -34,6 +32,7 @@ import com.macbury.fabula.game_objects.system.PlayerSystem;
 import com.macbury.fabula.game_objects.system.TileMovementSystem;
 import com.macbury.fabula.graphics.SkyBox;
 import com.macbury.fabula.manager.G;
+import com.macbury.fabula.persister.SceneJournal;
 import com.macbury.fabula.persister.ScenePersister;
 import com.macbury.fabula.terrain.Terrain;
 import com.macbury.fabula.terrain.foliage.Foliage;
@@ -71,6 +70,9 @@ public class Scene implements Disposable {
   private SkyBox skybox;
   private EditorEntityManagmentSystem editorEntityManagmentSystem;
   private Foliage foliage;
+  // file the terrain chunks were last loaded from or saved to, saving to it again only encodes edited sectors
+  private File file;
+  private SceneJournal journal = new SceneJournal();
 
   public SkyBox getSkybox() {
     return skybox;
@@ -93,6 +95,7 @@ public class Scene implements Disposable {
     lights.add(sunLight);
 
     this.terrain      = new Terrain(width, height);
+    this.terrain.setLights(lights, sunLight);
     this.terrain.setTileset("outside");
     this.terrain.setFoliageSet("outside");
     this.finalShader  = "default";
@@ -140,13 +143,13 @@ public class Scene implements Disposable {
     
     sm.beginFB(MAIN_FRAME_BUFFER);
       if (this.skybox != null) {
-        this.skybox.render(perspectiveCamera);
+        this.skybox.render(perspectiveCamera, terrain.getFog());
       }
       
       getModelBatch().begin(perspectiveCamera);
         this.terrain.renderTerrainGeometry(perspectiveCamera, getModelBatch());
         this.decalRenderingSystem.process();
-        this.terrain.renderFoliageGeometry(getModelBatch(), foliage);
+        this.terrain.renderFoliageGeometry(perspectiveCamera, getModelBatch(), foliage);
         this.terrain.renderLiquidGeometry(getModelBatch(), water);
         
       getModelBatch().end();
@@ -179,10 +182,17 @@ public class Scene implements Disposable {
   }
   
   public static Scene open(File file) {
-    Serializer serializer = GameDatabase.getDefaultSerializer();
     try {
-      ScenePersister scenePersister = serializer.read(ScenePersister.class, file);
+      long start = System.currentTimeMillis();
+      ScenePersister scenePersister = ScenePersister.read(file, false);
       Scene scene  = scenePersister.getScene();
+      logTimings("Loaded", System.currentTimeMillis() - start, scenePersister);
+      
+      int records  = SceneJournal.replay(file, scene.getTerrain());
+      if (records > 0) {
+        Gdx.app.log(TAG, "Replayed " + records + " unsaved edits from the journal");
+      }
+      scene.journal.open(file);
       return scene;
     } catch (Exception e) {
       e.printStackTrace();
@@ -195,23 +205,29 @@ public class Scene implements Disposable {
     ScenePersister persister = null;
     try {
       persister = new ScenePersister(this);
-      GameDatabase.save(persister, getPath());
+      persister.write(G.fs(getPath()).file());
+      journal.open(file);
+      journal.truncate();
     } catch (Exception e) {
       e.printStackTrace();
     }
     
-    long time = (System.currentTimeMillis() - start);
-    Gdx.app.log(TAG, "Saved in: "+time + " miliseconds");
+    logTimings("Saved", System.currentTimeMillis() - start, persister);
     Gdx.app.log(TAG, "Compressed from: "+persister.getUncompressedSize()/1024+ " KB to " + persister.getCompressedSize() / 1024 + " KB");
     return true;
   }
   
+  public static void logTimings(String action, long time, ScenePersister persister) {
+    Gdx.app.log(TAG, action + " in: "+time + " miliseconds, " + persister.getChunkCount() + " chunks in " + persister.getCodecTime() + " miliseconds on " + persister.getCodecThreads() + " threads");
+  }
+  
   public String getPath() {
     return "maps/"+this.name+"."+FILE_EXT;
   }
 
   @Override
   public void dispose() {
+    this.journal.dispose();
     this.terrain.dispose();
     this.skybox.dispose();
     this.decalBatch.dispose();
@@ -235,6 +251,19 @@ public class Scene implements Disposable {
     return this.name;
   }
 
+  // Tile edits since the last save, replayed by open() when the editor did not save before closing
+  public SceneJournal getJournal() {
+    return journal;
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  public void setFile(File file) {
+    this.file = file;
+  }
+
   public String getUID() {
     return this.uid;
   }
@@ -0,0 +1,156 @@
+package com.macbury.fabula.persister;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.Deflater;
+
+import com.badlogic.gdx.utils.Disposable;
+import com.badlogic.gdx.utils.GdxRuntimeException;
+import com.macbury.fabula.terrain.Terrain;
+
+// Encodes and deflates scene chunks on worker threads, and inflates and decodes them on load. Chunks are independent,
+// so every task deflates its range with its own Deflater and the chunk order in the container does not depend on the
+// thread count.
+public class ChunkCodecPool implements Disposable {
+  private static ChunkCodecPool shared;
+  private ExecutorService executor;
+  private int threads;
+
+  public static synchronized ChunkCodecPool shared() {
+    if (shared == null) {
+      shared = new ChunkCodecPool(Runtime.getRuntime().availableProcessors());
+    }
+    return shared;
+  }
+
+  public ChunkCodecPool(int threads) {
+    this.threads  = Math.max(1, threads);
+    this.executor = Executors.newFixedThreadPool(this.threads, new ThreadFactory() {
+      private int count = 0;
+
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "ChunkCodec-" + (count++));
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+
+  public int getThreads() {
+    return threads;
+  }
+
+  // Fills chunks and rawLengths, chunk i covers the block (i / chunksZ, i % chunksZ) of chunkSize tiles
+  public void compress(Terrain terrain, int chunkSize, byte[][] chunks, int[] rawLengths) {
+    BitSet all = new BitSet(chunks.length);
+    all.set(0, chunks.length);
+    compress(terrain, chunkSize, chunks, rawLengths, all);
+  }
+
+  // Only fills the chunks set in dirty, the others are left as they are
+  public void compress(final Terrain terrain, final int chunkSize, final byte[][] chunks, final int[] rawLengths, BitSet dirty) {
+    final int columns = terrain.getColumns();
+    final int rows    = terrain.getRows();
+    final int chunksZ = SceneContainer.getChunksZ(rows, chunkSize);
+    final int[] ids   = new int[dirty.cardinality()];
+    int count         = 0;
+    for (int id = dirty.nextSetBit(0); id >= 0 && id < chunks.length; id = dirty.nextSetBit(id + 1)) {
+      ids[count++] = id;
+    }
+    run(count, new ChunkTask() {
+      @Override
+      public void run(int start, int end) {
+        // ended right away, the pool threads live as long as the editor and would keep the native zlib memory
+        Deflater deflater = SceneContainer.newDeflater();
+        try {
+          for (int n = start; n < end; n++) {
+            int i          = ids[n];
+            int startX     = (i / chunksZ) * chunkSize;
+            int startZ     = (i % chunksZ) * chunkSize;
+            byte[] records = TerrainChunkCodec.encode(terrain, startX, startZ, Math.min(startX + chunkSize, columns), Math.min(startZ + chunkSize, rows));
+            rawLengths[i]  = records.length;
+            chunks[i]      = SceneContainer.compress(records, deflater);
+          }
+        } finally {
+          deflater.end();
+        }
+      }
+    });
+  }
+
+  // Returns the highest gid of the decoded tiles
+  public int decompress(final SceneContainer container, final Terrain terrain, final int version) {
+    final int columns   = terrain.getColumns();
+    final int rows      = terrain.getRows();
+    final int chunkSize = container.getChunkSize();
+    final int chunksZ   = SceneContainer.getChunksZ(rows, chunkSize);
+    final int[] maxGids = new int[container.getChunkCount()];
+    run(container.getChunkCount(), new ChunkTask() {
+      @Override
+      public void run(int start, int end) {
+        SceneContainer.ChunkReader reader = container.newReader();
+        try {
+          for (int i = start; i < end; i++) {
+            int startX = (i / chunksZ) * chunkSize;
+            int startZ = (i % chunksZ) * chunkSize;
+            maxGids[i] = TerrainChunkCodec.decode(version, reader.read(i), terrain, startX, startZ, Math.min(startX + chunkSize, columns), Math.min(startZ + chunkSize, rows));
+          }
+        } finally {
+          reader.dispose();
+        }
+      }
+    });
+
+    int maxGid = 0;
+    for (int gid : maxGids) {
+      maxGid = Math.max(maxGid, gid);
+    }
+    return maxGid;
+  }
+
+  private void run(int count, final ChunkTask task) {
+    if (threads == 1 || count <= 1) {
+      task.run(0, count);
+      return;
+    }
+
+    int parts                  = Math.min(count, threads * 4);
+    ArrayList<Future<?>> tasks = new ArrayList<Future<?>>(parts);
+    for (int part = 0; part < parts; part++) {
+      final int start = part * count / parts;
+      final int end   = (part + 1) * count / parts;
+      tasks.add(executor.submit(new Runnable() {
+        @Override
+        public void run() {
+          task.run(start, end);
+        }
+      }));
+    }
+
+    for (Future<?> future : tasks) {
+      try {
+        future.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new GdxRuntimeException("Interrupted while coding scene chunks", e);
+      } catch (ExecutionException e) {
+        throw new GdxRuntimeException("Could not code scene chunk", e.getCause());
+      }
+    }
+  }
+
+  private interface ChunkTask {
+    public void run(int start, int end);
+  }
+
+  @Override
+  public void dispose() {
+    executor.shutdown();
+  }
+}
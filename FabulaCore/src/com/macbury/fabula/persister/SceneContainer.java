@@ -0,0 +1,304 @@
+package com.macbury.fabula.persister;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.utils.GdxRuntimeException;
+
+// Binary scene file. A header with the scene metadata as XML and an offset table, followed by one independently
+// deflated chunk of tile records per sector sized block of the map. Chunk i covers the block (i / chunksZ, i % chunksZ),
+// the same order as terrain sector ids. Files are read through a read only mapping, only the chunk being inflated is
+// copied out of it.
+public class SceneContainer {
+  private static final String TAG = "SceneContainer";
+  public static final int MAGIC  = 0x46425343; // "FBSC"
+  public static final int FORMAT = 1;
+  private static final int COMPRESSION_LEVEL = 9;
+
+  private ByteBuffer buffer;
+  private byte[] metadata;
+  private int columns;
+  private int rows;
+  private int chunkSize;
+  private int[] offsets;
+  private int[] compressedLengths;
+  private int[] rawLengths;
+
+  public static boolean isContainer(File file) throws IOException {
+    recover(file);
+    RandomAccessFile input = new RandomAccessFile(file, "r");
+    try {
+      return input.length() >= 4 && input.readInt() == MAGIC;
+    } finally {
+      input.close();
+    }
+  }
+
+  public static SceneContainer open(File file) throws IOException {
+    recover(file);
+    RandomAccessFile input = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel     = input.getChannel();
+      // the mapping stays valid after the channel is closed
+      MappedByteBuffer mapped = channel.map(MapMode.READ_ONLY, 0, channel.size());
+      return new SceneContainer(mapped);
+    } finally {
+      input.close();
+    }
+  }
+
+  // Reads the file into memory instead of mapping it, so it can be replaced while the container is still open
+  public static SceneContainer read(File file) throws IOException {
+    recover(file);
+    RandomAccessFile input = new RandomAccessFile(file, "r");
+    try {
+      byte[] bytes = new byte[(int)input.length()];
+      input.readFully(bytes);
+      return new SceneContainer(ByteBuffer.wrap(bytes));
+    } finally {
+      input.close();
+    }
+  }
+
+  private SceneContainer(ByteBuffer buffer) {
+    this.buffer = buffer;
+    if (buffer.getInt() != MAGIC) {
+      throw new GdxRuntimeException("Not a scene container!");
+    }
+    int format = buffer.getInt();
+    if (format != FORMAT) {
+      throw new GdxRuntimeException("Scene container format is " + format + " but required is " + FORMAT);
+    }
+
+    metadata   = new byte[buffer.getInt()];
+    buffer.get(metadata);
+    columns    = buffer.getInt();
+    rows       = buffer.getInt();
+    chunkSize  = buffer.getInt();
+
+    int count         = buffer.getInt();
+    if (count < 0 || count > buffer.remaining() / 12) {
+      throw new GdxRuntimeException("Scene container offset table is corrupted");
+    }
+    offsets           = new int[count];
+    compressedLengths = new int[count];
+    rawLengths        = new int[count];
+    for (int i = 0; i < count; i++) {
+      offsets[i]           = buffer.getInt();
+      compressedLengths[i] = buffer.getInt();
+      rawLengths[i]        = buffer.getInt();
+      if (offsets[i] < 0 || compressedLengths[i] < 0 || rawLengths[i] < 0 || offsets[i] > buffer.capacity() - compressedLengths[i]) {
+        throw new GdxRuntimeException("Scene chunk " + i + " is outside of the container");
+      }
+    }
+  }
+
+  public static int getChunkCount(int columns, int rows, int chunkSize) {
+    return getChunksX(columns, chunkSize) * getChunksZ(rows, chunkSize);
+  }
+
+  public static int getChunksX(int columns, int chunkSize) {
+    return (columns + chunkSize - 1) / chunkSize;
+  }
+
+  public static int getChunksZ(int rows, int chunkSize) {
+    return (rows + chunkSize - 1) / chunkSize;
+  }
+
+  public byte[] getMetadata() {
+    return metadata;
+  }
+
+  public int getColumns() {
+    return columns;
+  }
+
+  public int getRows() {
+    return rows;
+  }
+
+  public int getChunkSize() {
+    return chunkSize;
+  }
+
+  public int getChunkCount() {
+    return offsets.length;
+  }
+
+  public int getRawLength(int index) {
+    return rawLengths[index];
+  }
+
+  // Deflated bytes of the chunk as they are stored, for copying unchanged chunks into a new container
+  public byte[] getCompressedChunk(int index) {
+    byte[] chunk      = new byte[compressedLengths[index]];
+    ByteBuffer source = buffer.duplicate();
+    source.position(offsets[index]);
+    source.get(chunk);
+    return chunk;
+  }
+
+  public int getCompressedSize() {
+    return buffer.capacity();
+  }
+
+  public ChunkReader newReader() {
+    return new ChunkReader();
+  }
+
+  public void close() {
+    buffer = null;
+  }
+
+  public static byte[] compress(byte[] raw, Deflater deflater) {
+    deflater.reset();
+    deflater.setInput(raw);
+    deflater.finish();
+    ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 4 + 64);
+    byte[] block              = new byte[4096];
+    while (!deflater.finished()) {
+      int count = deflater.deflate(block);
+      out.write(block, 0, count);
+    }
+    return out.toByteArray();
+  }
+
+  public static Deflater newDeflater() {
+    return new Deflater(COMPRESSION_LEVEL);
+  }
+
+  // Writes next to the file first, so a failed save does not destroy the previous one
+  public static void write(File file, byte[] metadata, int columns, int rows, int chunkSize, byte[][] chunks, int[] rawLengths) throws IOException {
+    File temp               = new File(file.getPath() + ".tmp");
+    FileOutputStream stream = new FileOutputStream(temp);
+    DataOutputStream out    = new DataOutputStream(new BufferedOutputStream(stream, 64 * 1024));
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(FORMAT);
+      out.writeInt(metadata.length);
+      out.write(metadata);
+      out.writeInt(columns);
+      out.writeInt(rows);
+      out.writeInt(chunkSize);
+      out.writeInt(chunks.length);
+
+      int offset = out.size() + chunks.length * 12;
+      for (int i = 0; i < chunks.length; i++) {
+        out.writeInt(offset);
+        out.writeInt(chunks[i].length);
+        out.writeInt(rawLengths[i]);
+        offset += chunks[i].length;
+      }
+      for (byte[] chunk : chunks) {
+        out.write(chunk);
+      }
+      // on disk before it replaces the previous file
+      out.flush();
+      stream.getFD().sync();
+    } finally {
+      out.close();
+    }
+
+    replace(temp, file);
+  }
+
+  // Renames over the file in one step where the platform allows it (rename replaces the target on POSIX file systems).
+  // Where it can not, the previous file is kept as a backup until the new one is in place, and recover puts it back if
+  // a crash happened in between. Only java.io is used, the player reads scenes on Android as well.
+  private static void replace(File temp, File file) throws IOException {
+    if (temp.renameTo(file)) {
+      return;
+    }
+    Gdx.app.log(TAG, "Could not rename over " + file.getPath() + ", replacing it through a backup");
+
+    File backup = getBackupFile(file);
+    if (file.exists()) {
+      if (backup.exists() && !backup.delete()) {
+        throw new IOException("Could not delete the old backup " + backup.getPath());
+      }
+      if (!file.renameTo(backup)) {
+        throw new IOException("Could not move " + file.getPath() + " to " + backup.getPath());
+      }
+    }
+    if (!temp.renameTo(file)) {
+      backup.renameTo(file);
+      throw new IOException("Could not move " + temp.getPath() + " to " + file.getPath());
+    }
+    if (backup.exists() && !backup.delete()) {
+      Gdx.app.log(TAG, "Could not delete the backup " + backup.getPath());
+    }
+  }
+
+  private static void recover(File file) throws IOException {
+    File backup = getBackupFile(file);
+    if (!file.exists() && backup.exists()) {
+      Gdx.app.log(TAG, "Restoring " + file.getPath() + " from the backup of an interrupted save");
+      if (!backup.renameTo(file)) {
+        throw new IOException("Could not restore " + file.getPath() + " from " + backup.getPath());
+      }
+    }
+  }
+
+  private static File getBackupFile(File file) {
+    return new File(file.getPath() + ".bak");
+  }
+
+  // Inflater and buffers for reading chunks on one thread, the returned buffer is reused by the next read
+  public class ChunkReader {
+    private Inflater inflater = new Inflater();
+    private byte[] compressed = new byte[0];
+    private byte[] raw        = new byte[0];
+
+    public ByteBuffer read(int index) {
+      int length = compressedLengths[index];
+      if (compressed.length < length) {
+        compressed = new byte[length];
+      }
+      if (raw.length < rawLengths[index]) {
+        raw = new byte[rawLengths[index]];
+      }
+
+      // Inflater only takes arrays before Java 11, so the compressed chunk is the one copy
+      ByteBuffer source = buffer.duplicate();
+      source.position(offsets[index]);
+      source.get(compressed, 0, length);
+
+      inflater.reset();
+      inflater.setInput(compressed, 0, length);
+      try {
+        int count = 0;
+        while (count < rawLengths[index] && !inflater.finished()) {
+          int inflated = inflater.inflate(raw, count, rawLengths[index] - count);
+          // a truncated or corrupted chunk stops producing bytes before it is finished
+          if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+            break;
+          }
+          count += inflated;
+        }
+        if (count != rawLengths[index]) {
+          throw new GdxRuntimeException("Scene chunk " + index + " is truncated");
+        }
+      } catch (DataFormatException e) {
+        throw new GdxRuntimeException("Scene chunk " + index + " is corrupted", e);
+      }
+      return ByteBuffer.wrap(raw, 0, rawLengths[index]);
+    }
+
+    public void dispose() {
+      inflater.end();
+    }
+  }
+}
@@ -0,0 +1,347 @@
+package com.macbury.fabula.persister;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.zip.CRC32;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.utils.Disposable;
+import com.badlogic.gdx.utils.GdxRuntimeException;
+import com.macbury.fabula.terrain.Terrain;
+import com.macbury.fabula.terrain.TerrainStore;
+import com.macbury.fabula.terrain.tile.Tile;
+
+// Append only log of tile edits made since the last save, kept next to the scene file. Every record is the current
+// state of a rectangle of tiles, so replaying them in order on top of the saved scene restores the edits after a
+// crash. The editing thread only copies the tiles of a record, they are encoded, written, batched and synced by a
+// background thread.
+//
+// File layout: MAGIC, the terrain codec version, then records of length, CRC32 and payload. The payload is the
+// rectangle followed by its tile records. A record torn by a crash fails its length or CRC and ends the journal.
+public class SceneJournal implements Disposable {
+  private static final String TAG             = "SceneJournal";
+  public static final String FILE_EXT         = "journal";
+  private static final int MAGIC              = 0x46424a4c; // "FBJL"
+  private static final int HEADER_SIZE        = 8;
+  private static final int RECORD_HEADER_SIZE = 8;
+  // tiles around an edit can change with it, slopes and auto tile borders
+  private static final int MARGIN             = 1;
+  // edited tiles are grouped per cell of this size, every group is journaled as its own rectangle
+  private static final int CLUSTER_SIZE       = 16;
+
+  private final LinkedBlockingQueue<Entry> queue = new LinkedBlockingQueue<Entry>();
+  private volatile File file;
+  private Thread writer;
+
+  public static File getFile(File sceneFile) {
+    return new File(sceneFile.getPath() + "." + FILE_EXT);
+  }
+
+  // Starts journaling into the journal of the scene file, appending to what is already there
+  public synchronized void open(File sceneFile) {
+    File journalFile = getFile(sceneFile.getAbsoluteFile());
+    if (journalFile.equals(file)) {
+      return;
+    }
+    file = journalFile;
+    if (writer == null) {
+      writer = new Thread(new Writer(), "SceneJournal");
+      writer.setDaemon(true);
+      writer.start();
+    }
+    queue.add(new Entry(Entry.OPEN, journalFile));
+  }
+
+  public boolean isOpen() {
+    return file != null;
+  }
+
+  // Journals the current state of the tiles and their neighbours. Scattered tiles become separate small rectangles,
+  // one per CLUSTER_SIZE cell of the map, instead of one rectangle spanning everything between them.
+  public void writeTiles(Terrain terrain, List<Tile> tiles) {
+    if (file == null || tiles.isEmpty()) {
+      return;
+    }
+    int cellsZ                          = terrain.getRows() / CLUSTER_SIZE + 1;
+    LinkedHashMap<Integer, int[]> cells = new LinkedHashMap<Integer, int[]>();
+    for (Tile tile : tiles) {
+      int x        = (int)tile.getX();
+      int z        = (int)tile.getZ();
+      Integer cell = (x / CLUSTER_SIZE) * cellsZ + z / CLUSTER_SIZE;
+      int[] bounds = cells.get(cell);
+      if (bounds == null) {
+        cells.put(cell, new int[] { x, z, x + 1, z + 1 });
+      } else {
+        bounds[0] = Math.min(bounds[0], x);
+        bounds[1] = Math.min(bounds[1], z);
+        bounds[2] = Math.max(bounds[2], x + 1);
+        bounds[3] = Math.max(bounds[3], z + 1);
+      }
+    }
+    for (int[] bounds : cells.values()) {
+      writeRectangle(terrain, bounds[0] - MARGIN, bounds[1] - MARGIN, bounds[2] + MARGIN, bounds[3] + MARGIN);
+    }
+  }
+
+  // Copies the rectangle out of the terrain, the writer thread encodes the copy
+  public void writeRectangle(Terrain terrain, int startX, int startZ, int endX, int endZ) {
+    if (file == null) {
+      return;
+    }
+    startX = Math.max(0, startX);
+    startZ = Math.max(0, startZ);
+    endX   = Math.min(terrain.getColumns(), endX);
+    endZ   = Math.min(terrain.getRows(), endZ);
+    if (startX >= endX || startZ >= endZ) {
+      return;
+    }
+
+    TerrainStore store = terrain.getStore();
+    TerrainStore tiles = new TerrainStore(endX - startX, endZ - startZ);
+    for (int z = startZ; z < endZ; z++) {
+      for (int x = startX; x < endX; x++) {
+        tiles.copy(tiles.index(x - startX, z - startZ), store, store.index(x, z));
+      }
+    }
+    queue.add(new Entry(tiles, startX, startZ));
+  }
+
+  private static byte[] encodeRecord(TerrainStore tiles, int startX, int startZ) {
+    int endX          = startX + tiles.getColumns();
+    int endZ          = startZ + tiles.getRows();
+    byte[] encoded    = TerrainChunkCodec.encode(tiles, 0, 0, tiles.getColumns(), tiles.getRows());
+    ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + 16 + encoded.length);
+    record.putInt(16 + encoded.length);
+    record.putInt(0);
+    record.putInt(startX).putInt(startZ).putInt(endX).putInt(endZ);
+    record.put(encoded);
+
+    CRC32 crc = new CRC32();
+    crc.update(record.array(), RECORD_HEADER_SIZE, record.capacity() - RECORD_HEADER_SIZE);
+    record.putInt(4, (int)crc.getValue());
+    return record.array();
+  }
+
+  // Everything journaled so far is in the saved scene, records written after this start a new journal
+  public void truncate() {
+    if (file != null) {
+      queue.add(new Entry(Entry.TRUNCATE, null));
+    }
+  }
+
+  // Writes pending records and stops the writer, blocks until the journal is closed
+  @Override
+  public synchronized void dispose() {
+    if (writer == null) {
+      return;
+    }
+    queue.add(new Entry(Entry.CLOSE, null));
+    try {
+      writer.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    writer = null;
+    file   = null;
+  }
+
+  // Applies the journal of the scene file to the terrain and returns the number of records. Replayed tiles are
+  // marked unsaved, so the next save encodes them, and new tiles get gids after the replayed ones.
+  public static int replay(File sceneFile, Terrain terrain) throws IOException {
+    File journalFile = getFile(sceneFile.getAbsoluteFile());
+    if (!journalFile.exists()) {
+      return 0;
+    }
+
+    byte[] bytes      = readFile(journalFile);
+    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    int end           = getValidLength(bytes);
+    if (end < HEADER_SIZE) {
+      Gdx.app.log(TAG, "Ignoring journal " + journalFile.getPath() + " of another terrain version");
+      return 0;
+    }
+
+    int records = 0;
+    int maxGid  = 0;
+    buffer.position(HEADER_SIZE);
+    while (buffer.position() < end) {
+      int length = buffer.getInt();
+      buffer.getInt();
+      int startX = buffer.getInt();
+      int startZ = buffer.getInt();
+      int endX   = buffer.getInt();
+      int endZ   = buffer.getInt();
+      if (startX < 0 || startZ < 0 || startX >= endX || startZ >= endZ || endX > terrain.getColumns() || endZ > terrain.getRows()) {
+        throw new GdxRuntimeException("Journal record is outside of the terrain");
+      }
+      ByteBuffer tiles = ByteBuffer.wrap(bytes, buffer.position(), length - 16).slice();
+      maxGid           = Math.max(maxGid, TerrainChunkCodec.decode(TerrainChunkCodec.VERSION, tiles, terrain, startX, startZ, endX, endZ));
+      for (int x = startX; x < endX; x++) {
+        for (int z = startZ; z < endZ; z++) {
+          terrain.markTileUnsaved(x, z);
+        }
+      }
+      buffer.position(buffer.position() + length - 16);
+      records++;
+    }
+    Tile.GID_COUNTER = Math.max(Tile.GID_COUNTER, maxGid + 1);
+    if (end < bytes.length) {
+      Gdx.app.log(TAG, "Dropped " + (bytes.length - end) + " bytes of a torn journal record");
+    }
+    return records;
+  }
+
+  // Length of the header and the complete records, or 0 when the header does not match
+  private static int getValidLength(byte[] bytes) {
+    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    if (bytes.length < HEADER_SIZE || buffer.getInt() != MAGIC || buffer.getInt() != TerrainChunkCodec.VERSION) {
+      return 0;
+    }
+
+    CRC32 crc = new CRC32();
+    int end   = HEADER_SIZE;
+    while (end + RECORD_HEADER_SIZE <= bytes.length) {
+      int length   = buffer.getInt(end);
+      int checksum = buffer.getInt(end + 4);
+      if (length < 16 || length > bytes.length - end - RECORD_HEADER_SIZE) {
+        break;
+      }
+      crc.reset();
+      crc.update(bytes, end + RECORD_HEADER_SIZE, length);
+      if ((int)crc.getValue() != checksum) {
+        break;
+      }
+      end += RECORD_HEADER_SIZE + length;
+    }
+    return end;
+  }
+
+  private static byte[] readFile(File file) throws IOException {
+    RandomAccessFile input = new RandomAccessFile(file, "r");
+    try {
+      byte[] bytes = new byte[(int)input.length()];
+      input.readFully(bytes);
+      return bytes;
+    } finally {
+      input.close();
+    }
+  }
+
+  private static class Entry {
+    public static final int OPEN     = 0;
+    public static final int RECORD   = 1;
+    public static final int TRUNCATE = 2;
+    public static final int CLOSE    = 3;
+
+    private final int type;
+    private final File file;
+    private final TerrainStore tiles;
+    private final int startX;
+    private final int startZ;
+
+    public Entry(int type, File file) {
+      this.type   = type;
+      this.file   = file;
+      this.tiles  = null;
+      this.startX = 0;
+      this.startZ = 0;
+    }
+
+    public Entry(TerrainStore tiles, int startX, int startZ) {
+      this.type   = RECORD;
+      this.file   = null;
+      this.tiles  = tiles;
+      this.startX = startX;
+      this.startZ = startZ;
+    }
+  }
+
+  // Takes everything queued since the last batch, writes it and syncs once
+  private class Writer implements Runnable {
+    private FileChannel channel;
+    private ArrayList<Entry> batch = new ArrayList<Entry>();
+
+    @Override
+    public void run() {
+      while (true) {
+        try {
+          batch.clear();
+          batch.add(queue.take());
+          queue.drainTo(batch);
+
+          boolean dirty = false;
+          for (Entry entry : batch) {
+            switch (entry.type) {
+              case Entry.OPEN:
+                close();
+                channel = openChannel(entry.file);
+              break;
+              case Entry.RECORD:
+                if (channel != null) {
+                  channel.write(ByteBuffer.wrap(encodeRecord(entry.tiles, entry.startX, entry.startZ)));
+                  dirty = true;
+                }
+              break;
+              case Entry.TRUNCATE:
+                if (channel != null) {
+                  channel.truncate(HEADER_SIZE);
+                  channel.position(HEADER_SIZE);
+                  dirty = true;
+                }
+              break;
+              case Entry.CLOSE:
+                close();
+                return;
+            }
+          }
+          if (dirty) {
+            channel.force(false);
+          }
+        } catch (InterruptedException e) {
+          close();
+          return;
+        } catch (IOException e) {
+          Gdx.app.error(TAG, "Could not write journal", e);
+        }
+      }
+    }
+
+    // Keeps the complete records of an existing journal and drops a torn one at its end
+    private FileChannel openChannel(File file) throws IOException {
+      byte[] bytes        = file.exists() ? readFile(file) : new byte[0];
+      int end             = getValidLength(bytes);
+      FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
+      if (end < HEADER_SIZE) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(TerrainChunkCodec.VERSION).flip();
+        channel.truncate(0);
+        channel.write(header, 0);
+        end = HEADER_SIZE;
+      }
+      channel.truncate(end);
+      channel.position(end);
+      channel.force(true);
+      return channel;
+    }
+
+    private void close() {
+      if (channel == null) {
+        return;
+      }
+      try {
+        channel.force(false);
+        channel.close();
+      } catch (IOException e) {
+        Gdx.app.error(TAG, "Could not close journal", e);
+      }
+      channel = null;
+    }
+  }
+}
@@ -2,30 +2,36 @@ package com.macbury.fabula.persister;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
-import java.io.IOException;
-import java.util.zip.Deflater;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
 import java.util.zip.Inflater;
 
 import org.simpleframework.xml.Element;
 import org.simpleframework.xml.Root;
+import org.simpleframework.xml.Serializer;
 import org.simpleframework.xml.core.Commit;
 import org.simpleframework.xml.core.Complete;
 import org.simpleframework.xml.core.Persist;
 
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.graphics.Color;
 import com.badlogic.gdx.utils.Base64Coder;
 import com.badlogic.gdx.utils.GdxRuntimeException;
+import com.macbury.fabula.db.GameDatabase;
+import com.macbury.fabula.graphics.Fog;
 import com.macbury.fabula.map.Scene;
 import com.macbury.fabula.terrain.Terrain;
 import com.macbury.fabula.terrain.foliage.Foliage;
 import com.macbury.fabula.terrain.tile.Tile;
-import com.macbury.fabula.terrain.tileset.AutoTiles;
 import com.macbury.fabula.terrain.water.Water;
 
 @Root(name="scene")
 public class ScenePersister {
-  public static final int VERSION = 3;  
+  private static final String TAG = "ScenePersister";
+  // tile records follow the terrain codec, maps of MIN_VERSION are migrated when they are saved again
+  public static final int VERSION     = TerrainChunkCodec.VERSION;
+  public static final int MIN_VERSION = 3;
   @Element(required=false)
   private int version;
   @Element
@@ -40,16 +46,22 @@ public class ScenePersister {
   private int              ambientColor;
   @Element
   private int              sunLightColor;
+  @Element(required=false)
+  private float            drawDistance;
+  @Element(required=false)
+  private String           fogColor;
   
   @Element
   private int              columns;
   @Element
   private int              rows;
+  @Element(required=false)
+  private int              sectorSize;
   @Element
   private String           tilesetName;
   @Element
   private String           foliageName;
-  @Element
+  @Element(required=false)
   private String           terrainData;
   
   @Element(required=false)
@@ -62,6 +74,9 @@ public class ScenePersister {
   private boolean skipLoadingTerrainData;
   private int uncompressedSize;
   private int compressedSize;
+  private long codecTime;
+  private int codecThreads;
+  private int chunkCount;
   
   public ScenePersister() {
     
@@ -72,6 +87,7 @@ public class ScenePersister {
     this.terrain = scene.getTerrain();
     this.rows    = terrain.getRows();
     this.columns = terrain.getColumns();
+    this.sectorSize = terrain.getSectorSize();
     this.name    = scene.getName();
     this.finalShader = scene.getFinalShader();
     this.uid     = scene.getUID();
@@ -83,6 +99,8 @@ public class ScenePersister {
     foliageName     = terrain.getFoliageSet().getName();
     ambientColor    = scene.getLights().ambientLight.toIntBits();
     sunLightColor   = scene.getSunLight().color.toIntBits();
+    drawDistance    = terrain.getFog().getDrawDistance();
+    fogColor        = terrain.getFog().getColor().toString();
     this.version    = VERSION;
   }
   
@@ -93,12 +111,12 @@ public class ScenePersister {
       return;
     }
     
-    if (version != VERSION) {
+    if (version < MIN_VERSION || version > VERSION) {
       throw new GdxRuntimeException("Map is old! Map version is " + version + " but required is " + VERSION);
     }
-    
-    Inflater inflater = new Inflater();
-    //inflater.setStrategy(Deflater.BEST_SPEED);
+    if (version != VERSION) {
+      Gdx.app.log(TAG, "Migrating " + name + " from version " + version + " to " + VERSION);
+    }
     
     this.scene = new Scene(this.name, this.uid, this.columns, this.rows);
     this.scene.setFinalShader(finalShader);
@@ -121,13 +139,29 @@ public class ScenePersister {
     }
     
     this.terrain = this.scene.getTerrain();
+    if (sectorSize > 0) {
+      this.terrain.setSectorSize(sectorSize);
+    }
     this.terrain.setTileset(tilesetName);
     
     this.terrain.setFoliageSet(foliageName);
     
-    byte[] bytes                        = Base64Coder.decode(terrainData);
+    Fog fog = this.terrain.getFog();
+    fog.setDrawDistance(drawDistance);
+    if (fogColor != null) {
+      fog.setColor(Color.valueOf(fogColor));
+    }
+    
+    if (terrainData != null) {
+      loadTerrainData();
+    }
+  }
+  
+  // Legacy XML maps keep the whole terrain as one Base64 deflate stream of version 3 records
+  private void loadTerrainData() {
+    byte[] bytes      = Base64Coder.decode(terrainData);
+    Inflater inflater = new Inflater();
     inflater.setInput(bytes);
-
     
     byte[] buffer = new byte[1024];
     ByteArrayOutputStream stream = new ByteArrayOutputStream(bytes.length);
@@ -140,46 +174,30 @@ public class ScenePersister {
       stream.close();
     } catch (Exception e) {
       e.printStackTrace();
+    } finally {
+      inflater.end();
     }
-    
-    ByteArrayInputStream is = new ByteArrayInputStream(stream.toByteArray());
-    DataInputStream dis     = new DataInputStream(is);
     terrainData = null;
     
-    try {
-      for (int z = 0; z < rows; z++) {
-        for (int x = 0; x < columns; x++) {
-          Tile tile = new Tile(x, 0, z);
-          tile.setGid(dis.readInt());
-          tile.setY(dis.readFloat());
-          tile.setY1(dis.readFloat());
-          tile.setY2(dis.readFloat());
-          tile.setY3(dis.readFloat());
-          tile.setY4(dis.readFloat());
-          
-          String aid = dis.readUTF();
-          int ord = dis.readInt();
-          
-          tile.setPassable(dis.readBoolean());
-          tile.setLiquid(dis.readBoolean());
-          tile.setLiquidHeight(dis.readFloat());
-          String foliageRegionName = dis.readUTF();
-          
-          AutoTiles autoTiles  = terrain.getTileset().getAutoTiles(aid);
-          AutoTiles.Types type = AutoTiles.Types.values()[ord];
-          
-          tile.setAutoTile(autoTiles.getAutoTile(type));
-          if (foliageRegionName.length() > 0) {
-            tile.setFoliage(this.terrain.getFoliageSet().findDescriptor(foliageRegionName));
-          }
-          terrain.setTile(x, z, tile);
-        }
-      }
-      dis.close();
-      is.close();
-    } catch (IOException e) {
-      e.printStackTrace();
+    int maxGid       = TerrainChunkCodec.decode(version, ByteBuffer.wrap(stream.toByteArray()), terrain, 0, 0, columns, rows);
+    Tile.GID_COUNTER = maxGid + 1;
+    this.terrain.fillEmptyTilesWithDebugTile();
+  }
+  
+  private void loadChunks(SceneContainer container) {
+    if (container.getColumns() != columns || container.getRows() != rows) {
+      throw new GdxRuntimeException("Scene chunks are " + container.getColumns() + "x" + container.getRows() + " but scene is " + columns + "x" + rows);
     }
+    
+    ChunkCodecPool pool = ChunkCodecPool.shared();
+    long start          = System.nanoTime();
+    int maxGid          = pool.decompress(container, terrain, version);
+    this.codecTime      = (System.nanoTime() - start) / 1000000;
+    this.codecThreads   = pool.getThreads();
+    this.chunkCount     = container.getChunkCount();
+    
+    // new tiles continue after the loaded ones
+    Tile.GID_COUNTER    = maxGid + 1;
     this.terrain.fillEmptyTilesWithDebugTile();
   }
   
@@ -200,64 +218,93 @@ public class ScenePersister {
     waterData.animationSpeed = water.getWaterAnimationSpeed();
     waterData.speed          = water.getAngleWaveSpeed();
     waterData.material       = water.getWaterMaterial();
+  }
+  
+  // Reads legacy XML maps and scene containers, with skipTerrain only the metadata is read
+  public static ScenePersister read(File file, boolean skipTerrain) throws Exception {
+    Serializer serializer    = GameDatabase.getDefaultSerializer();
+    ScenePersister persister = new ScenePersister();
+    persister.setSkipLoadingTerrainData(skipTerrain);
+    if (!SceneContainer.isContainer(file)) {
+      serializer.read(persister, file);
+      return persister;
+    }
     
-    
-    Deflater deflater = new Deflater();
-    deflater.setLevel(9);
-    deflater.setStrategy(Deflater.BEST_SPEED);
-    
-    ByteArrayOutputStream byteOutputStream = new ByteArrayOutputStream();
-    DataOutputStream dos                   = new DataOutputStream(byteOutputStream);
-    
+    SceneContainer container = SceneContainer.open(file);
     try {
-      for (int z = 0; z < rows; z++) {
-        for (int x = 0; x < columns; x++) {
-          Tile tile = terrain.getTile(x, z);
-          dos.writeInt(tile.getGid());
-          dos.writeFloat(tile.getY());
-          dos.writeFloat(tile.getY1());
-          dos.writeFloat(tile.getY2());
-          dos.writeFloat(tile.getY3());
-          dos.writeFloat(tile.getY4());
-          dos.writeUTF(tile.getAutoTile().getAutoTiles().getName());
-          dos.writeInt(tile.getAutoType().ordinal());
-          dos.writeBoolean(tile.isPassable());
-          dos.writeBoolean(tile.isLiquid());
-          dos.writeFloat(tile.getLiquidHeight());
-          if (tile.haveFoliage()) {
-            dos.writeUTF(tile.getFoliage().getRegionName());
-          } else {
-            dos.writeUTF("");
-          }
-        }
+      serializer.read(persister, new ByteArrayInputStream(container.getMetadata()));
+      if (!skipTerrain) {
+        persister.loadChunks(container);
+        persister.getScene().setFile(file.getAbsoluteFile());
       }
-      
-      this.uncompressedSize = dos.size();
-      dos.close();
-      byteOutputStream.close();
-      
-      byte[] bytes = byteOutputStream.toByteArray();
-      deflater.setInput(bytes);
-      deflater.finish();
-      
-      byteOutputStream = new ByteArrayOutputStream(bytes.length);
-      byte[] buffer    = new byte[1024];
-      
-      while(!deflater.finished()){ 
-        int bytesCompressed = deflater.deflate(buffer);
-        byteOutputStream.write(buffer,0,bytesCompressed);
+    } finally {
+      container.close();
+    }
+    return persister;
+  }
+  
+  // Always writes a scene container, one chunk per sector. When the file still holds the chunks this scene was
+  // loaded from or last saved to, only sectors edited since then are encoded and the other chunks are copied as
+  // they are.
+  public void write(File file) throws Exception {
+    file                           = file.getAbsoluteFile();
+    ByteArrayOutputStream metadata = new ByteArrayOutputStream();
+    GameDatabase.getDefaultSerializer().write(this, metadata);
+    
+    int chunkSize       = terrain.getSectorSize();
+    byte[][] chunks     = new byte[SceneContainer.getChunkCount(columns, rows, chunkSize)][];
+    int[] rawLengths    = new int[chunks.length];
+    BitSet dirty        = new BitSet(chunks.length);
+    dirty.set(0, chunks.length);
+    
+    SceneContainer previous = openPrevious(file, chunkSize);
+    if (previous != null) {
+      dirty.clear();
+      dirty.or(terrain.getUnsavedSectors());
+      for (int i = dirty.nextClearBit(0); i < chunks.length; i = dirty.nextClearBit(i + 1)) {
+        chunks[i]     = previous.getCompressedChunk(i);
+        rawLengths[i] = previous.getRawLength(i);
       }
-      
-      this.compressedSize = byteOutputStream.size();
-      byteOutputStream.close();
-      
-      terrainData = new String(Base64Coder.encode(byteOutputStream.toByteArray()));
-      
-    } catch (IOException e) {
-      e.printStackTrace();
+      previous.close();
+    }
+    
+    ChunkCodecPool pool = ChunkCodecPool.shared();
+    long start          = System.nanoTime();
+    pool.compress(terrain, chunkSize, chunks, rawLengths, dirty);
+    this.codecTime      = (System.nanoTime() - start) / 1000000;
+    this.codecThreads   = pool.getThreads();
+    this.chunkCount     = Math.min(dirty.cardinality(), chunks.length);
+    
+    uncompressedSize    = 0;
+    compressedSize      = 0;
+    for (int i = 0; i < chunks.length; i++) {
+      uncompressedSize += rawLengths[i];
+      compressedSize   += chunks[i].length;
     }
+    
+    SceneContainer.write(file, metadata.toByteArray(), columns, rows, chunkSize, chunks, rawLengths);
+    terrain.markSaved();
+    scene.setFile(file);
   }
-
+  
+  // Container at file with chunks of this scene that can be copied, or null when everything has to be encoded
+  private SceneContainer openPrevious(File file, int chunkSize) throws Exception {
+    if (!file.equals(scene.getFile()) || !file.exists() || !SceneContainer.isContainer(file)) {
+      return null;
+    }
+    
+    SceneContainer container = SceneContainer.read(file);
+    ScenePersister saved     = new ScenePersister();
+    saved.setSkipLoadingTerrainData(true);
+    GameDatabase.getDefaultSerializer().read(saved, new ByteArrayInputStream(container.getMetadata()));
+    if (saved.version != VERSION || !uid.equals(saved.uid) || container.getColumns() != columns
+        || container.getRows() != rows || container.getChunkSize() != chunkSize) {
+      container.close();
+      return null;
+    }
+    return container;
+  }
+  
   @Complete
   public void release() {
     terrainData = null;
@@ -287,6 +334,19 @@ public class ScenePersister {
     return compressedSize;
   }
 
+  // Time spent encoding and deflating chunks on save, or inflating and decoding them on load
+  public long getCodecTime() {
+    return codecTime;
+  }
+
+  public int getCodecThreads() {
+    return codecThreads;
+  }
+
+  public int getChunkCount() {
+    return chunkCount;
+  }
+
   public void setUncompressedSize(int uncompressedSize) {
     this.uncompressedSize = uncompressedSize;
   }
@@ -0,0 +1,322 @@
+package com.macbury.fabula.persister;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import com.badlogic.gdx.utils.GdxRuntimeException;
+import com.macbury.fabula.terrain.Terrain;
+import com.macbury.fabula.terrain.TerrainPalette;
+import com.macbury.fabula.terrain.TerrainStore;
+import com.macbury.fabula.terrain.foliage.FoliageDescriptor;
+import com.macbury.fabula.terrain.tile.AutoTile;
+import com.macbury.fabula.terrain.tile.Tile;
+import com.macbury.fabula.terrain.tileset.AutoTiles;
+
+// Tile records of a rectangle of the map, row by row. Legacy XML maps store the whole map as one rectangle,
+// scene containers one rectangle per chunk.
+//
+// Version 4 starts with the auto tiles and foliage used by the rectangle, each name written once, followed by runs of
+// tiles that only differ by consecutive gids. A run is its length, the gid as a zigzag varint delta from the previous
+// run, a flags byte, the height, the corners unless the tile is flat, varint palette indexes and the liquid height
+// when it is not 0. Version 3 wrote every field and both names for every tile, it is only read for old maps.
+public class TerrainChunkCodec {
+  public static final int VERSION        = 4;
+  private static final String UTF8       = "UTF-8";
+  private static final int FLAG_FLAT     = 1;
+  private static final int FLAG_PASSABLE = 2;
+  private static final int FLAG_LIQUID   = 4;
+  private static final int FLAG_LIQUID_HEIGHT = 8;
+  private static final int FLAG_FOLIAGE  = 16;
+
+  public static byte[] encode(Terrain terrain, int startX, int startZ, int endX, int endZ) {
+    return encode(terrain.getStore(), startX, startZ, endX, endZ);
+  }
+
+  public static byte[] encode(TerrainStore store, int startX, int startZ, int endX, int endZ) {
+    int width           = endX - startX;
+    int count           = width * (endZ - startZ);
+    int[] autoTileIds   = new int[count];
+    int[] foliageIds    = new int[count];
+    ArrayList<AutoTile> autoTiles                  = new ArrayList<AutoTile>();
+    HashMap<AutoTile, Integer> autoTileIndexes     = new HashMap<AutoTile, Integer>();
+    ArrayList<FoliageDescriptor> foliage           = new ArrayList<FoliageDescriptor>();
+    HashMap<FoliageDescriptor, Integer> foliageIndexes = new HashMap<FoliageDescriptor, Integer>();
+
+    for (int n = 0; n < count; n++) {
+      int i          = store.index(startX + n % width, startZ + n / width);
+      autoTileIds[n] = paletteIndex(autoTiles, autoTileIndexes, store.getAutoTile(i));
+      // 0 is no foliage
+      foliageIds[n]  = store.haveFoliage(i) ? paletteIndex(foliage, foliageIndexes, store.getFoliage(i)) + 1 : 0;
+    }
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(count * 4 + 64);
+    DataOutputStream dos        = new DataOutputStream(bytes);
+    try {
+      writeVarInt(dos, autoTiles.size());
+      for (AutoTile autoTile : autoTiles) {
+        dos.writeUTF(autoTile.getAutoTiles().getName());
+        writeVarInt(dos, autoTile.getType().ordinal());
+      }
+      writeVarInt(dos, foliage.size());
+      for (FoliageDescriptor descriptor : foliage) {
+        dos.writeUTF(descriptor.getRegionName());
+      }
+
+      int lastGid = 0;
+      int n       = 0;
+      while (n < count) {
+        int i   = store.index(startX + n % width, startZ + n / width);
+        int run = 1;
+        while (n + run < count && autoTileIds[n + run] == autoTileIds[n] && foliageIds[n + run] == foliageIds[n]
+               && isRepeated(store, i, store.index(startX + (n + run) % width, startZ + (n + run) / width), run)) {
+          run++;
+        }
+
+        int gid    = store.getGid(i);
+        float y    = store.getY(i);
+        boolean flat = store.getY1(i) == y && store.getY2(i) == y && store.getY3(i) == y && store.getY4(i) == y;
+        int flags  = 0;
+        if (flat) {
+          flags |= FLAG_FLAT;
+        }
+        if (store.isPassable(i)) {
+          flags |= FLAG_PASSABLE;
+        }
+        if (store.isLiquid(i)) {
+          flags |= FLAG_LIQUID;
+        }
+        if (store.getLiquidHeight(i) != 0) {
+          flags |= FLAG_LIQUID_HEIGHT;
+        }
+        if (foliageIds[n] != 0) {
+          flags |= FLAG_FOLIAGE;
+        }
+
+        writeVarInt(dos, run);
+        writeVarInt(dos, zigzag(gid - lastGid - 1));
+        dos.writeByte(flags);
+        dos.writeFloat(y);
+        if (!flat) {
+          dos.writeFloat(store.getY1(i));
+          dos.writeFloat(store.getY2(i));
+          dos.writeFloat(store.getY3(i));
+          dos.writeFloat(store.getY4(i));
+        }
+        writeVarInt(dos, autoTileIds[n]);
+        if (foliageIds[n] != 0) {
+          writeVarInt(dos, foliageIds[n] - 1);
+        }
+        if (store.getLiquidHeight(i) != 0) {
+          dos.writeFloat(store.getLiquidHeight(i));
+        }
+
+        lastGid = gid + run - 1;
+        n      += run;
+      }
+      dos.close();
+    } catch (IOException e) {
+      throw new GdxRuntimeException("Could not encode terrain chunk", e);
+    }
+    return bytes.toByteArray();
+  }
+
+  // Same tile as the run start at i, apart from the gid that continues the run
+  private static boolean isRepeated(TerrainStore store, int i, int j, int offset) {
+    return store.getGid(j) == store.getGid(i) + offset && store.getY(j) == store.getY(i)
+        && store.getY1(j) == store.getY1(i) && store.getY2(j) == store.getY2(i)
+        && store.getY3(j) == store.getY3(i) && store.getY4(j) == store.getY4(i)
+        && store.isPassable(j) == store.isPassable(i) && store.isLiquid(j) == store.isLiquid(i)
+        && store.getLiquidHeight(j) == store.getLiquidHeight(i);
+  }
+
+  private static <T> int paletteIndex(ArrayList<T> entries, HashMap<T, Integer> indexes, T entry) {
+    Integer index = indexes.get(entry);
+    if (index == null) {
+      index = entries.size();
+      entries.add(entry);
+      indexes.put(entry, index);
+    }
+    return index;
+  }
+
+  // Reads straight from the buffer, it must be backed by an array for the tile names. Tiles keep their saved gids and
+  // Tile.GID_COUNTER is not touched, so chunks can be decoded on several threads. Returns the highest decoded gid.
+  public static int decode(int version, ByteBuffer buffer, Terrain terrain, int startX, int startZ, int endX, int endZ) {
+    if (version == 3) {
+      return decodeVersion3(buffer, terrain, startX, startZ, endX, endZ);
+    } else if (version == VERSION) {
+      return decodeRuns(buffer, terrain, startX, startZ, endX, endZ);
+    } else {
+      throw new GdxRuntimeException("Unsupported terrain version " + version);
+    }
+  }
+
+  private static int decodeRuns(ByteBuffer buffer, Terrain terrain, int startX, int startZ, int endX, int endZ) {
+    // every decoding thread resolves its chunk palette against the shared store palette once, tiles only copy indexes
+    TerrainStore store = terrain.getStore();
+    short[] autoTiles  = new short[readVarInt(buffer)];
+    for (int i = 0; i < autoTiles.length; i++) {
+      AutoTiles set    = terrain.getTileset().getAutoTiles(readUTF(buffer));
+      autoTiles[i]     = store.indexOfAutoTile(set.getAutoTile(AutoTiles.Types.values()[readVarInt(buffer)]));
+    }
+    short[] foliage    = new short[readVarInt(buffer)];
+    for (int i = 0; i < foliage.length; i++) {
+      foliage[i]       = store.indexOfFoliage(terrain.getFoliageSet().findDescriptor(readUTF(buffer)));
+    }
+
+    Tile cursor = new Tile(terrain.getStore(), 0, 0);
+    int width   = endX - startX;
+    int count   = width * (endZ - startZ);
+    int lastGid = 0;
+    int maxGid  = 0;
+    int n       = 0;
+    while (n < count) {
+      int run      = readVarInt(buffer);
+      int gid      = lastGid + 1 + unzigzag(readVarInt(buffer));
+      int flags    = buffer.get();
+      float y      = buffer.getFloat();
+      float y1     = y;
+      float y2     = y;
+      float y3     = y;
+      float y4     = y;
+      if ((flags & FLAG_FLAT) == 0) {
+        y1 = buffer.getFloat();
+        y2 = buffer.getFloat();
+        y3 = buffer.getFloat();
+        y4 = buffer.getFloat();
+      }
+      short autoTile     = autoTiles[readVarInt(buffer)];
+      short descriptor   = (flags & FLAG_FOLIAGE) != 0 ? foliage[readVarInt(buffer)] : TerrainPalette.EMPTY;
+      float liquidHeight = (flags & FLAG_LIQUID_HEIGHT) != 0 ? buffer.getFloat() : 0;
+
+      if (n + run > count) {
+        throw new GdxRuntimeException("Terrain chunk run is longer than the chunk");
+      }
+      for (int r = 0; r < run; r++, n++) {
+        Tile tile = terrain.createTile(startX + n % width, startZ + n / width, gid + r, cursor);
+        tile.setHeights(y, y1, y2, y3, y4);
+        tile.setPassable((flags & FLAG_PASSABLE) != 0);
+        tile.setLiquid((flags & FLAG_LIQUID) != 0);
+        tile.setLiquidHeight(liquidHeight);
+        store.setAutoTileIndex(tile.getIndex(), autoTile);
+        store.setFoliageIndex(tile.getIndex(), descriptor);
+      }
+      lastGid = gid + run - 1;
+      maxGid  = Math.max(maxGid, lastGid);
+    }
+    return maxGid;
+  }
+
+  // Version 3 writer, only kept so benchmarks can compare against old maps
+  public static byte[] encodeVersion3(Terrain terrain, int startX, int startZ, int endX, int endZ) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream((endX - startX) * (endZ - startZ) * 48);
+    DataOutputStream dos        = new DataOutputStream(bytes);
+    try {
+      Tile cursor = new Tile(terrain.getStore(), 0, 0);
+      for (int z = startZ; z < endZ; z++) {
+        for (int x = startX; x < endX; x++) {
+          Tile tile = terrain.getTile(x, z, cursor);
+          dos.writeInt(tile.getGid());
+          dos.writeFloat(tile.getY());
+          dos.writeFloat(tile.getY1());
+          dos.writeFloat(tile.getY2());
+          dos.writeFloat(tile.getY3());
+          dos.writeFloat(tile.getY4());
+          dos.writeUTF(tile.getAutoTile().getAutoTiles().getName());
+          dos.writeInt(tile.getAutoType().ordinal());
+          dos.writeBoolean(tile.isPassable());
+          dos.writeBoolean(tile.isLiquid());
+          dos.writeFloat(tile.getLiquidHeight());
+          if (tile.haveFoliage()) {
+            dos.writeUTF(tile.getFoliage().getRegionName());
+          } else {
+            dos.writeUTF("");
+          }
+        }
+      }
+      dos.close();
+    } catch (IOException e) {
+      throw new GdxRuntimeException("Could not encode terrain chunk", e);
+    }
+    return bytes.toByteArray();
+  }
+
+  private static int decodeVersion3(ByteBuffer buffer, Terrain terrain, int startX, int startZ, int endX, int endZ) {
+    Tile cursor = new Tile(terrain.getStore(), 0, 0);
+    int maxGid  = 0;
+    for (int z = startZ; z < endZ; z++) {
+      for (int x = startX; x < endX; x++) {
+        int gid   = buffer.getInt();
+        Tile tile = terrain.createTile(x, z, gid, cursor);
+        maxGid    = Math.max(maxGid, gid);
+        tile.setY(buffer.getFloat());
+        tile.setY1(buffer.getFloat());
+        tile.setY2(buffer.getFloat());
+        tile.setY3(buffer.getFloat());
+        tile.setY4(buffer.getFloat());
+
+        String aid = readUTF(buffer);
+        int ord    = buffer.getInt();
+
+        tile.setPassable(buffer.get() != 0);
+        tile.setLiquid(buffer.get() != 0);
+        tile.setLiquidHeight(buffer.getFloat());
+        String foliageRegionName = readUTF(buffer);
+
+        AutoTiles autoTiles  = terrain.getTileset().getAutoTiles(aid);
+        AutoTiles.Types type = AutoTiles.Types.values()[ord];
+
+        tile.setAutoTile(autoTiles.getAutoTile(type));
+        if (foliageRegionName.length() > 0) {
+          tile.setFoliage(terrain.getFoliageSet().findDescriptor(foliageRegionName));
+        }
+      }
+    }
+    return maxGid;
+  }
+
+  private static int zigzag(int value) {
+    return (value << 1) ^ (value >> 31);
+  }
+
+  private static int unzigzag(int value) {
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  private static void writeVarInt(DataOutputStream dos, int value) throws IOException {
+    while ((value & ~0x7F) != 0) {
+      dos.writeByte((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    dos.writeByte(value);
+  }
+
+  private static int readVarInt(ByteBuffer buffer) {
+    int value = 0;
+    for (int shift = 0; shift < 32; shift += 7) {
+      int b  = buffer.get();
+      value |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new GdxRuntimeException("Malformed varint in terrain chunk");
+  }
+
+  // tile names are plain ascii, where modified UTF-8 of DataOutputStream.writeUTF matches UTF-8
+  private static String readUTF(ByteBuffer buffer) {
+    int length   = buffer.getShort() & 0xFFFF;
+    int position = buffer.position();
+    buffer.position(position + length);
+    try {
+      return new String(buffer.array(), buffer.arrayOffset() + position, length, UTF8);
+    } catch (UnsupportedEncodingException e) {
+      throw new GdxRuntimeException(e);
+    }
+  }
+}
@@ -1,6 +1,7 @@
 package com.macbury.fabula.screens;
 
 import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.graphics.Camera;
 import com.badlogic.gdx.graphics.GL10;
 import com.badlogic.gdx.graphics.OrthographicCamera;
 import com.badlogic.gdx.graphics.PerspectiveCamera;
@@ -13,6 +14,8 @@ import com.macbury.fabula.map.AsyncSceneLoader;
 import com.macbury.fabula.map.AsyncSceneLoader.AsyncSceneLoaderListener;
 import com.macbury.fabula.map.Scene;
 import com.macbury.fabula.terrain.Terrain;
+import com.macbury.fabula.terrain.geometry.PageMesh;
+import com.macbury.fabula.terrain.geometry.QuadIndexBuffer;
 import com.macbury.fabula.ui.ingame.GamePlayUI;
 import com.macbury.fabula.utils.TopDownCamera;
 
@@ -98,7 +101,23 @@ public class GamePlayScreen extends BaseScreen implements AsyncSceneLoaderListen
   
   @Override
   public void resume() {
+    QuadIndexBuffer.invalidate();
+    PageMesh.invalidateAll();
+    if (terrain != null) {
+      terrain.invalidateLevelsOfDetail();
+    }
+  }
+
+  @Override
+  public Camera onSceneWillUpload(Scene newScene, Vector2 spawnPosition) {
+    Terrain newTerrain = newScene.getTerrain();
+    newTerrain.setCompactVertices(true);
+    newTerrain.freeze();
     
+    this.camera.position.set(spawnPosition.x, 12, spawnPosition.y);
+    this.camera.lookAt(spawnPosition.x, 0, spawnPosition.y-4);
+    this.camera.update();
+    return camera;
   }
 
   @Override
@@ -109,8 +128,6 @@ public class GamePlayScreen extends BaseScreen implements AsyncSceneLoaderListen
     }
     
     this.terrain = scene.getTerrain();
-    this.camera.position.set(spawnPosition.x, 12, spawnPosition.y);
-    this.camera.lookAt(spawnPosition.x, 0, spawnPosition.y-4);
     scene.setCamera(camera);
     
     this.scene.initialize();
@@ -1,22 +1,16 @@
 package com.macbury.fabula.terrain;
 
+import java.util.Arrays;
+
 import com.badlogic.gdx.graphics.Camera;
-import com.badlogic.gdx.graphics.GL20;
 import com.badlogic.gdx.graphics.g2d.TextureRegion;
-import com.badlogic.gdx.math.Intersector;
 import com.badlogic.gdx.math.Vector3;
 import com.badlogic.gdx.math.collision.BoundingBox;
-import com.badlogic.gdx.math.collision.Ray;
 import com.badlogic.gdx.utils.Disposable;
 import com.macbury.fabula.terrain.foliage.Foliage;
 import com.macbury.fabula.terrain.foliage.FoliageDescriptor;
-import com.macbury.fabula.terrain.foliage.FoliageRenderable;
 import com.macbury.fabula.terrain.geometry.TriangleGrid;
-import com.macbury.fabula.terrain.geometry.TriangleGrid.AttributeType;
 import com.macbury.fabula.terrain.tile.Tile;
-import com.macbury.fabula.terrain.tile.TileTransformer;
-import com.macbury.fabula.terrain.water.Water;
-import com.macbury.fabula.terrain.water.WaterRenderable;
 
 public class Sector implements Disposable {
   public final static int ROW_COUNT               = 5;
@@ -25,28 +19,104 @@ public class Sector implements Disposable {
   public final static int VERTEX_ATTRIBUTE_COUNT  = 6;
   public final static int TOTAL_ATTRIBUTES_COUNT  = VERTEX_PER_BOX_COUNT * VERTEX_ATTRIBUTE_COUNT;
   public final static int VERTEX_PER_ROW          = VERTEX_PER_BOX_COUNT * COLUMN_COUNT;
+  public final static int LAYER_TERRAIN           = 1;
+  public final static int LAYER_WATER             = 2;
+  public final static int LAYER_FOLIAGE           = 4;
+  public final static int LAYER_ALL               = LAYER_TERRAIN | LAYER_WATER | LAYER_FOLIAGE;
+  
+  // Corners are encoded as (x offset << 1) | z offset, so the height of corner c is y1..y4 in that order
+  private final static int CORNER_TOP_LEFT        = 0;
+  private final static int CORNER_BOTTOM_LEFT     = 1;
+  private final static int CORNER_TOP_RIGHT       = 2;
+  private final static int CORNER_BOTTOM_RIGHT    = 3;
+  // Per Tile.TypeSlope ordinal the corner and uv corner (bit 0 = U2, bit 1 = V2) of each quad vertex. Every template
+  // is wound for the shared quad pattern (0,1,2),(2,1,3), so the slope only decides which diagonal is split.
+  private final static byte[][] SLOPE_CORNERS     = {
+    { 2, 0, 3, 1 }, // None
+    { 2, 0, 3, 1 }, // Down
+    { 3, 2, 1, 0 }, // Up
+    { 3, 2, 1, 0 }, // Left
+    { 0, 1, 2, 3 }, // Right
+    { 3, 2, 1, 0 }, // CornerBottomLeft
+    { 2, 0, 3, 1 }, // CornerBottomRight
+    { 2, 0, 3, 1 }, // CornerTopLeft
+    { 3, 2, 1, 0 }, // CornerTopRight
+    { 2, 0, 3, 1 }, // EdgeBottomRight
+    { 3, 2, 1, 0 }, // EdgeBottomLeft
+    { 3, 2, 1, 0 }, // EdgeTopLeft
+    { 2, 0, 3, 1 }, // EdgeTopRight
+  };
+  private final static byte[][] SLOPE_UVS         = {
+    { 1, 0, 3, 2 }, // None
+    { 1, 0, 3, 2 }, // Down
+    { 1, 3, 0, 2 }, // Up
+    { 1, 0, 3, 2 }, // Left
+    { 1, 0, 3, 2 }, // Right
+    { 2, 0, 3, 2 }, // CornerBottomLeft
+    { 2, 0, 3, 2 }, // CornerBottomRight
+    { 2, 3, 0, 2 }, // CornerTopLeft
+    { 2, 3, 0, 2 }, // CornerTopRight
+    { 0, 1, 2, 0 }, // EdgeBottomRight
+    { 0, 1, 2, 0 }, // EdgeBottomLeft
+    { 0, 2, 1, 0 }, // EdgeTopLeft
+    { 1, 3, 0, 1 }, // EdgeTopRight
+  };
   
   private Vector3 bottomRightCorner;
   private Vector3 topLeftCorner;
+  private int columns;
+  private int rows;
   private Terrain terrain;
   private BoundingBox boundingBox;
   
-  private TriangleGrid terrainTriangleGrid;
-  private TerrainRenderable terrainRenderable;
-  private TriangleGrid waterTriangleGrid;
-  private WaterRenderable waterRenderable;
-  private FoliageRenderable foliageRenderable;
-  private TriangleGrid foliageTriangleGrid;
+  private SectorGeometry geometry;
+  private SectorGeometry backGeometry;
+  private TerrainPage page;
+  private int pageSlot;
+  
+  private boolean rebuilding        = false;
+  private int pendingLayers         = 0;
+  private int buildingLayers        = 0;
+  private int readyLayers           = 0;
   
   public Sector(Vector3 pos, Terrain terrain) {
+    this(pos, COLUMN_COUNT, ROW_COUNT, terrain);
+  }
+  
+  public Sector(Vector3 pos, int columns, int rows, Terrain terrain) {
     this.terrain                  = terrain;
+    this.columns                  = columns;
+    this.rows                     = rows;
     this.topLeftCorner            = pos;
-    this.bottomRightCorner        = pos.cpy().add(COLUMN_COUNT, 0, ROW_COUNT);
-    this.terrainTriangleGrid      = new TriangleGrid(COLUMN_COUNT, ROW_COUNT, false); //TODO: change to static for non world edit
-    this.waterTriangleGrid        = new TriangleGrid(COLUMN_COUNT, ROW_COUNT, false);
-    this.foliageTriangleGrid      = new TriangleGrid(COLUMN_COUNT*2, ROW_COUNT*2, false);
+    this.bottomRightCorner        = pos.cpy().add(columns, 0, rows);
+    this.geometry                 = new SectorGeometry(columns, rows);
+  }
+  
+  public int getColumns() {
+    return columns;
+  }
+  
+  public int getRows() {
+    return rows;
   }
 
+  public void setPage(TerrainPage page, int slot) {
+    this.page     = page;
+    this.pageSlot = slot;
+  }
+  
+  public TerrainPage getPage() {
+    return page;
+  }
+  
+  public int getPageSlot() {
+    return pageSlot;
+  }
+  
+  public SectorGeometry getGeometry() {
+    return geometry;
+  }
+  
   public int getStartX() {
     return (int)this.topLeftCorner.x;
   }
@@ -64,70 +134,153 @@ public class Sector implements Disposable {
   }
   
   public void build() {
-    float minHeight = 0.0f;
-    float maxHeight = 1.0f;
-    
-    short rowEnd    = (short) (ROW_COUNT + topLeftCorner.z);
-    short columnEnd = (short) (COLUMN_COUNT+topLeftCorner.x);
-    
-    TileTransformer transformer = new TileTransformer();
-    this.terrainRenderable      = null;
-    this.waterRenderable        = null;
-    this.foliageRenderable      = null;
-    
-    terrainTriangleGrid.using(AttributeType.Position);
-    terrainTriangleGrid.using(AttributeType.TextureCord);
-    
-    waterTriangleGrid.using(AttributeType.Position);
-    waterTriangleGrid.using(AttributeType.Color);
-    waterTriangleGrid.using(AttributeType.Normal);
-    
-    foliageTriangleGrid.using(AttributeType.Position);
-    foliageTriangleGrid.using(AttributeType.TextureCord);
-    foliageTriangleGrid.using(AttributeType.Color);
-    
-    if (terrain.isDebuging()) {
-      terrainTriangleGrid.using(AttributeType.TilePosition);
-    }
-    
-    waterTriangleGrid.begin();
-    terrainTriangleGrid.begin();
-    foliageTriangleGrid.begin();
+    buildGeometry(geometry, LAYER_ALL, false);
+    applyGeometry(LAYER_ALL);
+  }
+  
+  private boolean buildGeometry(SectorGeometry target, int layers, boolean cancelable) {
+    int rowEnd      = (int) (rows + topLeftCorner.z);
+    int columnEnd   = (int) (columns + topLeftCorner.x);
+    
+    Tile cursor     = new Tile(terrain.getStore(), 0, 0);
+    boolean built   = true;
+    boolean terrainLayer = (layers & LAYER_TERRAIN) != 0;
+    boolean waterLayer   = (layers & LAYER_WATER) != 0;
+    boolean foliageLayer = (layers & LAYER_FOLIAGE) != 0;
+    
+    target.begin(layers, terrain.isDebuging());
+      if (terrainLayer) {
+        terrain.getLighting().bake(terrain, getStartX(), getStartZ(), columns, rows, target.lightHeights, target.cornerLight, cursor);
+      }
+      
       for (int z = (int) topLeftCorner.z; z < rowEnd; z++) {
+        if (cancelable && isRebuildPending()) {
+          built = false;
+          break;
+        }
+        
         for (int x = (int) topLeftCorner.x; x < columnEnd; x++) {
-          Tile tile = terrain.getTile(x, z);
-          transformer.setTile(tile);
-          tile.calculateHeight();
-          maxHeight    = Math.max(tile.getY(), maxHeight);
-          minHeight    = Math.min(tile.getY(), minHeight);
+          Tile tile = terrain.getTile(x, z, cursor);
+          target.maxHeight = Math.max(tile.getY(), target.maxHeight);
+          target.minHeight = Math.min(tile.getY(), target.minHeight);
           
-          createTerrainTileGeometry(tile);
-          if (tile.isLiquid()) {
-            createLiquidTileGeometry(tile);
+          if (terrainLayer) {
+            createTerrainTileGeometry(tile, target);
           }
           
-          if (tile.haveFoliage()) {
-            createFoliageGeometry(tile);
-          }
         }
       }
+      
+      if (waterLayer && built) {
+        createLiquidGeometry(target, cursor);
+      }
+      
+      if (foliageLayer && built) {
+        createFoliageTiers(target, cursor);
+      }
+    target.end(layers);
+    return built;
+  }
+  
+  private void applyGeometry(int layers) {
+    if ((layers & LAYER_TERRAIN) != 0) {
+      Vector3 firstCorner    = this.topLeftCorner.cpy();
+      firstCorner.y          = geometry.maxHeight;
+      this.boundingBox       = new BoundingBox(firstCorner, this.bottomRightCorner.cpy().add(0, geometry.minHeight, 0));
+    }
     
+    if (page != null) {
+      page.invalidate(pageSlot, layers);
+    }
+  }
+  
+  public synchronized boolean requestRebuild(int layers) {
+    pendingLayers |= layers;
+    if (rebuilding) {
+      return false;
+    }
+    rebuilding = true;
+    return true;
+  }
+  
+  private synchronized boolean isRebuildPending() {
+    return pendingLayers != 0;
+  }
+  
+  private synchronized int startRebuild(int previousLayers) {
+    int layers     = pendingLayers | previousLayers;
+    pendingLayers  = 0;
+    buildingLayers = layers;
+    readyLayers   &= ~layers;
+    if (backGeometry == null) {
+      backGeometry = new SectorGeometry(columns, rows);
+    }
+    return layers;
+  }
+  
+  private synchronized boolean finishRebuild(int layers, boolean built) {
+    if (pendingLayers != 0 || !built) {
+      return false;
+    }
+    rebuilding     = false;
+    buildingLayers = 0;
+    readyLayers   |= layers;
+    return true;
+  }
+  
+  // The layers of a failed rebuild stay pending, so the next requestRebuild builds them again
+  public synchronized void cancelRebuild() {
+    rebuilding      = false;
+    pendingLayers  |= buildingLayers;
+    buildingLayers  = 0;
+  }
+  
+  // Runs on a worker thread, rebuilds again if tiles changed while it was building. Every pass carries the layers of
+  // the previous one, they only become ready together once a pass finishes without new edits.
+  public void rebuildBackGeometry() {
+    int layers    = 0;
+    boolean built = true;
+    do {
+      layers = startRebuild(layers);
+      built  = buildGeometry(backGeometry, layers, true);
+    } while (!finishRebuild(layers, built));
+  }
+  
+  // Must be called on the GL thread, swaps only the layers that were rebuilt and returns them
+  public synchronized int swapGeometry() {
+    if (rebuilding || readyLayers == 0) {
+      return 0;
+    }
     
-    Vector3 firstCorner = this.topLeftCorner.cpy();
-    firstCorner.y       = maxHeight;
-    this.boundingBox    = new BoundingBox(firstCorner, this.bottomRightCorner.cpy().add(0, minHeight, 0));
-    foliageTriangleGrid.end();
-    terrainTriangleGrid.end();
-    waterTriangleGrid.end();
-
+    int layers  = readyLayers;
+    geometry.swap(backGeometry, layers);
+    applyGeometry(layers);
+    readyLayers = 0;
+    return layers;
   }
 
-  private void createFoliageGeometry(Tile tile) {
+  // Foliage is written one density tier after another, so the first n tiers of a sector are a prefix of its vertices
+  private void createFoliageTiers(SectorGeometry geometry, Tile cursor) {
+    for (int tier = 0; tier < Foliage.TIERS; tier++) {
+      for (int z = getStartZ(); z < getStartZ() + rows; z++) {
+        for (int x = getStartX(); x < getStartX() + columns; x++) {
+          Tile tile = terrain.getTile(x, z, cursor);
+          if (tile.haveFoliage() && Foliage.getTier(x, z) == tier) {
+            createFoliageGeometry(tile, geometry, Foliage.TIER_FADE[tier]);
+          }
+        }
+      }
+      geometry.foliageTierEnds[tier] = geometry.foliage.getVertexCount();
+    }
+  }
+  
+  private void createFoliageGeometry(Tile tile, SectorGeometry geometry, float fade) {
     FoliageDescriptor descriptor   = tile.getFoliage();
     short n1, n2, n3 = 0;
     float y = tile.getY();
     float z = tile.getZ();
     float x = tile.getX();
+    // red marks vertices moved by the wind, green is the fade distance scale of the density tier
     float animated = descriptor.isAnimated() ? 1.0f : 0.0f;
     
     TextureRegion uvMap = descriptor.getRegion();
@@ -143,898 +296,179 @@ public class Sector implements Disposable {
     float ey = y + h;
     
     /* Bottom Left Vertex */
-    n1 = foliageTriangleGrid.addVertex(lx, sy, sz);
-    foliageTriangleGrid.addUVMap(uvMap.getU(), uvMap.getV2());
-    foliageTriangleGrid.addColorToVertex(0, 0, 0, 0);
+    n1 = geometry.foliage.addVertex(lx, sy, sz);
+    geometry.foliage.addUVMap(uvMap.getU(), uvMap.getV2());
+    geometry.foliage.addColorToVertex(0, fade, 0, 0);
     /* Top left Vertex */
-    n2 = foliageTriangleGrid.addVertex(lx, ey, sz);
-    foliageTriangleGrid.addUVMap(uvMap.getU(), uvMap.getV());
-    foliageTriangleGrid.addColorToVertex(animated, 0, 0, 0);
+    n2 = geometry.foliage.addVertex(lx, ey, sz);
+    geometry.foliage.addUVMap(uvMap.getU(), uvMap.getV());
+    geometry.foliage.addColorToVertex(animated, fade, 0, 0);
     /* Bottom right Vertex */
-    n3 = foliageTriangleGrid.addVertex(rx, sy, ez);
-    foliageTriangleGrid.addUVMap(uvMap.getU2(), uvMap.getV2());
-    foliageTriangleGrid.addColorToVertex(0, 0, 0, 0);
-    foliageTriangleGrid.addIndices(n1,n2,n3);
+    n3 = geometry.foliage.addVertex(rx, sy, ez);
+    geometry.foliage.addUVMap(uvMap.getU2(), uvMap.getV2());
+    geometry.foliage.addColorToVertex(0, fade, 0, 0);
+    geometry.foliage.addIndices(n1,n2,n3);
 
     /* Top Right Vertex */
-    n1 = foliageTriangleGrid.addVertex(rx, ey, ez);
-    foliageTriangleGrid.addUVMap(uvMap.getU2(), uvMap.getV());
-    foliageTriangleGrid.addColorToVertex(animated, 0, 0, 0);
-    foliageTriangleGrid.addIndices(n3,n2,n1);
+    n1 = geometry.foliage.addVertex(rx, ey, ez);
+    geometry.foliage.addUVMap(uvMap.getU2(), uvMap.getV());
+    geometry.foliage.addColorToVertex(animated, fade, 0, 0);
+    geometry.foliage.addIndices(n3,n2,n1);
     
     // next gex
     
     /* Bottom Left Vertex */
-    n1 = foliageTriangleGrid.addVertex(lx, sy, ez);
-    foliageTriangleGrid.addUVMap(uvMap.getU(), uvMap.getV2());
-    foliageTriangleGrid.addColorToVertex(0, 0, 0, 0);
+    n1 = geometry.foliage.addVertex(lx, sy, ez);
+    geometry.foliage.addUVMap(uvMap.getU(), uvMap.getV2());
+    geometry.foliage.addColorToVertex(0, fade, 0, 0);
     /* Top left Vertex */
-    n2 = foliageTriangleGrid.addVertex(lx, ey, ez);
-    foliageTriangleGrid.addUVMap(uvMap.getU(), uvMap.getV());
-    foliageTriangleGrid.addColorToVertex(animated, 0, 0, 0);
+    n2 = geometry.foliage.addVertex(lx, ey, ez);
+    geometry.foliage.addUVMap(uvMap.getU(), uvMap.getV());
+    geometry.foliage.addColorToVertex(animated, fade, 0, 0);
     /* Bottom right Vertex */
-    n3 = foliageTriangleGrid.addVertex(rx, sy, sz);
-    foliageTriangleGrid.addUVMap(uvMap.getU2(), uvMap.getV2());
-    foliageTriangleGrid.addColorToVertex(0, 0, 0, 0);
-    foliageTriangleGrid.addIndices(n1,n2,n3);
+    n3 = geometry.foliage.addVertex(rx, sy, sz);
+    geometry.foliage.addUVMap(uvMap.getU2(), uvMap.getV2());
+    geometry.foliage.addColorToVertex(0, fade, 0, 0);
+    geometry.foliage.addIndices(n1,n2,n3);
 
     /* Top Right Vertex */
-    n1 = foliageTriangleGrid.addVertex(rx, ey, sz);
-    foliageTriangleGrid.addUVMap(uvMap.getU2(), uvMap.getV());
-    foliageTriangleGrid.addColorToVertex(animated, 0, 0, 0);
-    foliageTriangleGrid.addIndices(n3,n2,n1);
-  }
-
-  private void createLiquidTileGeometry(Tile tile) {
-    short n1, n2, n3 = 0;
-    
-    /* Top right Vertex */
-    n1 = waterTriangleGrid.addVertex(tile.getX()+1f, tile.getLiquidHeight(), tile.getZ());
-    waterTriangleGrid.addColorToVertex(1, 0, 0, 1);
-    waterTriangleGrid.addNormal();
-    /* top left Vertex */
-    n2 = waterTriangleGrid.addVertex(tile.getX(), tile.getLiquidHeight(), tile.getZ());
-    waterTriangleGrid.addColorToVertex(0, 1, 0, 1);
-    waterTriangleGrid.addNormal();
-    /* bottom Right Vertex */
-    n3 = waterTriangleGrid.addVertex(tile.getX()+1f, tile.getLiquidHeight(), tile.getZ()+1f);
-    waterTriangleGrid.addColorToVertex(0, 0, 1, 1);
-    waterTriangleGrid.addNormal();
-    
-    waterTriangleGrid.addIndices(n1,n2,n3);
-    /* Bottom left Vertex */
-    n1 = waterTriangleGrid.addVertex(tile.getX(), tile.getLiquidHeight(), tile.getZ()+1f);
-    waterTriangleGrid.addColorToVertex(0, 0, 0, 0);
-    waterTriangleGrid.addNormal();
-    
-    waterTriangleGrid.addIndices(n3,n2,n1);
+    n1 = geometry.foliage.addVertex(rx, ey, sz);
+    geometry.foliage.addUVMap(uvMap.getU2(), uvMap.getV());
+    geometry.foliage.addColorToVertex(animated, fade, 0, 0);
+    geometry.foliage.addIndices(n3,n2,n1);
   }
 
-  private void createTerrainTileGeometry(Tile tile) {
-    if (tile.getAutoTiles().isSlope()) {
-      switch (tile.getSlope()) {
-        case CornerTopLeft:
-          createCornerTopLeftMeshTile(tile);
-        break;
-        
-        case CornerTopRight:
-          createCornerTopRightMeshTile(tile);
-        break;
-        
-        case CornerBottomLeft:
-          createCornerBottomLeftMeshTile(tile);
-        break;
-        
-        case CornerBottomRight:
-          createCornerBottomRightMeshTile(tile);
-        break;
-        
-        case EdgeBottomRight:
-          createEdgeBottomRightMeshTile(tile);
-        break;
-        
-        case EdgeBottomLeft:
-          createEdgeBottomLeftMeshTile(tile);
-        break;
-        
-        case EdgeTopLeft:
-          createEdgeTopLeftMeshTile(tile);
-        break;
-        
-        case EdgeTopRight:
-          createEdgeTopRightMeshTile(tile);
-        break;
-        
-        case Up:
-          createTopMeshTile(tile);
-        break;
-        
-        case Down:
-          createBottomMeshTile(tile);
-        break;
+  // Greedily merges liquid tiles of the same height into rectangles, water.frag repeats the texture per tile
+  // from the world position so a merged quad looks like the tiles it replaced
+  private void createLiquidGeometry(SectorGeometry geometry, Tile cursor) {
+    boolean[] merged = geometry.mergedLiquid;
+    Arrays.fill(merged, false);
+    
+    for (int z = 0; z < rows; z++) {
+      for (int x = 0; x < columns; x++) {
+        if (merged[z * columns + x]) {
+          continue;
+        }
+        Tile tile = terrain.getTile(getStartX() + x, getStartZ() + z, cursor);
+        if (!tile.isLiquid()) {
+          continue;
+        }
+        float height = tile.getLiquidHeight();
         
-        case Left:
-          createLeftMeshTile(tile);
-        break;
+        int width    = 1;
+        while (x + width < columns && canMergeLiquid(merged, x + width, z, height, cursor)) {
+          width++;
+        }
         
-        case Right:
-          createRightMeshTile(tile);
-        break;
+        int depth    = 1;
+        grow: while (z + depth < rows) {
+          for (int i = 0; i < width; i++) {
+            if (!canMergeLiquid(merged, x + i, z + depth, height, cursor)) {
+              break grow;
+            }
+          }
+          depth++;
+        }
         
-        default:
-          createBottomMeshTile(tile);
-        break;
+        for (int dz = 0; dz < depth; dz++) {
+          Arrays.fill(merged, (z + dz) * columns + x, (z + dz) * columns + x + width, true);
+        }
+        createLiquidQuad(geometry, getStartX() + x, getStartZ() + z, width, depth, height);
       }
-    } else {
-      createBottomMeshTile(tile);
     }
   }
-
-  private void createEdgeTopRightMeshTile(Tile tile) {
-    TextureRegion uvMap = tile.getTextureRegion();
-    float x  = tile.getX();
-    float z  = tile.getZ();
-    short n1 = 0;
-    short n2 = 0;
-    short n3 = 0;
-    //bottom
-    /* Top Right Vertex */
-    n1 = terrainTriangleGrid.addVertex(x+1f, tile.getY3(), z);
-    ////terrainTriangleGrid.addColorToVertex(255, 255, 255, 255);
-    terrainTriangleGrid.addUVMap(uvMap.getU2(), uvMap.getV());
-    ////terrainTriangleGrid.addNormal();
-    if (terrain.isDebuging()) {
-      terrainTriangleGrid.addTilePos(tile.getX(), tile.getZ());
-      //terrainTriangleGrid.addPassableInfo(tile.isPassable());
-    }
-    
-    /* Top left Vertex */
-    n2 = terrainTriangleGrid.addVertex(x, tile.getY1(), z);
-    //terrainTriangleGrid.addColorToVertex(255, 255, 255, 255);
-    terrainTriangleGrid.addUVMap(uvMap.getU2(), uvMap.getV2());
-    //terrainTriangleGrid.addNormal();
-    if (terrain.isDebuging()) {
-      terrainTriangleGrid.addTilePos(tile.getX(), tile.getZ());
-      ////terrainTriangleGrid.addPassableInfo(tile.isPassable());
-    }
-    
-    /* Bottom right Vertex */
-    n3 = terrainTriangleGrid.addVertex(x+1f, tile.getY4(), z+1f);
-    //terrainTriangleGrid.addColorToVertex(255, 255, 255, 255);
-    terrainTriangleGrid.addUVMap(uvMap.getU(), uvMap.getV());
-    //terrainTriangleGrid.addNormal();
-    if (terrain.isDebuging()) {
-      terrainTriangleGrid.addTilePos(tile.getX(), tile.getZ());
-      ////terrainTriangleGrid.addPassableInfo(tile.isPassable());
-    }
-    
-    terrainTriangleGrid.addIndices(n1,n2,n3);
-    
-    /* Bottom left Vertex */
-    n1 = terrainTriangleGrid.addVertex(x, tile.getY2(), z+1f);
-    //terrainTriangleGrid.addColorToVertex(255, 255, 255, 255);
-    terrainTriangleGrid.addUVMap(uvMap.getU2(), uvMap.getV());
-    //terrainTriangleGrid.addNormal();
-    if (terrain.isDebuging()) {
-      terrainTriangleGrid.addTilePos(tile.getX(), tile.getZ());
-      //terrainTriangleGrid.addPassableInfo(tile.isPassable());
-    }
-    
-    terrainTriangleGrid.addIndices(n3,n2,n1);
-  }
-
-  private void createEdgeBottomLeftMeshTile(Tile tile) {
-    TextureRegion uvMap = tile.getTextureRegion();
-    float x  = tile.getX();
-    float z  = tile.getZ();
-    short n1 = 0;
-    short n2 = 0;
-    short n3 = 0;
-    
-    /* bottom right Vertex */
-    n1 = terrainTriangleGrid.addVertex(x+1f, tile.getY4(), z+1f);
-    //terrainTriangleGrid.addColorToVertex(255, 255, 255, 255);
-    terrainTriangleGrid.addUVMap(uvMap.getU(), uvMap.getV());
-    //terrainTriangleGrid.addNormal();
-    if (terrain.isDebuging()) {
-      terrainTriangleGrid.addTilePos(tile.getX(), tile.getZ());
-      //terrainTriangleGrid.addPassableInfo(tile.isPassable());
-    }
-    
-    /* top right Vertex */
-    n2 = terrainTriangleGrid.addVertex(x+1f, tile.getY3(), z);
-    //terrainTriangleGrid.addColorToVertex(255, 255, 255, 255);
-    terrainTriangleGrid.addUVMap(uvMap.getU2(), uvMap.getV());
-    //terrainTriangleGrid.addNormal();
-    if (terrain.isDebuging()) {
-      terrainTriangleGrid.addTilePos(tile.getX(), tile.getZ());
-      //terrainTriangleGrid.addPassableInfo(tile.isPassable());
-    }
-    
-    /* bottom left Vertex */
-    n3 = terrainTriangleGrid.addVertex(x, tile.getY2(), z+1f);
-    //terrainTriangleGrid.addColorToVertex(255, 255, 255, 255);
-    terrainTriangleGrid.addUVMap(uvMap.getU(), uvMap.getV2());
-    //terrainTriangleGrid.addNormal();
-    if (terrain.isDebuging()) {
-      terrainTriangleGrid.addTilePos(tile.getX(), tile.getZ());
-      //terrainTriangleGrid.addPassableInfo(tile.isPassable());
-    }
-    
-    terrainTriangleGrid.addIndices(n1,n2,n3);
-    
-    /* Bottom left Vertex */
-    n1 = terrainTriangleGrid.addVertex(x, tile.getY1(), z);
-    //terrainTriangleGrid.addColorToVertex(255, 255, 255, 255);
-    terrainTriangleGrid.addUVMap(uvMap.getU(), uvMap.getV());
-    //terrainTriangleGrid.addNormal();
-    if (terrain.isDebuging()) {
-      terrainTriangleGrid.addTilePos(tile.getX(), tile.getZ());
-      //terrainTriangleGrid.addPassableInfo(tile.isPassable());
-    }
-    
-    terrainTriangleGrid.addIndices(n3,n2,n1);
-  }
-
-  private void createEdgeTopLeftMeshTile(Tile tile) {
-    TextureRegion uvMap = tile.getTextureRegion();
-    float x  = tile.getX();
-    float z  = tile.getZ();
-    short n1 = 0;
-    short n2 = 0;
-    short n3 = 0;
-    
-    /* bottom right Vertex */
-    n1 = terrainTriangleGrid.addVertex(x+1f, tile.getY4(), z+1f);
-    //terrainTriangleGrid.addColorToVertex(255, 255, 255, 255);
-    terrainTriangleGrid.addUVMap(uvMap.getU(), uvMap.getV());
-    //terrainTriangleGrid.addNormal();
-    if (terrain.isDebuging()) {
-      terrainTriangleGrid.addTilePos(tile.getX(), tile.getZ());
-      //terrainTriangleGrid.addPassableInfo(tile.isPassable());
-    }
-    
-    /* top right Vertex */
-    n2 = terrainTriangleGrid.addVertex(x+1f, tile.getY3(), z);
-    //terrainTriangleGrid.addColorToVertex(255, 255, 255, 255);
-    terrainTriangleGrid.addUVMap(uvMap.getU(), uvMap.getV2());
-    //terrainTriangleGrid.addNormal();
-    if (terrain.isDebuging()) {
-      terrainTriangleGrid.addTilePos(tile.getX(), tile.getZ());
-      //terrainTriangleGrid.addPassableInfo(tile.isPassable());
-    }
-    
-    /* bottom left Vertex */
-    n3 = terrainTriangleGrid.addVertex(x, tile.getY2(), z+1f);
-    //terrainTriangleGrid.addColorToVertex(255, 255, 255, 255);
-    terrainTriangleGrid.addUVMap(uvMap.getU2(), uvMap.getV());
-    //terrainTriangleGrid.addNormal();
-    if (terrain.isDebuging()) {
-      terrainTriangleGrid.addTilePos(tile.getX(), tile.getZ());
-      //terrainTriangleGrid.addPassableInfo(tile.isPassable());
-    }
-    
-    terrainTriangleGrid.addIndices(n1,n2,n3);
-    
-    /* Bottom left Vertex */
-    n1 = terrainTriangleGrid.addVertex(x, tile.getY1(), z);
-    //terrainTriangleGrid.addColorToVertex(255, 255, 255, 255);
-    terrainTriangleGrid.addUVMap(uvMap.getU(), uvMap.getV());
-    //terrainTriangleGrid.addNormal();
-    if (terrain.isDebuging()) {
-      terrainTriangleGrid.addTilePos(tile.getX(), tile.getZ());
-      //terrainTriangleGrid.addPassableInfo(tile.isPassable());
-    }
-    
-    terrainTriangleGrid.addIndices(n3,n2,n1);
-  }
-
-  private void createEdgeBottomRightMeshTile(Tile tile) {
-    TextureRegion uvMap = tile.getTextureRegion();
-    float x  = tile.getX();
-    float z  = tile.getZ();
-    short n1 = 0;
-    short n2 = 0;
-    short n3 = 0;
-    //bottom
-    /* Top Right Vertex */
-    n1 = terrainTriangleGrid.addVertex(x+1f, tile.getY3(), z);
-    //terrainTriangleGrid.addColorToVertex(255, 255, 255, 255);
-    terrainTriangleGrid.addUVMap(uvMap.getU(), uvMap.getV());
-    //terrainTriangleGrid.addNormal();
-    if (terrain.isDebuging()) {
-      terrainTriangleGrid.addTilePos(tile.getX(), tile.getZ());
-      //terrainTriangleGrid.addPassableInfo(tile.isPassable());
-    }
-    
-    /* Top left Vertex */
-    n2 = terrainTriangleGrid.addVertex(x, tile.getY1(), z);
-    //terrainTriangleGrid.addColorToVertex(255, 255, 255, 255);
-    terrainTriangleGrid.addUVMap(uvMap.getU2(), uvMap.getV());
-    //terrainTriangleGrid.addNormal();
-    if (terrain.isDebuging()) {
-      terrainTriangleGrid.addTilePos(tile.getX(), tile.getZ());
-      //terrainTriangleGrid.addPassableInfo(tile.isPassable());
-    }
-    
-    /* Bottom right Vertex */
-    n3 = terrainTriangleGrid.addVertex(x+1f, tile.getY4(), z+1f);
-    //terrainTriangleGrid.addColorToVertex(255, 255, 255, 255);
-    terrainTriangleGrid.addUVMap(uvMap.getU(), uvMap.getV2());
-    //terrainTriangleGrid.addNormal();
-    if (terrain.isDebuging()) {
-      terrainTriangleGrid.addTilePos(tile.getX(), tile.getZ());
-      //terrainTriangleGrid.addPassableInfo(tile.isPassable());
-    }
-    
-    terrainTriangleGrid.addIndices(n1,n2,n3);
-    
-    /* Bottom left Vertex */
-    n1 = terrainTriangleGrid.addVertex(x, tile.getY2(), z+1f);
-    //terrainTriangleGrid.addColorToVertex(255, 255, 255, 255);
-    terrainTriangleGrid.addUVMap(uvMap.getU(), uvMap.getV());
-    //terrainTriangleGrid.addNormal();
-    if (terrain.isDebuging()) {
-      terrainTriangleGrid.addTilePos(tile.getX(), tile.getZ());
-      //terrainTriangleGrid.addPassableInfo(tile.isPassable());
-    }
-    
-    terrainTriangleGrid.addIndices(n3,n2,n1);
-  }
-
-  private void createCornerBottomRightMeshTile(Tile tile) {
-    TextureRegion uvMap = tile.getTextureRegion();
-    float x  = tile.getX();
-    float z  = tile.getZ();
-    short n1 = 0;
-    short n2 = 0;
-    short n3 = 0;
-    //bottom
-    /* Top Right Vertex */
-    n1 = terrainTriangleGrid.addVertex(x+1f, tile.getY3(), z);
-    //terrainTriangleGrid.addColorToVertex(255, 255, 255, 255);
-    terrainTriangleGrid.addUVMap(uvMap.getU(), uvMap.getV2());
-    //terrainTriangleGrid.addNormal();
-    if (terrain.isDebuging()) {
-      terrainTriangleGrid.addTilePos(tile.getX(), tile.getZ());
-      //terrainTriangleGrid.addPassableInfo(tile.isPassable());
-    }
-    
-    /* Top left Vertex */
-    n2 = terrainTriangleGrid.addVertex(x, tile.getY1(), z);
-    //terrainTriangleGrid.addColorToVertex(255, 255, 255, 255);
-    terrainTriangleGrid.addUVMap(uvMap.getU(), uvMap.getV());
-    //terrainTriangleGrid.addNormal();
-    if (terrain.isDebuging()) {
-      terrainTriangleGrid.addTilePos(tile.getX(), tile.getZ());
-      //terrainTriangleGrid.addPassableInfo(tile.isPassable());
-    }
-    
-    /* Bottom right Vertex */
-    n3 = terrainTriangleGrid.addVertex(x+1f, tile.getY4(), z+1f);
-    //terrainTriangleGrid.addColorToVertex(255, 255, 255, 255);
-    terrainTriangleGrid.addUVMap(uvMap.getU2(), uvMap.getV2());
-    //terrainTriangleGrid.addNormal();
-    if (terrain.isDebuging()) {
-      terrainTriangleGrid.addTilePos(tile.getX(), tile.getZ());
-      //terrainTriangleGrid.addPassableInfo(tile.isPassable());
-    }
-    
-    terrainTriangleGrid.addIndices(n1,n2,n3);
-    
-    /* Bottom left Vertex */
-    n1 = terrainTriangleGrid.addVertex(x, tile.getY2(), z+1f);
-    //terrainTriangleGrid.addColorToVertex(255, 255, 255, 255);
-    terrainTriangleGrid.addUVMap(uvMap.getU(), uvMap.getV2());
-    //terrainTriangleGrid.addNormal();
-    if (terrain.isDebuging()) {
-      terrainTriangleGrid.addTilePos(tile.getX(), tile.getZ());
-      //terrainTriangleGrid.addPassableInfo(tile.isPassable());
-    }
-    
-    terrainTriangleGrid.addIndices(n3,n2,n1);
-  }
-
-  private void createCornerBottomLeftMeshTile(Tile tile) {
-    TextureRegion uvMap = tile.getTextureRegion();
-    float x  = tile.getX();
-    float z  = tile.getZ();
-    short n1 = 0;
-    short n2 = 0;
-    short n3 = 0;
-    
-    /* bottom right Vertex */
-    n1 = terrainTriangleGrid.addVertex(x+1f, tile.getY4(), z+1f);
-    //terrainTriangleGrid.addColorToVertex(255, 255, 255, 255);
-    terrainTriangleGrid.addUVMap(uvMap.getU(), uvMap.getV2());
-    //terrainTriangleGrid.addNormal();
-    if (terrain.isDebuging()) {
-      terrainTriangleGrid.addTilePos(tile.getX(), tile.getZ());
-      //terrainTriangleGrid.addPassableInfo(tile.isPassable());
-    }
-    
-    /* top right Vertex */
-    n2 = terrainTriangleGrid.addVertex(x+1f, tile.getY3(), z);
-    //terrainTriangleGrid.addColorToVertex(255, 255, 255, 255);
-    terrainTriangleGrid.addUVMap(uvMap.getU(), uvMap.getV());
-    //terrainTriangleGrid.addNormal();
-    if (terrain.isDebuging()) {
-      terrainTriangleGrid.addTilePos(tile.getX(), tile.getZ());
-      //terrainTriangleGrid.addPassableInfo(tile.isPassable());
-    }
-    
-    /* bottom left Vertex */
-    n3 = terrainTriangleGrid.addVertex(x, tile.getY2(), z+1f);
-    //terrainTriangleGrid.addColorToVertex(255, 255, 255, 255);
-    terrainTriangleGrid.addUVMap(uvMap.getU2(), uvMap.getV2());
-    //terrainTriangleGrid.addNormal();
-    if (terrain.isDebuging()) {
-      terrainTriangleGrid.addTilePos(tile.getX(), tile.getZ());
-      //terrainTriangleGrid.addPassableInfo(tile.isPassable());
-    }
-    
-    terrainTriangleGrid.addIndices(n1,n2,n3);
-    
-    /* Bottom left Vertex */
-    n1 = terrainTriangleGrid.addVertex(x, tile.getY1(), z);
-    //terrainTriangleGrid.addColorToVertex(255, 255, 255, 255);
-    terrainTriangleGrid.addUVMap(uvMap.getU(), uvMap.getV2());
-    //terrainTriangleGrid.addNormal();
-    if (terrain.isDebuging()) {
-      terrainTriangleGrid.addTilePos(tile.getX(), tile.getZ());
-      //terrainTriangleGrid.addPassableInfo(tile.isPassable());
-    }
-    
-    terrainTriangleGrid.addIndices(n3,n2,n1);
-  }
-
-  private void createCornerTopRightMeshTile(Tile tile) {
-    TextureRegion uvMap = tile.getTextureRegion();
-    float x  = tile.getX();
-    float z  = tile.getZ();
-    short n1 = 0;
-    short n2 = 0;
-    short n3 = 0;
-    
-    /* bottom right Vertex */
-    n1 = terrainTriangleGrid.addVertex(x+1f, tile.getY4(), z+1f);
-    //terrainTriangleGrid.addColorToVertex(255, 255, 255, 255);
-    terrainTriangleGrid.addUVMap(uvMap.getU(), uvMap.getV2());
-    //terrainTriangleGrid.addNormal();
-    if (terrain.isDebuging()) {
-      terrainTriangleGrid.addTilePos(tile.getX(), tile.getZ());
-      //terrainTriangleGrid.addPassableInfo(tile.isPassable());
-    }
-    
-    /* top right Vertex */
-    n2 = terrainTriangleGrid.addVertex(x+1f, tile.getY3(), z);
-    //terrainTriangleGrid.addColorToVertex(255, 255, 255, 255);
-    terrainTriangleGrid.addUVMap(uvMap.getU2(), uvMap.getV2());
-    //terrainTriangleGrid.addNormal();
-    if (terrain.isDebuging()) {
-      terrainTriangleGrid.addTilePos(tile.getX(), tile.getZ());
-      //terrainTriangleGrid.addPassableInfo(tile.isPassable());
-    }
-    
-    /* bottom left Vertex */
-    n3 = terrainTriangleGrid.addVertex(x, tile.getY2(), z+1f);
-    //terrainTriangleGrid.addColorToVertex(255, 255, 255, 255);
-    terrainTriangleGrid.addUVMap(uvMap.getU(), uvMap.getV());
-    //terrainTriangleGrid.addNormal();
-    if (terrain.isDebuging()) {
-      terrainTriangleGrid.addTilePos(tile.getX(), tile.getZ());
-      //terrainTriangleGrid.addPassableInfo(tile.isPassable());
-    }
-    
-    terrainTriangleGrid.addIndices(n1,n2,n3);
-    
-    /* Bottom left Vertex */
-    n1 = terrainTriangleGrid.addVertex(x, tile.getY1(), z);
-    //terrainTriangleGrid.addColorToVertex(255, 255, 255, 255);
-    terrainTriangleGrid.addUVMap(uvMap.getU(), uvMap.getV2());
-    //terrainTriangleGrid.addNormal();
-    if (terrain.isDebuging()) {
-      terrainTriangleGrid.addTilePos(tile.getX(), tile.getZ());
-      //terrainTriangleGrid.addPassableInfo(tile.isPassable());
+  
+  private boolean canMergeLiquid(boolean[] merged, int x, int z, float height, Tile cursor) {
+    if (merged[z * columns + x]) {
+      return false;
     }
-    
-    terrainTriangleGrid.addIndices(n3,n2,n1);
+    Tile tile = terrain.getTile(getStartX() + x, getStartZ() + z, cursor);
+    return tile.isLiquid() && tile.getLiquidHeight() == height;
   }
-
-  private void createCornerTopLeftMeshTile(Tile tile) {
-    TextureRegion uvMap = tile.getTextureRegion();
-    float x  = tile.getX();
-    float z  = tile.getZ();
-    short n1 = 0;
-    short n2 = 0;
-    short n3 = 0;
+  
+  private void createLiquidQuad(SectorGeometry geometry, float x, float z, int width, int depth, float height) {
+    short n1, n2, n3 = 0;
     
     /* Top right Vertex */
-    n1 = terrainTriangleGrid.addVertex(x+1f, tile.getY3(), z);
-    //terrainTriangleGrid.addColorToVertex(255, 255, 255, 255);
-    terrainTriangleGrid.addUVMap(uvMap.getU(), uvMap.getV2());
-    //terrainTriangleGrid.addNormal();
-    if (terrain.isDebuging()) {
-      terrainTriangleGrid.addTilePos(tile.getX(), tile.getZ());
-      //terrainTriangleGrid.addPassableInfo(tile.isPassable());
-    }
-    
+    n1 = geometry.water.addVertex(x + width, height, z);
+    geometry.water.addNormal();
     /* top left Vertex */
-    n2 = terrainTriangleGrid.addVertex(x, tile.getY1(), z);
-    //terrainTriangleGrid.addColorToVertex(255, 255, 255, 255);
-    terrainTriangleGrid.addUVMap(uvMap.getU2(), uvMap.getV2());
-    //terrainTriangleGrid.addNormal();
-    if (terrain.isDebuging()) {
-      terrainTriangleGrid.addTilePos(tile.getX(), tile.getZ());
-      //terrainTriangleGrid.addPassableInfo(tile.isPassable());
-    }
-    
+    n2 = geometry.water.addVertex(x, height, z);
+    geometry.water.addNormal();
     /* bottom Right Vertex */
-    n3 = terrainTriangleGrid.addVertex(x+1f, tile.getY4(), z+1f);
-    //terrainTriangleGrid.addColorToVertex(255, 255, 255, 255);
-    terrainTriangleGrid.addUVMap(uvMap.getU(), uvMap.getV());
-    //terrainTriangleGrid.addNormal();
-    if (terrain.isDebuging()) {
-      terrainTriangleGrid.addTilePos(tile.getX(), tile.getZ());
-      //terrainTriangleGrid.addPassableInfo(tile.isPassable());
-    }
-    
-    terrainTriangleGrid.addIndices(n1,n2,n3);
+    n3 = geometry.water.addVertex(x + width, height, z + depth);
+    geometry.water.addNormal();
     
+    geometry.water.addIndices(n1,n2,n3);
     /* Bottom left Vertex */
-    n1 = terrainTriangleGrid.addVertex(x, tile.getY2(), z+1f);
-    //terrainTriangleGrid.addColorToVertex(255, 255, 255, 255);
-    terrainTriangleGrid.addUVMap(uvMap.getU(), uvMap.getV2());
-    //terrainTriangleGrid.addNormal();
-    if (terrain.isDebuging()) {
-      terrainTriangleGrid.addTilePos(tile.getX(), tile.getZ());
-      //terrainTriangleGrid.addPassableInfo(tile.isPassable());
-    }
-    
-    terrainTriangleGrid.addIndices(n3,n2,n1);
-  }
-
-  private void createLeftMeshTile(Tile tile) {
-    TextureRegion uvMap = tile.getTextureRegion();
-    float x  = tile.getX();
-    float z  = tile.getZ();
-    short n1 = 0;
-    short n2 = 0;
-    short n3 = 0;
- // horizontal left
-    /* bottom right Vertex */
-    n1 = terrainTriangleGrid.addVertex(x+1f, tile.getY4(), z+1f);
-    //terrainTriangleGrid.addColorToVertex(255, 255, 255, 255);
-    terrainTriangleGrid.addUVMap(uvMap.getU2(), uvMap.getV());
-    //terrainTriangleGrid.addNormal();
-    if (terrain.isDebuging()) {
-      terrainTriangleGrid.addTilePos(tile.getX(), tile.getZ());
-      //terrainTriangleGrid.addPassableInfo(tile.isPassable());
-    }
-    
-    /* top right Vertex */
-    n2 = terrainTriangleGrid.addVertex(x+1f, tile.getY3(), z);
-    //terrainTriangleGrid.addColorToVertex(255, 255, 255, 255);
-    terrainTriangleGrid.addUVMap(uvMap.getU(), uvMap.getV());
-    //terrainTriangleGrid.addNormal();
-    if (terrain.isDebuging()) {
-      terrainTriangleGrid.addTilePos(tile.getX(), tile.getZ());
-      //terrainTriangleGrid.addPassableInfo(tile.isPassable());
-    }
-    
-    /* bottom left Vertex */
-    n3 = terrainTriangleGrid.addVertex(x, tile.getY2(), z+1f);
-    //terrainTriangleGrid.addColorToVertex(255, 255, 255, 255);
-    terrainTriangleGrid.addUVMap(uvMap.getU2(), uvMap.getV2());
-    //terrainTriangleGrid.addNormal();
-    if (terrain.isDebuging()) {
-      terrainTriangleGrid.addTilePos(tile.getX(), tile.getZ());
-      //terrainTriangleGrid.addPassableInfo(tile.isPassable());
-    }
-    
-    terrainTriangleGrid.addIndices(n1,n2,n3);
-    
-    /* top left Vertex */
-    n1 = terrainTriangleGrid.addVertex(x, tile.getY1(), z);
-    //terrainTriangleGrid.addColorToVertex(255, 255, 255, 255);
-    terrainTriangleGrid.addUVMap(uvMap.getU(), uvMap.getV2());
-    //terrainTriangleGrid.addNormal();
-    if (terrain.isDebuging()) {
-      terrainTriangleGrid.addTilePos(tile.getX(), tile.getZ());
-      //terrainTriangleGrid.addPassableInfo(tile.isPassable());
-    }
-    
-    terrainTriangleGrid.addIndices(n2,n1,n3);
-  }
-
-  private void createRightMeshTile(Tile tile) {
-    TextureRegion uvMap = tile.getTextureRegion();
-    float x  = tile.getX();
-    float z  = tile.getZ();
-    short n1 = 0;
-    short n2 = 0;
-    short n3 = 0;
- // horizontal right
-    /* Top left Vertex */
-    n1 = terrainTriangleGrid.addVertex(x, tile.getY1(), z);
-    //terrainTriangleGrid.addColorToVertex(255, 255, 255, 255);
-    terrainTriangleGrid.addUVMap(uvMap.getU2(), uvMap.getV());
-    //terrainTriangleGrid.addNormal();
-    if (terrain.isDebuging()) {
-      terrainTriangleGrid.addTilePos(tile.getX(), tile.getZ());
-      //terrainTriangleGrid.addPassableInfo(tile.isPassable());
-    }
-    
-    /* bottom left Vertex */
-    n2 = terrainTriangleGrid.addVertex(x, tile.getY2(), z+1f);
-    //terrainTriangleGrid.addColorToVertex(255, 255, 255, 255);
-    terrainTriangleGrid.addUVMap(uvMap.getU(), uvMap.getV());
-    //terrainTriangleGrid.addNormal();
-    if (terrain.isDebuging()) {
-      terrainTriangleGrid.addTilePos(tile.getX(), tile.getZ());
-      //terrainTriangleGrid.addPassableInfo(tile.isPassable());
-    }
+    n1 = geometry.water.addVertex(x, height, z + depth);
+    geometry.water.addNormal();
     
-    /* top right Vertex */
-    n3 = terrainTriangleGrid.addVertex(x+1f, tile.getY3(), z);
-    //terrainTriangleGrid.addColorToVertex(255, 255, 255, 255);
-    terrainTriangleGrid.addUVMap(uvMap.getU2(), uvMap.getV2());
-    //terrainTriangleGrid.addNormal();
-    if (terrain.isDebuging()) {
-      terrainTriangleGrid.addTilePos(tile.getX(), tile.getZ());
-      //terrainTriangleGrid.addPassableInfo(tile.isPassable());
-    }
-    
-    terrainTriangleGrid.addIndices(n1,n2,n3);
-    
-    /* bottom left Vertex */
-    n1 = terrainTriangleGrid.addVertex(x+1f, tile.getY4(), z+1f);
-    //terrainTriangleGrid.addColorToVertex(255, 255, 255, 255);
-    terrainTriangleGrid.addUVMap(uvMap.getU(), uvMap.getV2());
-    //terrainTriangleGrid.addNormal();
-    if (terrain.isDebuging()) {
-      terrainTriangleGrid.addTilePos(tile.getX(), tile.getZ());
-      //terrainTriangleGrid.addPassableInfo(tile.isPassable());
-    }
-    
-    terrainTriangleGrid.addIndices(n3,n2,n1);
+    geometry.water.addIndices(n3,n2,n1);
   }
 
-  private void createTopMeshTile(Tile tile) {
-    TextureRegion uvMap = tile.getTextureRegion();
-    float x  = tile.getX();
-    float z  = tile.getZ();
-    short n1 = 0;
-    short n2 = 0;
-    short n3 = 0;
-    // Top
-    /* Bottom Right Vertex */
-    n1 = terrainTriangleGrid.addVertex(x+1f, tile.getY4(), z+1f);
-    //terrainTriangleGrid.addColorToVertex(255, 255, 255, 255);
-    terrainTriangleGrid.addUVMap(uvMap.getU2(), uvMap.getV());
-    //terrainTriangleGrid.addNormal();
-    if (terrain.isDebuging()) {
-      terrainTriangleGrid.addTilePos(tile.getX(), tile.getZ());
-      //terrainTriangleGrid.addPassableInfo(tile.isPassable());
-    }
-    
-    /* Bottom left Vertex */
-    n3 = terrainTriangleGrid.addVertex(x, tile.getY2(), z+1);
-    //terrainTriangleGrid.addColorToVertex(255, 255, 255, 255);
-    terrainTriangleGrid.addUVMap(uvMap.getU(), uvMap.getV());
-    //terrainTriangleGrid.addNormal();
-    if (terrain.isDebuging()) {
-      terrainTriangleGrid.addTilePos(tile.getX(), tile.getZ());
-      //terrainTriangleGrid.addPassableInfo(tile.isPassable());
-    }
-    
-    /* Top right Vertex */
-    n2 = terrainTriangleGrid.addVertex(x+1f, tile.getY3(), z);
-    //terrainTriangleGrid.addColorToVertex(255, 255, 255, 255);
-    terrainTriangleGrid.addUVMap(uvMap.getU2(), uvMap.getV2());
-    //terrainTriangleGrid.addNormal();
-    if (terrain.isDebuging()) {
-      terrainTriangleGrid.addTilePos(tile.getX(), tile.getZ());
-      //terrainTriangleGrid.addPassableInfo(tile.isPassable());
-    }
-    
-    terrainTriangleGrid.addIndices(n1,n2,n3);
-    
-    /* Top left Vertex */
-    n1 = terrainTriangleGrid.addVertex(x, tile.getY1(), z);
-    //terrainTriangleGrid.addColorToVertex(255, 255, 255, 255);
-    terrainTriangleGrid.addUVMap(uvMap.getU(), uvMap.getV2());
-    //terrainTriangleGrid.addNormal();
-    if (terrain.isDebuging()) {
-      terrainTriangleGrid.addTilePos(tile.getX(), tile.getZ());
-      //terrainTriangleGrid.addPassableInfo(tile.isPassable());
-    }
-    
-    terrainTriangleGrid.addIndices(n3,n2,n1);
+  private static int getTemplate(Tile tile) {
+    return tile.getAutoTiles().isSlope() ? tile.getSlope().ordinal() : 0;
   }
-
-  private void createBottomMeshTile(Tile tile) {
-    TextureRegion uvMap = tile.getTextureRegion();
-    float x  = tile.getX();
-    float z  = tile.getZ();
-    short n1 = 0;
-    short n2 = 0;
-    short n3 = 0;
-    //bottom
-    /* Top Right Vertex */
-    n1 = terrainTriangleGrid.addVertex(x+1f, tile.getY3(), z);
-    //terrainTriangleGrid.addColorToVertex(255, 255, 255, 255);
-    terrainTriangleGrid.addUVMap(uvMap.getU2(), uvMap.getV());
-    //terrainTriangleGrid.addNormal();
-    if (terrain.isDebuging()) {
-      terrainTriangleGrid.addTilePos(tile.getX(), tile.getZ());
-      //terrainTriangleGrid.addPassableInfo(tile.isPassable());
-    }
-    
-    /* Top left Vertex */
-    n2 = terrainTriangleGrid.addVertex(x, tile.getY1(), z);
-    //terrainTriangleGrid.addColorToVertex(255, 255, 255, 255);
-    terrainTriangleGrid.addUVMap(uvMap.getU(), uvMap.getV());
-    //terrainTriangleGrid.addNormal();
-    if (terrain.isDebuging()) {
-      terrainTriangleGrid.addTilePos(tile.getX(), tile.getZ());
-      //terrainTriangleGrid.addPassableInfo(tile.isPassable());
-    }
-    
-    /* Bottom right Vertex */
-    n3 = terrainTriangleGrid.addVertex(x+1f, tile.getY4(), z+1f);
-    //terrainTriangleGrid.addColorToVertex(255, 255, 255, 255);
-    terrainTriangleGrid.addUVMap(uvMap.getU2(), uvMap.getV2());
-    //terrainTriangleGrid.addNormal();
-    if (terrain.isDebuging()) {
-      terrainTriangleGrid.addTilePos(tile.getX(), tile.getZ());
-      //terrainTriangleGrid.addPassableInfo(tile.isPassable());
-    }
-    
-    terrainTriangleGrid.addIndices(n1,n2,n3);
-    
-    /* Bottom left Vertex */
-    n1 = terrainTriangleGrid.addVertex(x, tile.getY2(), z+1f);
-    //terrainTriangleGrid.addColorToVertex(255, 255, 255, 255);
-    terrainTriangleGrid.addUVMap(uvMap.getU(), uvMap.getV2());
-    //terrainTriangleGrid.addNormal();
-    if (terrain.isDebuging()) {
-      terrainTriangleGrid.addTilePos(tile.getX(), tile.getZ());
-      //terrainTriangleGrid.addPassableInfo(tile.isPassable());
-    }
-    
-    terrainTriangleGrid.addIndices(n3,n2,n1);
+  
+  // Corner of every quad vertex the tile is meshed with, picking uses it to split the tile like the mesh does
+  static byte[] getTileCorners(Tile tile) {
+    return SLOPE_CORNERS[getTemplate(tile)];
   }
-
-  private void createCornerTop(Tile tile) {
+  
+  private void createTerrainTileGeometry(Tile tile, SectorGeometry geometry) {
+    int slope           = getTemplate(tile);
+    byte[] corners      = SLOPE_CORNERS[slope];
+    byte[] uvs          = SLOPE_UVS[slope];
     TextureRegion uvMap = tile.getTextureRegion();
-    float x  = tile.getX();
-    float z  = tile.getZ();
-    short n1 = 0;
-    short n2 = 0;
-    short n3 = 0;
-    
-    /* Top left Vertex */
-    n1 = terrainTriangleGrid.addVertex(x, tile.getY1(), z);
-    //terrainTriangleGrid.addColorToVertex(255, 255, 255, 255);
-    terrainTriangleGrid.addUVMap(uvMap.getU(), uvMap.getV());
-    //terrainTriangleGrid.addNormal();
-    if (terrain.isDebuging()) {
-      terrainTriangleGrid.addTilePos(tile.getX(), tile.getZ());
-      //terrainTriangleGrid.addPassableInfo(tile.isPassable());
-    }
-    
-    /* Bottom left Vertex */
-    n2 = terrainTriangleGrid.addVertex(x, tile.getY2(), z+1f);
-    //terrainTriangleGrid.addColorToVertex(255, 255, 255, 255);
-    terrainTriangleGrid.addUVMap(uvMap.getU(), uvMap.getV2());
-    //terrainTriangleGrid.addNormal();
-    if (terrain.isDebuging()) {
-      terrainTriangleGrid.addTilePos(tile.getX(), tile.getZ());
-      //terrainTriangleGrid.addPassableInfo(tile.isPassable());
-    }
-    
-    /* Top Right Vertex */
-    n3 = terrainTriangleGrid.addVertex(x+1f, tile.getY3(), z);
-    //terrainTriangleGrid.addColorToVertex(255, 255, 255, 255);
-    terrainTriangleGrid.addUVMap(uvMap.getU2(), uvMap.getV());
-    //terrainTriangleGrid.addNormal();
-    if (terrain.isDebuging()) {
-      terrainTriangleGrid.addTilePos(tile.getX(), tile.getZ());
-      //terrainTriangleGrid.addPassableInfo(tile.isPassable());
-    }
-    
-    terrainTriangleGrid.addIndices(n1,n2,n3);
-    
-    /* Bottom right Vertex */
-    n1 = terrainTriangleGrid.addVertex(x+1f, tile.getY4(), z+1f);
-    //terrainTriangleGrid.addColorToVertex(255, 255, 255, 255);
-    terrainTriangleGrid.addUVMap(uvMap.getU2(), uvMap.getV2());
-    //terrainTriangleGrid.addNormal();
-    if (terrain.isDebuging()) {
-      terrainTriangleGrid.addTilePos(tile.getX(), tile.getZ());
-      //terrainTriangleGrid.addPassableInfo(tile.isPassable());
+    TriangleGrid grid   = geometry.terrain;
+    float[] heights     = geometry.cornerHeights;
+    boolean debug       = terrain.isDebuging();
+    float x             = tile.getX();
+    float z             = tile.getZ();
+    int light           = ((int)z - getStartZ()) * (columns + 1) + (int)x - getStartX();
+    heights[CORNER_TOP_LEFT]     = tile.getY1();
+    heights[CORNER_BOTTOM_LEFT]  = tile.getY2();
+    heights[CORNER_TOP_RIGHT]    = tile.getY3();
+    heights[CORNER_BOTTOM_RIGHT] = tile.getY4();
+    
+    short first = 0;
+    for (int i = 0; i < VERTEX_PER_BOX_COUNT; i++) {
+      int corner = corners[i];
+      int uv     = uvs[i];
+      short n    = grid.addVertex(x + (corner >> 1), heights[corner], z + (corner & 1));
+      grid.addUVMap((uv & 1) == 0 ? uvMap.getU() : uvMap.getU2(), (uv & 2) == 0 ? uvMap.getV() : uvMap.getV2());
+      grid.addPackedColor(geometry.cornerLight[light + (corner & 1) * (columns + 1) + (corner >> 1)]);
+      if (debug) {
+        grid.addTilePos(x, z);
+      }
+      if (i == 0) {
+        first = n;
+      }
     }
     
-    terrainTriangleGrid.addIndices(n3,n2,n1);
+    grid.addIndices(first, (short)(first + 1), (short)(first + 2));
+    grid.addIndices((short)(first + 2), (short)(first + 1), (short)(first + 3));
   }
 
-
   public boolean visibleInCamera(Camera camera) {
     return camera.frustum.boundsInFrustum(boundingBox);
   }
 
-  public Vector3 getPositionForRay(Ray ray, Vector3 mouseTilePosition) {
-    if (Intersector.intersectRayTriangles(ray, terrainTriangleGrid.getVerties(), terrainTriangleGrid.getIndices(), terrainTriangleGrid.getVertexSize(), mouseTilePosition)) {
-      return mouseTilePosition;
-    } else {
-      return null;
-    }
-  }
-  
-  public TerrainRenderable getTerrainRenderable(TerrainShader terrainShader) {
-    if (terrainRenderable == null) {
-      this.terrainRenderable                = new TerrainRenderable();
-      this.terrainRenderable.mesh           = terrainTriangleGrid.getMesh();
-      this.terrainRenderable.meshPartOffset = 0;
-      this.terrainRenderable.meshPartSize   = this.terrainRenderable.mesh.getNumIndices();
-      this.terrainRenderable.primitiveType  = GL20.GL_TRIANGLES;
-    }
-    this.terrainRenderable.material       = terrainShader.getMaterial();
-    this.terrainRenderable.shader         = terrainShader;
-    
-    return terrainRenderable;
-  }
-  
-  public WaterRenderable getWaterRenderable(Water water) {
-    if (waterRenderable == null && waterTriangleGrid.haveMeshData()) {
-      this.waterRenderable                = new WaterRenderable();
-      this.waterRenderable.mesh           = waterTriangleGrid.getMesh();
-      this.waterRenderable.meshPartOffset = 0;
-      this.waterRenderable.meshPartSize   = this.waterRenderable.mesh.getNumIndices();
-      this.waterRenderable.primitiveType  = GL20.GL_TRIANGLES;
-    }
-    
-    if (waterRenderable != null) {
-      this.waterRenderable.shader   = water.getShader();
-      this.waterRenderable.material = water.getMaterial();
+  // Read only runtime, the page meshes hold the only copy of the geometry from now on
+  public void freeze() {
+    geometry.releaseVertices();
+    if (backGeometry != null) {
+      backGeometry.dispose();
+      backGeometry = null;
     }
-    
-    return waterRenderable;
   }
   
-  public FoliageRenderable getFoliageRenderable(Foliage foliage) {
-    if (foliageRenderable == null && foliageTriangleGrid.haveMeshData()) {
-      this.foliageRenderable                = new FoliageRenderable();
-      this.foliageRenderable.mesh           = foliageTriangleGrid.getMesh();
-      this.foliageRenderable.meshPartOffset = 0;
-      this.foliageRenderable.meshPartSize   = this.foliageRenderable.mesh.getNumIndices();
-      this.foliageRenderable.primitiveType  = GL20.GL_TRIANGLES;
-    }
-    
-    if (foliageRenderable != null) {
-      this.foliageRenderable.shader   = foliage.getShader();
-      this.foliageRenderable.material = foliage.getMaterial();
-    }
-    
-    return foliageRenderable;
-  }
-
   @Override
   public void dispose() {
-    this.terrainTriangleGrid.dispose();
-    this.waterTriangleGrid.dispose();
-    this.foliageTriangleGrid.dispose();
-    if (terrainRenderable != null) {
-      terrainRenderable.mesh.dispose();
-    }
-    
-    if (this.waterRenderable != null) {
-      waterRenderable.mesh.dispose();
-    }
-    
-    if (this.foliageRenderable != null) {
-      foliageRenderable.mesh.dispose();
+    this.geometry.dispose();
+    if (backGeometry != null) {
+      backGeometry.dispose();
     }
   }
   
@@ -1045,8 +479,4 @@ public class Sector implements Disposable {
   public boolean containsTilePosition(float x, float z) {
     return (x >= getStartX() && x <= getEndX() && z >= getStartZ() && z <= getEndZ());
   }
-
-  public void cleanRenderableData() {
-    this.terrainRenderable = null;
-  }
 }
@@ -0,0 +1,87 @@
+package com.macbury.fabula.terrain;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import com.badlogic.gdx.utils.Disposable;
+import com.badlogic.gdx.utils.GdxRuntimeException;
+
+// Builds sector geometry on worker threads. Only CPU side arrays are filled here, meshes are still created on the GL thread.
+public class SectorBuilder implements Disposable {
+  private static SectorBuilder shared;
+  private ExecutorService executor;
+  private int threads;
+
+  public static synchronized SectorBuilder shared() {
+    if (shared == null) {
+      shared = new SectorBuilder(Runtime.getRuntime().availableProcessors());
+    }
+    return shared;
+  }
+
+  public SectorBuilder(int threads) {
+    this.threads  = Math.max(1, threads);
+    this.executor = Executors.newFixedThreadPool(this.threads, new ThreadFactory() {
+      private int count = 0;
+
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "SectorBuilder-" + (count++));
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+
+  public int getThreads() {
+    return threads;
+  }
+
+  public ExecutorService getExecutor() {
+    return executor;
+  }
+
+  public void build(List<Sector> sectors) {
+    if (threads == 1 || sectors.size() <= 1) {
+      for (Sector sector : sectors) {
+        sector.build();
+      }
+      return;
+    }
+
+    int chunks                 = Math.min(sectors.size(), threads * 4);
+    ArrayList<Future<?>> tasks = new ArrayList<Future<?>>(chunks);
+    for (int chunk = 0; chunk < chunks; chunk++) {
+      final List<Sector> part = sectors.subList(chunk * sectors.size() / chunks, (chunk + 1) * sectors.size() / chunks);
+      tasks.add(executor.submit(new Runnable() {
+        @Override
+        public void run() {
+          for (Sector sector : part) {
+            sector.build();
+          }
+        }
+      }));
+    }
+
+    for (Future<?> task : tasks) {
+      try {
+        task.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new GdxRuntimeException("Interrupted while building sectors", e);
+      } catch (ExecutionException e) {
+        throw new GdxRuntimeException("Could not build sector", e.getCause());
+      }
+    }
+  }
+
+  @Override
+  public void dispose() {
+    executor.shutdown();
+  }
+}
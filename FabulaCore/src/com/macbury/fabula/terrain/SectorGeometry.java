@@ -0,0 +1,121 @@
+package com.macbury.fabula.terrain;
+
+import com.macbury.fabula.terrain.foliage.Foliage;
+import com.macbury.fabula.terrain.geometry.TriangleGrid;
+import com.macbury.fabula.terrain.geometry.TriangleGrid.AttributeType;
+
+// CPU side geometry of one sector. Sector keeps a front copy for rendering and picking, and a back copy for async rebuilds.
+public class SectorGeometry {
+  public TriangleGrid terrain;
+  public TriangleGrid water;
+  public TriangleGrid foliage;
+  public float minHeight;
+  public float maxHeight;
+  // foliage vertex count after each density tier, see Sector.createFoliageTiers
+  public int[] foliageTierEnds = new int[Foliage.TIERS];
+  // scratch corner heights for the slope templates, a geometry is only built by one thread at a time
+  public final float[] cornerHeights = new float[4];
+  // scratch mask of liquid tiles already covered by a merged water quad
+  public final boolean[] mergedLiquid;
+  // scratch corner heights around the sector and baked light of every tile corner, see TerrainLighting
+  public final float[] lightHeights;
+  public final float[] cornerLight;
+
+  public SectorGeometry(int columns, int rows) {
+    this.mergedLiquid = new boolean[columns * rows];
+    this.lightHeights = new float[TerrainLighting.getHeightsSize(columns, rows)];
+    this.cornerLight  = new float[(columns + 1) * (rows + 1)];
+    this.terrain = new TriangleGrid(columns, rows, false);
+    this.water   = new TriangleGrid(columns, rows, false);
+    this.foliage = new TriangleGrid(columns*2, rows*2, false);
+    terrain.useQuadIndices();
+    water.useQuadIndices();
+    foliage.useQuadIndices();
+  }
+
+  public void begin(int layers, boolean debug) {
+    minHeight = 0.0f;
+    maxHeight = 1.0f;
+
+    if ((layers & Sector.LAYER_TERRAIN) != 0) {
+      terrain.using(AttributeType.Position);
+      terrain.using(AttributeType.TextureCord);
+      terrain.using(AttributeType.Color);
+      if (debug) {
+        terrain.using(AttributeType.TilePosition);
+      }
+      terrain.begin();
+    }
+
+    if ((layers & Sector.LAYER_WATER) != 0) {
+      water.using(AttributeType.Position);
+      water.using(AttributeType.Normal);
+      water.begin();
+    }
+
+    if ((layers & Sector.LAYER_FOLIAGE) != 0) {
+      foliage.using(AttributeType.Position);
+      foliage.using(AttributeType.TextureCord);
+      foliage.using(AttributeType.Color);
+      foliage.begin();
+    }
+  }
+
+  public void end(int layers) {
+    if ((layers & Sector.LAYER_FOLIAGE) != 0) {
+      foliage.end();
+    }
+
+    if ((layers & Sector.LAYER_TERRAIN) != 0) {
+      terrain.end();
+    }
+
+    if ((layers & Sector.LAYER_WATER) != 0) {
+      water.end();
+    }
+  }
+
+  public void swap(SectorGeometry other, int layers) {
+    TriangleGrid grid = null;
+    if ((layers & Sector.LAYER_TERRAIN) != 0) {
+      grid            = terrain;
+      terrain         = other.terrain;
+      other.terrain   = grid;
+
+      float height    = minHeight;
+      minHeight       = other.minHeight;
+      other.minHeight = height;
+      height          = maxHeight;
+      maxHeight       = other.maxHeight;
+      other.maxHeight = height;
+    }
+
+    if ((layers & Sector.LAYER_WATER) != 0) {
+      grid            = water;
+      water           = other.water;
+      other.water     = grid;
+    }
+
+    if ((layers & Sector.LAYER_FOLIAGE) != 0) {
+      grid            = foliage;
+      foliage         = other.foliage;
+      other.foliage   = grid;
+
+      int[] tierEnds        = foliageTierEnds;
+      foliageTierEnds       = other.foliageTierEnds;
+      other.foliageTierEnds = tierEnds;
+    }
+  }
+
+  public void releaseVertices() {
+    terrain.releaseVertices();
+    water.releaseVertices();
+    foliage.releaseVertices();
+  }
+
+  public void dispose() {
+    terrain.dispose();
+    water.dispose();
+    foliage.dispose();
+  }
+}
@@ -0,0 +1,133 @@
+package com.macbury.fabula.terrain;
+
+import java.util.List;
+
+import com.badlogic.gdx.math.Frustum;
+import com.badlogic.gdx.math.Plane;
+import com.badlogic.gdx.math.Vector3;
+import com.badlogic.gdx.math.collision.BoundingBox;
+
+// Hierarchy of sector bounds, lets culling reject or accept whole groups of sectors with one test
+public class SectorQuadTree {
+  private static final int OUTSIDE    = -1;
+  private static final int ALL_PLANES = 0x3F;
+
+  private Node root;
+  private Node[][] leafs;
+
+  private static class Node {
+    final BoundingBox bounds = new BoundingBox();
+    Node parent;
+    Node[] children;
+    Sector sector;
+  }
+
+  public SectorQuadTree(Sector[][] sectors, int horizontalCount, int verticalCount) {
+    this.leafs = new Node[horizontalCount][verticalCount];
+    this.root  = build(sectors, null, 0, 0, horizontalCount, verticalCount);
+  }
+
+  private Node build(Sector[][] sectors, Node parent, int x0, int z0, int x1, int z1) {
+    Node node   = new Node();
+    node.parent = parent;
+
+    if (x1 - x0 == 1 && z1 - z0 == 1) {
+      node.sector   = sectors[x0][z0];
+      leafs[x0][z0] = node;
+      node.bounds.set(node.sector.getBounds());
+      return node;
+    }
+
+    int mx    = x1 - x0 > 1 ? (x0 + x1) / 2 : x1;
+    int mz    = z1 - z0 > 1 ? (z0 + z1) / 2 : z1;
+    int count = (mx < x1 ? 2 : 1) * (mz < z1 ? 2 : 1);
+
+    node.children = new Node[count];
+    int i         = 0;
+    node.children[i++] = build(sectors, node, x0, z0, mx, mz);
+    if (mx < x1) {
+      node.children[i++] = build(sectors, node, mx, z0, x1, mz);
+    }
+    if (mz < z1) {
+      node.children[i++] = build(sectors, node, x0, mz, mx, z1);
+    }
+    if (mx < x1 && mz < z1) {
+      node.children[i++] = build(sectors, node, mx, mz, x1, z1);
+    }
+    fit(node);
+    return node;
+  }
+
+  private void fit(Node node) {
+    node.bounds.inf();
+    for (Node child : node.children) {
+      node.bounds.ext(child.bounds);
+    }
+  }
+
+  // Sector heights changed, update its leaf and every parent up to the root
+  public void refit(int x, int z) {
+    Node node = leafs[x][z];
+    node.bounds.set(node.sector.getBounds());
+    for (node = node.parent; node != null; node = node.parent) {
+      fit(node);
+    }
+  }
+
+  // Sectors further than drawDistance on the ground plane are rejected before the frustum test, 0 disables it
+  public void cull(Frustum frustum, Vector3 position, float drawDistance, List<Sector> out) {
+    cull(root, frustum.planes, ALL_PLANES, position, drawDistance * drawDistance, out);
+  }
+
+  private void cull(Node node, Plane[] planes, int mask, Vector3 position, float drawDistance2, List<Sector> out) {
+    if (drawDistance2 > 0 && getDistance2(node.bounds, position) > drawDistance2) {
+      return;
+    }
+
+    if (mask != 0) {
+      mask = classify(node.bounds, planes, mask);
+      if (mask == OUTSIDE) {
+        return;
+      }
+    }
+
+    if (node.sector != null) {
+      out.add(node.sector);
+    } else {
+      for (Node child : node.children) {
+        cull(child, planes, mask, position, drawDistance2, out);
+      }
+    }
+  }
+
+  private float getDistance2(BoundingBox box, Vector3 position) {
+    float dx = Math.max(0, Math.max(box.min.x - position.x, position.x - box.max.x));
+    float dz = Math.max(0, Math.max(box.min.z - position.z, position.z - box.max.z));
+    return dx * dx + dz * dz;
+  }
+
+  // Returns OUTSIDE or mask of planes the box still crosses, 0 means the box is fully inside
+  private int classify(BoundingBox box, Plane[] planes, int mask) {
+    int result = 0;
+    for (int i = 0; i < planes.length; i++) {
+      if ((mask & (1 << i)) == 0) {
+        continue;
+      }
+      Plane plane = planes[i];
+      float nx    = plane.normal.x;
+      float ny    = plane.normal.y;
+      float nz    = plane.normal.z;
+
+      float far   = nx * (nx > 0 ? box.max.x : box.min.x) + ny * (ny > 0 ? box.max.y : box.min.y) + nz * (nz > 0 ? box.max.z : box.min.z) + plane.d;
+      if (far < 0) {
+        return OUTSIDE;
+      }
+
+      float near  = nx * (nx > 0 ? box.min.x : box.max.x) + ny * (ny > 0 ? box.min.y : box.max.y) + nz * (nz > 0 ? box.min.z : box.max.z) + plane.d;
+      if (near < 0) {
+        result |= 1 << i;
+      }
+    }
+    return result;
+  }
+}
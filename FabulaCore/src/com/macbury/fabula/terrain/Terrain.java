@@ -2,7 +2,9 @@ package com.macbury.fabula.terrain;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Stack;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import org.simpleframework.xml.core.Commit;
 
@@ -13,29 +15,41 @@ import com.badlogic.gdx.graphics.Color;
 import com.badlogic.gdx.graphics.Pixmap;
 import com.badlogic.gdx.graphics.g3d.ModelBatch;
 import com.badlogic.gdx.graphics.g3d.Renderable;
+import com.badlogic.gdx.graphics.g3d.lights.DirectionalLight;
+import com.badlogic.gdx.graphics.g3d.lights.Lights;
 import com.badlogic.gdx.graphics.g3d.materials.Material;
 import com.badlogic.gdx.graphics.g3d.materials.TextureAttribute;
 import com.badlogic.gdx.graphics.glutils.ShaderProgram;
+import com.badlogic.gdx.math.Intersector;
+import com.badlogic.gdx.math.MathUtils;
 import com.badlogic.gdx.math.Vector3;
 import com.badlogic.gdx.math.collision.BoundingBox;
 import com.badlogic.gdx.math.collision.Ray;
 import com.badlogic.gdx.utils.Disposable;
+import com.badlogic.gdx.utils.GdxRuntimeException;
+import com.macbury.fabula.graphics.Fog;
 import com.macbury.fabula.manager.G;
 import com.macbury.fabula.terrain.foliage.Foliage;
-import com.macbury.fabula.terrain.foliage.FoliageRenderable;
 import com.macbury.fabula.terrain.foliage.FoliageSet;
+import com.macbury.fabula.terrain.geometry.MeshPool;
 import com.macbury.fabula.terrain.tile.Tile;
 import com.macbury.fabula.terrain.tileset.Tileset;
 import com.macbury.fabula.terrain.water.Water;
-import com.macbury.fabula.terrain.water.WaterRenderable;
 
 public class Terrain implements Disposable {
   private static final String TAG = "Terrain";
+  private static final Tile EMPTY_TILE = new Tile(0, 0, 0);
+  public static final int DEFAULT_SECTOR_SIZE = Sector.COLUMN_COUNT;
+  // foliage emits 8 vertices per tile and sector meshes use 16 bit indices
+  public static final int MAX_SECTOR_SIZE     = 64;
+  // time per frame spent uploading pages that were never resident
+  public static final long UPLOAD_BUDGET_NANOS = 4000000L;
   private Sector[][] sectors;
-  private Tile[][] tiles;
+  private TerrainStore store;
   
   private int columns;
   private int rows;
+  private int sectorSize = DEFAULT_SECTOR_SIZE;
   private String tilesetName;
   
   private int horizontalSectorCount;
@@ -44,27 +58,52 @@ public class Terrain implements Disposable {
   private int visibleSectorCount;
   
   private Stack<Sector> visibleSectors;
-  private ArrayList<Sector> rebuildSectorsArray = new ArrayList<Sector>();
+  private SectorQuadTree sectorTree;
+  private TerrainPage[] pages;
+  private ArrayList<TerrainPage> visiblePages;
+  private ArrayList<TerrainPage> pendingPages;
+  private float[] culledCameraMatrix = new float[16];
+  private boolean cullingDirty       = true;
+  private float culledDrawDistance;
+  private BitSet dirtySectors = new BitSet();
+  // sectors with tile edits since the last save, only their chunks are encoded again by Scene.save()
+  private BitSet unsavedSectors = new BitSet();
+  private int[] dirtySectorLayers;
+  private ConcurrentLinkedQueue<Sector> rebuiltSectors = new ConcurrentLinkedQueue<Sector>();
+  private ConcurrentLinkedQueue<Sector> failedSectors  = new ConcurrentLinkedQueue<Sector>();
   private Vector3 intersection = new Vector3();
+  private Vector3[] pickCorners = { new Vector3(), new Vector3(), new Vector3(), new Vector3() };
+  private float[] pickHeights   = new float[4];
+  private Tile pickCursor;
   private boolean debug = false;
+  private boolean compactVertices = false;
+  private boolean frozen = false;
+  private boolean levelOfDetail = true;
   
   private FoliageSet foliageSet;
   private Tileset tileset;
   private TerrainDebugListener debugListener;
   private Material terrainMaterial;
   private TerrainShader terrainShader;
+  private SectorBuilder sectorBuilder = SectorBuilder.shared();
+  private MeshPool meshPool           = new MeshPool();
+  private Fog fog                     = new Fog();
+  private TerrainLighting lighting    = new TerrainLighting();
+  private DirectionalLight sunLight;
   
   public Terrain(int columns, int rows) {
     this.columns      = columns;
     this.rows         = rows;
     
     Tile.GID_COUNTER  = 1;
-    this.tiles        = new Tile[columns][rows];
-    if (columns % Sector.COLUMN_COUNT != 0 || rows%Sector.ROW_COUNT != 0) {
+    this.store        = new TerrainStore(columns, rows);
+    this.pickCursor   = new Tile(store, 0, 0);
+    if (columns <= 0 || rows <= 0) {
       throw new RuntimeException("Map size must be proper!");
     }
     
     this.terrainShader   = new TerrainShader();
+    this.terrainShader.setFog(fog);
   }
   
   public void setTileset(String name) {
@@ -77,63 +116,195 @@ public class Terrain implements Disposable {
   }
   
   private void clearSectorRenderData() {
-    for (int x = 0; x < horizontalSectorCount; x++) {
-      for (int z = 0; z < veriticalSectorCount; z++) {
-        Sector sector = this.sectors[x][z];
-        if (sector != null) {
-          sector.cleanRenderableData();
-        }
+    if (pages != null) {
+      for (TerrainPage page : pages) {
+        page.invalidateAll();
       }
     }
   }
 
   public void buildSectors() {
-    this.horizontalSectorCount = columns/Sector.COLUMN_COUNT;
-    this.veriticalSectorCount  = rows/Sector.ROW_COUNT;
+    checkEditable();
+    boolean relayout           = sectors != null;
+    this.horizontalSectorCount = (columns + sectorSize - 1) / sectorSize;
+    this.veriticalSectorCount  = (rows + sectorSize - 1) / sectorSize;
     this.totalSectorCount      = horizontalSectorCount * veriticalSectorCount;
     
     this.sectors               = new Sector[horizontalSectorCount][veriticalSectorCount];
     this.visibleSectors        = new Stack<Sector>();
+    this.dirtySectorLayers     = new int[totalSectorCount];
+    this.dirtySectors.clear();
+    this.failedSectors.clear();
+    // a new sector layout does not match the chunks of the saved file
+    if (relayout) {
+      this.unsavedSectors.set(0, totalSectorCount);
+    }
     
+    ArrayList<Sector> sectorsToBuild = new ArrayList<Sector>(totalSectorCount);
     for (int x = 0; x < horizontalSectorCount; x++) {
       for (int z = 0; z < veriticalSectorCount; z++) {
-        Sector sector = new Sector(new Vector3(x * Sector.COLUMN_COUNT, 0, z * Sector.ROW_COUNT), this);
-        sector.build();
+        int sx        = x * sectorSize;
+        int sz        = z * sectorSize;
+        Sector sector = new Sector(new Vector3(sx, 0, sz), Math.min(sectorSize, columns - sx), Math.min(sectorSize, rows - sz), this);
         this.sectors[x][z] = sector;
+        sectorsToBuild.add(sector);
       }
     }
     
+    sectorBuilder.build(sectorsToBuild);
+    this.sectorTree   = new SectorQuadTree(sectors, horizontalSectorCount, veriticalSectorCount);
+    this.cullingDirty = true;
+    buildPages();
     System.gc();
   }
   
+  private void buildPages() {
+    final TerrainPage[] oldPages = pages;
+    if (oldPages != null) {
+      Gdx.app.postRunnable(new Runnable() {
+        @Override
+        public void run() {
+          for (TerrainPage page : oldPages) {
+            page.dispose();
+          }
+        }
+      });
+    }
+    
+    int pageSize       = TerrainPage.getSectorsPerPage(sectorSize);
+    int horizontal     = (horizontalSectorCount + pageSize - 1) / pageSize;
+    int vertical       = (veriticalSectorCount + pageSize - 1) / pageSize;
+    this.pages         = new TerrainPage[horizontal * vertical];
+    this.visiblePages  = new ArrayList<TerrainPage>();
+    this.pendingPages  = new ArrayList<TerrainPage>(pages.length);
+    
+    for (int px = 0; px < horizontal; px++) {
+      for (int pz = 0; pz < vertical; pz++) {
+        int startX = px * pageSize;
+        int startZ = pz * pageSize;
+        int endX   = Math.min(startX + pageSize, horizontalSectorCount);
+        int endZ   = Math.min(startZ + pageSize, veriticalSectorCount);
+        
+        // row by row, so a visible window of sectors maps to few contiguous runs
+        Sector[] pageSectors = new Sector[(endX - startX) * (endZ - startZ)];
+        int slot             = 0;
+        for (int z = startZ; z < endZ; z++) {
+          for (int x = startX; x < endX; x++) {
+            pageSectors[slot++] = sectors[x][z];
+          }
+        }
+        pages[px * vertical + pz] = new TerrainPage(this, pageSectors, meshPool);
+        pages[px * vertical + pz].setCompact(useCompactVertices());
+        pendingPages.add(pages[px * vertical + pz]);
+      }
+    }
+  }
+  
+  // Uploads pages that were never resident until the budget is spent, visible pages first and then the closest
+  // ones to the camera. Returns true once every visible page is resident. Must be called on the GL thread.
+  public boolean uploadPages(Camera camera, long budgetNanos) {
+    cullSectors(camera);
+    long start = System.nanoTime();
+    while (!pendingPages.isEmpty() && System.nanoTime() - start < budgetNanos) {
+      int next             = 0;
+      boolean nextVisible  = false;
+      float nextDistance   = Float.MAX_VALUE;
+      for (int i = 0; i < pendingPages.size(); i++) {
+        TerrainPage page = pendingPages.get(i);
+        boolean visible  = page.isVisible();
+        float distance   = page.getDistance2(camera.position.x, camera.position.z);
+        if ((visible && !nextVisible) || (visible == nextVisible && distance < nextDistance)) {
+          next         = i;
+          nextVisible  = visible;
+          nextDistance = distance;
+        }
+      }
+      
+      TerrainPage page = pendingPages.get(next);
+      pendingPages.set(next, pendingPages.get(pendingPages.size() - 1));
+      pendingPages.remove(pendingPages.size() - 1);
+      uploadPage(page);
+    }
+    
+    for (TerrainPage page : visiblePages) {
+      if (!page.isResident()) {
+        return false;
+      }
+    }
+    return true;
+  }
+  
+  public void uploadAllPages() {
+    for (TerrainPage page : pendingPages) {
+      uploadPage(page);
+    }
+    pendingPages.clear();
+  }
+  
+  public int getPendingPageCount() {
+    return pendingPages.size();
+  }
+  
+  private void uploadPage(TerrainPage page) {
+    if (frozen) {
+      page.freeze();
+      for (Sector sector : page.getSectors()) {
+        sector.freeze();
+      }
+    } else {
+      page.upload();
+    }
+  }
+  
   public void fillEmptyTilesWithDebugTile() {
+    Tile cursor = new Tile(store, 0, 0);
     for (int z = 0; z < rows; z++) {
       for (int x = 0; x < columns; x++) {
         if (!haveTile(x,z)) {
-          Tile tile = new Tile(x, 0, z);
+          Tile tile = createTile(x, z, cursor);
           tile.setAutoTile(tileset.getDefaultAutoTile());
-          setTile(x, z, tile);
         }
       }
     }
   }
+  
+  public Tile createTile(int x, int z, Tile cursor) {
+    return createTile(x, z, Tile.GID_COUNTER++, cursor);
+  }
+  
+  // Leaves Tile.GID_COUNTER alone, for loading tiles that keep their saved gid
+  public Tile createTile(int x, int z, int gid, Tile cursor) {
+    int index = store.index(x, z);
+    EMPTY_TILE.copyTo(store, index);
+    store.setGid(index, gid);
+    store.setPresent(index);
+    return cursor.set(store, x, z);
+  }
 
   private boolean haveTile(int x, int z) {
-    return getTile(x,z) != null;
+    return store.contains(x, z) && store.isPresent(store.index(x, z));
   }
 
   public Tile getTile(int x, int z) {
-    try {
-      return this.tiles[x][z];
-    } catch (ArrayIndexOutOfBoundsException e) {
+    return getTile(x, z, null);
+  }
+  
+  public Tile getTile(int x, int z, Tile cursor) {
+    if (!haveTile(x, z)) {
       return null;
     }
+    
+    if (cursor == null) {
+      return new Tile(store, x, z);
+    } else {
+      return cursor.set(store, x, z);
+    }
   }
   
   public void setTile(int x, int z, Tile tile) {
-    tile.setX(x);
-    tile.setZ(z);
-    this.tiles[x][z] = tile;
+    int index = store.index(x, z);
+    tile.copyTo(store, index);
+    store.setPresent(index);
   }
   
   public void setTile(float x, float z, Tile tile) {
@@ -141,60 +312,183 @@ public class Terrain implements Disposable {
   }
   
   public void renderTerrainGeometry(Camera camera, ModelBatch batch) {
-    visibleSectors.clear();
+    updateSunLight();
+    swapRebuiltSectors();
     terrainShader.setDebugListener(debugListener);
-    visibleSectorCount  = 0;
+    uploadPages(camera, UPLOAD_BUDGET_NANOS);
     
-    for (int x = 0; x < horizontalSectorCount; x++) {
-      for (int z = 0; z < veriticalSectorCount; z++) {
-        Sector sector                = this.sectors[x][z]; 
-        TerrainRenderable renderable = sector.getTerrainRenderable(terrainShader);
-        if (sector.visibleInCamera(camera)) {
-          batch.render(renderable);
-
-          visibleSectors.add(sector);
-          visibleSectorCount++;
-        }
+    // pages the budget did not reach yet are skipped, uploaded pages sync the sectors edited since on render
+    for (TerrainPage page : visiblePages) {
+      if (!page.isUploaded()) {
+        continue;
       }
+      page.setLodLevel(levelOfDetail ? TerrainPageLod.getLevel(page.getDistance(camera.position)) : 0);
+      page.renderTerrain(batch, terrainShader, terrainShader.getMaterial());
     }
   }
   
-  public void renderLiquidGeometry(ModelBatch batch, Water water) {
+  private void cullSectors(Camera camera) {
+    if (!cullingDirty && culledDrawDistance == fog.getDrawDistance() && Arrays.equals(culledCameraMatrix, camera.combined.val)) {
+      return;
+    }
+    
+    visibleSectors.clear();
+    sectorTree.cull(camera.frustum, camera.position, fog.getDrawDistance(), visibleSectors);
+    visibleSectorCount = visibleSectors.size();
+    
+    for (TerrainPage page : visiblePages) {
+      page.clearVisible();
+    }
+    visiblePages.clear();
     for (Sector sector : visibleSectors) {
-      WaterRenderable wr = sector.getWaterRenderable(water);
-      if (wr != null) {
-        batch.render(wr);
+      if (sector.getPage().setVisible(sector.getPageSlot())) {
+        visiblePages.add(sector.getPage());
       }
     }
+    System.arraycopy(camera.combined.val, 0, culledCameraMatrix, 0, culledCameraMatrix.length);
+    cullingDirty       = false;
+    culledDrawDistance = fog.getDrawDistance();
   }
   
-  public void renderFoliageGeometry(ModelBatch modelBatch, Foliage foliage) {
-    for (Sector sector : visibleSectors) {
-      FoliageRenderable renderable = sector.getFoliageRenderable(foliage);
-      if (renderable != null) {
-        modelBatch.render(renderable);
+  public void renderLiquidGeometry(ModelBatch batch, Water water) {
+    for (TerrainPage page : visiblePages) {
+      if (page.isUploaded()) {
+        page.renderWater(batch, water.getShader(), water.getMaterial());
       }
     }
   }
+  
+  public void renderFoliageGeometry(Camera camera, ModelBatch modelBatch, Foliage foliage) {
+    for (TerrainPage page : visiblePages) {
+      if (!page.isUploaded()) {
+        continue;
+      }
+      int tiers = foliage.getTierCount(page.getNearestDistance(camera.position));
+      page.renderFoliage(modelBatch, foliage.getShader(), foliage.getMaterial(), tiers);
+    }
+  }
 
   public int getTotalSectorCount() {
     return totalSectorCount;
   }
 
+  public int getPageCount() {
+    return pages.length;
+  }
+  
+  public int getDrawCallCount() {
+    int count = 0;
+    for (TerrainPage page : visiblePages) {
+      count += page.getDrawCalls();
+    }
+    return count;
+  }
+
   public int getVisibleSectorCount() {
     return this.visibleSectorCount;
   }
 
+  // Walks the tiles under the ray (2D DDA over x/z) and tests only the two triangles of every crossed tile
   public Vector3 getPositionForRay(Ray ray, Vector3 mouseTilePosition) {
-    Vector3 intersectedVector = null;
-    for (Sector sector : visibleSectors) {
-      intersectedVector = sector.getPositionForRay(ray, mouseTilePosition);
+    Vector3 origin  = ray.origin;
+    Vector3 dir     = ray.direction;
+    float enter     = 0;
+    float exit      = Float.MAX_VALUE;
+    
+    // clip the ray to the map rectangle
+    if (dir.x != 0) {
+      float t0 = -origin.x / dir.x;
+      float t1 = (columns - origin.x) / dir.x;
+      enter    = Math.max(enter, Math.min(t0, t1));
+      exit     = Math.min(exit, Math.max(t0, t1));
+    } else if (origin.x < 0 || origin.x > columns) {
+      return null;
+    }
+    if (dir.z != 0) {
+      float t0 = -origin.z / dir.z;
+      float t1 = (rows - origin.z) / dir.z;
+      enter    = Math.max(enter, Math.min(t0, t1));
+      exit     = Math.min(exit, Math.max(t0, t1));
+    } else if (origin.z < 0 || origin.z > rows) {
+      return null;
+    }
+    if (enter > exit) {
+      return null;
+    }
+    
+    int x         = MathUtils.clamp((int)Math.floor(origin.x + dir.x * enter), 0, columns - 1);
+    int z         = MathUtils.clamp((int)Math.floor(origin.z + dir.z * enter), 0, rows - 1);
+    // a straight down ray never leaves the tile under its origin
+    if (dir.x == 0 && dir.z == 0) {
+      return intersectTile(ray, x, z, enter, exit, mouseTilePosition) ? mouseTilePosition : null;
+    }
+    
+    int stepX     = dir.x > 0 ? 1 : -1;
+    int stepZ     = dir.z > 0 ? 1 : -1;
+    float deltaX  = dir.x != 0 ? Math.abs(1 / dir.x) : Float.MAX_VALUE;
+    float deltaZ  = dir.z != 0 ? Math.abs(1 / dir.z) : Float.MAX_VALUE;
+    float nextX   = dir.x != 0 ? ((dir.x > 0 ? x + 1 : x) - origin.x) / dir.x : Float.MAX_VALUE;
+    float nextZ   = dir.z != 0 ? ((dir.z > 0 ? z + 1 : z) - origin.z) / dir.z : Float.MAX_VALUE;
+    float cellEnter = enter;
+    
+    while (x >= 0 && x < columns && z >= 0 && z < rows && cellEnter <= exit) {
+      float cellExit = Math.min(Math.min(nextX, nextZ), exit);
+      if (intersectTile(ray, x, z, cellEnter, cellExit, mouseTilePosition)) {
+        return mouseTilePosition;
+      }
       
-      if (intersectedVector != null) {
-        break;
+      cellEnter = cellExit;
+      if (nextX < nextZ) {
+        x     += stepX;
+        nextX += deltaX;
+      } else {
+        z     += stepZ;
+        nextZ += deltaZ;
       }
     }
-    return intersectedVector;
+    return null;
+  }
+  
+  private boolean intersectTile(Ray ray, int x, int z, float enter, float exit, Vector3 out) {
+    Tile tile = getTile(x, z, pickCursor);
+    if (tile == null) {
+      return false;
+    }
+    
+    float[] heights = pickHeights;
+    heights[0]      = tile.getY1();
+    heights[1]      = tile.getY2();
+    heights[2]      = tile.getY3();
+    heights[3]      = tile.getY4();
+    
+    // skip tiles where the ray passes fully above or below the corners
+    float min       = Math.min(Math.min(heights[0], heights[1]), Math.min(heights[2], heights[3]));
+    float max       = Math.max(Math.max(heights[0], heights[1]), Math.max(heights[2], heights[3]));
+    float yEnter    = ray.origin.y + ray.direction.y * enter;
+    float yExit     = ray.origin.y + ray.direction.y * exit;
+    if (Math.min(yEnter, yExit) > max || Math.max(yEnter, yExit) < min) {
+      return false;
+    }
+    
+    byte[] corners  = Sector.getTileCorners(tile);
+    for (int i = 0; i < 4; i++) {
+      int corner = corners[i];
+      pickCorners[i].set(x + (corner >> 1), heights[corner], z + (corner & 1));
+    }
+    
+    // same split as the quad index pattern (0,1,2),(2,1,3)
+    boolean hit     = false;
+    float closest   = Float.MAX_VALUE;
+    if (Intersector.intersectRayTriangle(ray, pickCorners[0], pickCorners[1], pickCorners[2], intersection)) {
+      closest = ray.origin.dst2(intersection);
+      out.set(intersection);
+      hit     = true;
+    }
+    if (Intersector.intersectRayTriangle(ray, pickCorners[2], pickCorners[1], pickCorners[3], intersection) && ray.origin.dst2(intersection) < closest) {
+      out.set(intersection);
+      hit     = true;
+    }
+    return hit;
   }
   
   public void buildTerrainUsingImageHeightMap(String pathToHeightMap) {
@@ -202,10 +496,12 @@ public class Terrain implements Disposable {
     Pixmap heightmapImage = new Pixmap(file);
     Color color           = new Color();
     
+    Tile cursor           = new Tile(store, 0, 0);
+    
     for (int z = 0; z < rows; z++) {
       for (int x = 0; x < columns; x++) {
         Color.rgba8888ToColor(color, heightmapImage.getPixel(x, z));
-        setTile(x, z, new Tile(x, color.r*30, z));
+        createTile(x, z, cursor).setY(color.r*30);
       }
     }
   }
@@ -230,24 +526,101 @@ public class Terrain implements Disposable {
   }
   
   public Sector getSectorForTile(Tile tile) {
-    int x = (int) Math.floor(tile.getX() / Sector.COLUMN_COUNT);
-    int z = (int) Math.floor(tile.getZ() / Sector.ROW_COUNT);
+    int x = (int) tile.getX() / sectorSize;
+    int z = (int) tile.getZ() / sectorSize;
     return sectors[x][z];
   }
   
   public void addSectorToRebuildFromTile(Tile tile) {
-    Sector sector = getSectorForTile(tile);
-    if (sector != null && this.rebuildSectorsArray.indexOf(sector) == -1) {
-      this.rebuildSectorsArray.add(sector);
+    addSectorToRebuildFromTile(tile, Sector.LAYER_ALL);
+  }
+  
+  public void addSectorToRebuildFromTile(Tile tile, int layers) {
+    checkEditable();
+    int tileX = (int)tile.getX();
+    int tileZ = (int)tile.getZ();
+    markTileUnsaved(tileX, tileZ);
+    if (layers == 0) {
+      return;
+    }
+    markSectorDirty(tileX / sectorSize, tileZ / sectorSize, layers);
+    
+    // baked light of corners near the tile changes with its heights, even in neighbouring sectors
+    if ((layers & Sector.LAYER_TERRAIN) != 0) {
+      int reach = TerrainLighting.RADIUS + 1;
+      for (int x = Math.max(0, tileX - reach) / sectorSize; x <= Math.min(columns - 1, tileX + reach) / sectorSize; x++) {
+        for (int z = Math.max(0, tileZ - reach) / sectorSize; z <= Math.min(rows - 1, tileZ + reach) / sectorSize; z++) {
+          markSectorDirty(x, z, Sector.LAYER_TERRAIN);
+        }
+      }
     }
   }
   
+  private void markSectorDirty(int x, int z, int layers) {
+    int id = x * veriticalSectorCount + z;
+    dirtySectors.set(id);
+    dirtySectorLayers[id] |= layers;
+  }
+  
+  // Sector ids follow sectorSize and rows, so tiles can be marked before the sectors are built
+  public void markTileUnsaved(int x, int z) {
+    unsavedSectors.set((x / sectorSize) * ((rows + sectorSize - 1) / sectorSize) + z / sectorSize);
+  }
+  
+  public BitSet getUnsavedSectors() {
+    return unsavedSectors;
+  }
+  
+  public void markSaved() {
+    unsavedSectors.clear();
+  }
+  
   public void rebuildUsedSectors() {
-    Gdx.app.log(TAG, "Sectors to rebuild: " + rebuildSectorsArray.size());
-    for (Sector sector : rebuildSectorsArray) {
-      sector.build();
+    Gdx.app.log(TAG, "Sectors to rebuild: " + dirtySectors.cardinality());
+    for (int id = dirtySectors.nextSetBit(0); id >= 0; id = dirtySectors.nextSetBit(id + 1)) {
+      final Sector sector = sectors[id / veriticalSectorCount][id % veriticalSectorCount];
+      int layers          = dirtySectorLayers[id];
+      dirtySectorLayers[id] = 0;
+      if (sector.requestRebuild(layers)) {
+        sectorBuilder.getExecutor().submit(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              sector.rebuildBackGeometry();
+              rebuiltSectors.add(sector);
+            } catch (Exception e) {
+              Gdx.app.error(TAG, "Could not rebuild sector", e);
+              sector.cancelRebuild();
+              failedSectors.add(sector);
+            }
+          }
+        });
+      }
+    }
+    dirtySectors.clear();
+  }
+  
+  public void swapRebuiltSectors() {
+    Sector sector = null;
+    while ((sector = rebuiltSectors.poll()) != null) {
+      if ((sector.swapGeometry() & Sector.LAYER_TERRAIN) != 0) {
+        sectorTree.refit(sector.getStartX() / sectorSize, sector.getStartZ() / sectorSize);
+        cullingDirty = true;
+      }
     }
-    rebuildSectorsArray.clear();
+    retryFailedSectors();
+  }
+  
+  // Failed sectors kept their layers pending, they are submitted again on the next frame instead of losing the edit
+  private void retryFailedSectors() {
+    if (failedSectors.isEmpty() || frozen) {
+      return;
+    }
+    Sector sector = null;
+    while ((sector = failedSectors.poll()) != null) {
+      markSectorDirty(sector.getStartX() / sectorSize, sector.getStartZ() / sectorSize, 0);
+    }
+    rebuildUsedSectors();
   }
   
   public boolean isDebuging() {
@@ -268,10 +641,109 @@ public class Terrain implements Disposable {
   }
 
   public void setDebugListener(TerrainDebugListener debugListener) {
+    checkEditable();
     this.debugListener   = debugListener;
     this.debug           = true;
+    setCompactVertices(compactVertices);
     clearSectorRenderData();
   }
+  
+  public TerrainLighting getLighting() {
+    return lighting;
+  }
+  
+  // The sun is baked into the terrain vertex colors, it is checked every frame and sectors are rebaked when it
+  // changes. Ambient light is a shader uniform.
+  public void setLights(Lights lights, DirectionalLight sunLight) {
+    this.sunLight = sunLight;
+    lighting.setSun(sunLight);
+    terrainShader.setLights(lights);
+  }
+  
+  private void updateSunLight() {
+    if (sunLight == null || frozen || sectors == null || !lighting.setSun(sunLight)) {
+      return;
+    }
+    for (int id = 0; id < totalSectorCount; id++) {
+      dirtySectors.set(id);
+      dirtySectorLayers[id] |= Sector.LAYER_TERRAIN;
+    }
+    // the rebuilt sectors invalidate the levels of detail of their pages when they are swapped in
+    rebuildUsedSectors();
+  }
+  
+  // Draw distance and the fog hiding it, shared by the terrain, water, foliage and sky shaders
+  public Fog getFog() {
+    return fog;
+  }
+  
+  public boolean isLevelOfDetail() {
+    return levelOfDetail;
+  }
+  
+  // Far pages are drawn with coarser geometry and a baked texture, see TerrainPageLod
+  public void setLevelOfDetail(boolean levelOfDetail) {
+    this.levelOfDetail = levelOfDetail;
+  }
+  
+  // Must be called after the GL context was lost
+  public void invalidateLevelsOfDetail() {
+    if (pages != null) {
+      for (TerrainPage page : pages) {
+        page.invalidateLod();
+      }
+    }
+  }
+  
+  public boolean isCompactVertices() {
+    return compactVertices;
+  }
+  
+  // Compact vertices cut page memory on devices, the editor keeps full floats for its debug attributes
+  public void setCompactVertices(boolean compact) {
+    this.compactVertices = compact;
+    if (pages != null) {
+      for (TerrainPage page : pages) {
+        page.setCompact(useCompactVertices());
+      }
+    }
+  }
+  
+  private boolean useCompactVertices() {
+    return compactVertices && !debug;
+  }
+
+  // Read only runtime for the player: pages go into static buffers and drop their CPU geometry once uploaded, the
+  // editor only tile data is dropped right away. Must be called on the GL thread after buildSectors, editing is no
+  // longer possible.
+  public void freeze() {
+    if (frozen) {
+      return;
+    }
+    if (debug) {
+      throw new GdxRuntimeException("Cannot freeze terrain in debug mode!");
+    }
+    
+    swapRebuiltSectors();
+    store.freeze();
+    dirtySectorLayers = null;
+    frozen            = true;
+    for (TerrainPage page : pages) {
+      if (page.isResident()) {
+        uploadPage(page);
+      }
+    }
+  }
+  
+  public boolean isFrozen() {
+    return frozen;
+  }
+  
+  private void checkEditable() {
+    if (frozen) {
+      throw new GdxRuntimeException("Terrain is frozen and cannot be edited!");
+    }
+  }
 
   public interface TerrainDebugListener {
     public void onDebugTerrainConfigureShader(ShaderProgram shader);
@@ -281,8 +753,19 @@ public class Terrain implements Disposable {
     return this.tileset;
   }
   
-  public Tile[][] getTiles() {
-    return tiles;
+  public TerrainStore getStore() {
+    return store;
+  }
+
+  public int getSectorSize() {
+    return sectorSize;
+  }
+  
+  public void setSectorSize(int size) {
+    if (size < 1 || size > MAX_SECTOR_SIZE) {
+      throw new GdxRuntimeException("Sector size must be between 1 and " + MAX_SECTOR_SIZE + " but was " + size);
+    }
+    this.sectorSize = size;
   }
 
   public int getColumns() {
@@ -301,6 +784,13 @@ public class Terrain implements Disposable {
         sector.dispose();
       }
     }
+    
+    if (pages != null) {
+      for (TerrainPage page : pages) {
+        page.dispose();
+      }
+    }
+    meshPool.dispose();
   }
 
   public Tile getTileByTilePosition(Tile t) {
@@ -350,18 +840,7 @@ public class Terrain implements Disposable {
       return false;
     }
     
-    Tile[][] tempTiles = new Tile[width][height];
-    
-    for (int x = 0; x < width; x++) {
-      try {
-        tempTiles[x] = Arrays.copyOf(tiles[x], height);
-      } catch (ArrayIndexOutOfBoundsException e) {
-        tempTiles[x] = new Tile[height];
-      }
-      
-    }
-    
-    this.tiles = tempTiles;
+    this.store = store.resize(width, height);
     
     rows    = height;
     columns = width;
@@ -375,6 +854,14 @@ public class Terrain implements Disposable {
     return visibleSectors;
   }
 
+  public SectorBuilder getSectorBuilder() {
+    return sectorBuilder;
+  }
+
+  public void setSectorBuilder(SectorBuilder sectorBuilder) {
+    this.sectorBuilder = sectorBuilder;
+  }
+
   public FoliageSet getFoliageSet() {
     return foliageSet;
   }
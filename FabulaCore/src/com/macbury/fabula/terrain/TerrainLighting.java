@@ -0,0 +1,111 @@
+package com.macbury.fabula.terrain;
+
+import com.badlogic.gdx.graphics.Color;
+import com.badlogic.gdx.graphics.g3d.lights.DirectionalLight;
+import com.badlogic.gdx.math.Vector3;
+import com.macbury.fabula.terrain.tile.Tile;
+
+// Bakes sun light and ambient occlusion of tile corners from the heightfield into a packed vertex color. rgb is the
+// sun color scaled by N.L and alpha the occlusion, terrain.vert adds the ambient light and applies the occlusion.
+// Corners look RADIUS tiles around them, so an edit changes the light of neighbouring sectors too.
+public class TerrainLighting {
+  public static final int RADIUS                = 2;
+  private static final float OCCLUSION_STRENGTH = 0.6f;
+  private static final int[] DIRECTIONS_X       = { -1, 0, 1, -1, 1, -1, 0, 1 };
+  private static final int[] DIRECTIONS_Z       = { -1, -1, -1, 0, 0, 1, 1, 1 };
+
+  // sector builder threads read the sun while the GL thread may replace it, so it is swapped as a whole
+  private volatile float[] sun = { 0, 1, 0, 1, 1, 1 };
+
+  // Returns true when the baked light is out of date
+  public boolean setSun(DirectionalLight light) {
+    Vector3 direction = light.direction;
+    float length      = direction.len();
+    if (length == 0) {
+      return false;
+    }
+    float[] next = { -direction.x / length, -direction.y / length, -direction.z / length, light.color.r, light.color.g, light.color.b };
+    float[] last = sun;
+    for (int i = 0; i < next.length; i++) {
+      if (next[i] != last[i]) {
+        sun = next;
+        return true;
+      }
+    }
+    return false;
+  }
+
+  public static int getHeightsSize(int columns, int rows) {
+    return (columns + 1 + RADIUS * 2) * (rows + 1 + RADIUS * 2);
+  }
+
+  // Fills light with the packed color of every corner from (startX, startZ) to (startX + columns, startZ + rows),
+  // row by row. heights is scratch space of getHeightsSize(columns, rows).
+  public void bake(Terrain terrain, int startX, int startZ, int columns, int rows, float[] heights, float[] light, Tile cursor) {
+    float[] sun = this.sun;
+    int stride  = columns + 1 + RADIUS * 2;
+    int depth   = rows + 1 + RADIUS * 2;
+    for (int j = 0; j < depth; j++) {
+      for (int i = 0; i < stride; i++) {
+        heights[j * stride + i] = getCornerHeight(terrain, startX + i - RADIUS, startZ + j - RADIUS, cursor);
+      }
+    }
+
+    for (int z = 0; z <= rows; z++) {
+      for (int x = 0; x <= columns; x++) {
+        int center = (z + RADIUS) * stride + x + RADIUS;
+        float h    = heights[center];
+
+        float nx   = heights[center - 1] - heights[center + 1];
+        float nz   = heights[center - stride] - heights[center + stride];
+        float ny   = 2.0f;
+        float dot  = (nx * sun[0] + ny * sun[1] + nz * sun[2]) / (float)Math.sqrt(nx * nx + ny * ny + nz * nz);
+        dot        = Math.max(0, dot);
+
+        // sine of the highest horizon angle in eight directions
+        float occlusion = 0;
+        for (int d = 0; d < DIRECTIONS_X.length; d++) {
+          float length  = DIRECTIONS_X[d] != 0 && DIRECTIONS_Z[d] != 0 ? 1.4142135f : 1.0f;
+          float slope   = 0;
+          for (int r = 1; r <= RADIUS; r++) {
+            float rise  = heights[center + (DIRECTIONS_Z[d] * stride + DIRECTIONS_X[d]) * r] - h;
+            slope       = Math.max(slope, rise / (length * r));
+          }
+          occlusion    += slope / (float)Math.sqrt(1 + slope * slope);
+        }
+        float ao = 1.0f - OCCLUSION_STRENGTH * occlusion / DIRECTIONS_X.length;
+
+        light[z * (columns + 1) + x] = Color.toFloatBits(sun[3] * dot, sun[4] * dot, sun[5] * dot, ao);
+      }
+    }
+  }
+
+  // Average of the tiles touching the corner, corners outside of the map take the closest one
+  private static float getCornerHeight(Terrain terrain, int x, int z, Tile cursor) {
+    x           = Math.max(0, Math.min(x, terrain.getColumns()));
+    z           = Math.max(0, Math.min(z, terrain.getRows()));
+    float sum   = 0;
+    int count   = 0;
+    Tile tile   = terrain.getTile(x, z, cursor);
+    if (tile != null) {
+      sum += tile.getY1();
+      count++;
+    }
+    tile = terrain.getTile(x, z - 1, cursor);
+    if (tile != null) {
+      sum += tile.getY2();
+      count++;
+    }
+    tile = terrain.getTile(x - 1, z, cursor);
+    if (tile != null) {
+      sum += tile.getY3();
+      count++;
+    }
+    tile = terrain.getTile(x - 1, z - 1, cursor);
+    if (tile != null) {
+      sum += tile.getY4();
+      count++;
+    }
+    return count > 0 ? sum / count : 0;
+  }
+}
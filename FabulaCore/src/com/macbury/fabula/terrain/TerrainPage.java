@@ -0,0 +1,544 @@
+package com.macbury.fabula.terrain;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.graphics.GL20;
+import com.badlogic.gdx.graphics.Mesh;
+import com.badlogic.gdx.graphics.VertexAttribute;
+import com.badlogic.gdx.graphics.g3d.ModelBatch;
+import com.badlogic.gdx.graphics.g3d.Renderable;
+import com.badlogic.gdx.graphics.g3d.Shader;
+import com.badlogic.gdx.graphics.g3d.materials.Material;
+import com.badlogic.gdx.graphics.glutils.ShaderProgram;
+import com.badlogic.gdx.math.Matrix4;
+import com.badlogic.gdx.math.Vector3;
+import com.badlogic.gdx.utils.Disposable;
+import com.badlogic.gdx.utils.GdxRuntimeException;
+import com.macbury.fabula.terrain.foliage.Foliage;
+import com.macbury.fabula.terrain.foliage.FoliageRenderable;
+import com.macbury.fabula.terrain.geometry.MeshPool;
+import com.macbury.fabula.terrain.geometry.PageMesh;
+import com.macbury.fabula.terrain.geometry.QuadIndexBuffer;
+import com.macbury.fabula.terrain.geometry.TriangleGrid;
+import com.macbury.fabula.terrain.water.WaterRenderable;
+
+// Packs the geometry of a block of neighbouring sectors into one mesh per layer. Every sector owns a slot in the
+// page buffers, runs of visible sectors are drawn with one call using contiguous ranges of the QuadIndexBuffer.
+public class TerrainPage implements Disposable {
+  public static final int MAX_SECTORS = 4;
+  // foliage emits 8 vertices per tile, a page side of 90 tiles still fits in 16 bit indices
+  public static final int MAX_TILES   = 90;
+  private static final String TAG             = "TerrainPage";
+  private static final String UNIFORM_COMPACT = "u_compact";
+  private static final String UNIFORM_ORIGIN  = "u_origin";
+  private static final String UNIFORM_POSITION_DECODE = "u_position_decode";
+  private static final String UNIFORM_UV_SCALE        = "u_uv_scale";
+
+  private Sector[] sectors;
+  private MeshPool meshPool;
+  private boolean[] visible;
+  private boolean anyVisible;
+  private boolean compact;
+  private boolean frozen;
+  private boolean uploaded;
+  private float originX;
+  private float originZ;
+  private float centerX;
+  private float centerZ;
+  private float endX;
+  private float endZ;
+  private PageLayer terrain;
+  private PageLayer water;
+  private PageLayer foliage;
+  private TerrainPageLod lod;
+  private int lodLevel;
+
+  public static int getSectorsPerPage(int sectorSize) {
+    return Math.max(1, Math.min(MAX_SECTORS, MAX_TILES / sectorSize));
+  }
+
+  public TerrainPage(Terrain owner, Sector[] sectors, MeshPool meshPool) {
+    Sector last   = sectors[sectors.length - 1];
+    this.sectors  = sectors;
+    this.meshPool = meshPool;
+    this.visible  = new boolean[sectors.length];
+    this.originX  = sectors[0].getStartX();
+    this.originZ  = sectors[0].getStartZ();
+    this.centerX  = (originX + last.getEndX()) * 0.5f;
+    this.centerZ  = (originZ + last.getEndZ()) * 0.5f;
+    this.endX     = last.getEndX();
+    this.endZ     = last.getEndZ();
+    this.terrain  = new PageLayer(Sector.LAYER_TERRAIN);
+    this.water    = new PageLayer(Sector.LAYER_WATER);
+    this.foliage  = new PageLayer(Sector.LAYER_FOLIAGE);
+    this.lod      = new TerrainPageLod(owner, sectors[0].getStartX(), sectors[0].getStartZ(), last.getEndX(), last.getEndZ());
+
+    for (int slot = 0; slot < sectors.length; slot++) {
+      sectors[slot].setPage(this, slot);
+    }
+  }
+
+  // Sector geometry of the given layers was replaced, must be called on the GL thread
+  public void invalidate(int slot, int layers) {
+    if (frozen) {
+      throw new GdxRuntimeException("Frozen terrain page cannot be changed!");
+    }
+    if ((layers & Sector.LAYER_TERRAIN) != 0) {
+      terrain.invalidate(slot);
+      lod.invalidate();
+    }
+    if ((layers & Sector.LAYER_WATER) != 0) {
+      water.invalidate(slot);
+    }
+    if ((layers & Sector.LAYER_FOLIAGE) != 0) {
+      foliage.invalidate(slot);
+    }
+  }
+
+  public void invalidateAll() {
+    lod.invalidate();
+    if (frozen) {
+      return;
+    }
+    terrain.repack = true;
+    water.repack   = true;
+    foliage.repack = true;
+  }
+
+  public void setCompact(boolean compact) {
+    if (frozen) {
+      return;
+    }
+    if (this.compact != compact) {
+      this.compact = compact;
+      invalidateAll();
+    }
+  }
+
+  public Sector[] getSectors() {
+    return sectors;
+  }
+
+  public boolean isVisible() {
+    return anyVisible;
+  }
+
+  public boolean isCompact() {
+    return compact;
+  }
+
+  // True when every layer buffer matches the sector geometry, so rendering will not upload anything
+  public boolean isResident() {
+    return terrain.isSynced() && water.isSynced() && foliage.isSynced();
+  }
+
+  // Set once the page went through Terrain.uploadPages, only then rendering may sync its buffers
+  public boolean isUploaded() {
+    return uploaded;
+  }
+
+  // Must be called on the GL thread
+  public void upload() {
+    terrain.sync();
+    water.sync();
+    foliage.sync();
+    uploaded = true;
+  }
+
+  public float getDistance2(float x, float z) {
+    float dx = centerX - x;
+    float dz = centerZ - z;
+    return dx * dx + dz * dz;
+  }
+
+  public float getDistance(Vector3 position) {
+    return (float)Math.sqrt(getDistance2(position.x, position.z) + position.y * position.y);
+  }
+
+  // distance to the closest point of the page area, ignoring terrain height
+  public float getNearestDistance(Vector3 position) {
+    float dx = Math.max(0, Math.max(originX - position.x, position.x - endX));
+    float dz = Math.max(0, Math.max(originZ - position.z, position.z - endZ));
+    return (float)Math.sqrt(dx * dx + dz * dz + position.y * position.y);
+  }
+
+  // 0 draws the full resolution sector geometry, see TerrainPageLod for the others
+  public void setLodLevel(int level) {
+    this.lodLevel = level;
+  }
+
+  public int getLodLevel() {
+    return lodLevel;
+  }
+
+  // Baked textures are not managed, they must be rebuilt after the GL context was lost
+  public void invalidateLod() {
+    lod.release();
+  }
+
+  // Uploads every layer into static buffers and drops the CPU copies, must be called on the GL thread
+  public void freeze() {
+    if (frozen) {
+      return;
+    }
+    frozen   = true;
+    uploaded = true;
+    terrain.freeze();
+    water.freeze();
+    foliage.freeze();
+  }
+
+  public boolean isFrozen() {
+    return frozen;
+  }
+
+  // Compact meshes store positions relative to the page origin, which is kept in the renderable world transform
+  public static void setVertexUniforms(ShaderProgram shader, Renderable renderable) {
+    boolean compactMesh = TriangleGrid.isCompact(renderable.mesh);
+    if (shader.hasUniform(UNIFORM_COMPACT)) {
+      shader.setUniformf(UNIFORM_COMPACT, compactMesh ? 1.0f : 0.0f);
+    }
+    if (compactMesh) {
+      shader.setUniformf(UNIFORM_ORIGIN, renderable.worldTransform.val[Matrix4.M03], renderable.worldTransform.val[Matrix4.M23]);
+      shader.setUniformf(UNIFORM_POSITION_DECODE, TriangleGrid.POSITION_SCALE, TriangleGrid.POSITION_BIAS, TriangleGrid.HEIGHT_BIAS);
+      if (shader.hasUniform(UNIFORM_UV_SCALE)) {
+        shader.setUniformf(UNIFORM_UV_SCALE, TriangleGrid.UV_SCALE);
+      }
+    }
+  }
+
+  public void clearVisible() {
+    Arrays.fill(visible, false);
+    anyVisible = false;
+  }
+
+  // Returns true if this is the first visible sector of the page
+  public boolean setVisible(int slot) {
+    boolean first = !anyVisible;
+    visible[slot] = true;
+    anyVisible    = true;
+    return first;
+  }
+
+  public void renderTerrain(ModelBatch batch, Shader shader, Material material) {
+    if (lodLevel > 0 && lod.render(batch, shader, lodLevel)) {
+      terrain.drawCalls = 1;
+    } else {
+      terrain.render(batch, shader, material);
+    }
+  }
+
+  public void renderWater(ModelBatch batch, Shader shader, Material material) {
+    water.render(batch, shader, material);
+  }
+
+  // foliage is too small to see on far pages, the others draw only the density tiers that did not fade out
+  public void renderFoliage(ModelBatch batch, Shader shader, Material material, int tiers) {
+    if (lodLevel > 0 || tiers <= 0) {
+      foliage.drawCalls = 0;
+    } else if (tiers >= Foliage.TIERS) {
+      foliage.render(batch, shader, material);
+    } else {
+      foliage.renderTiers(batch, shader, material, tiers);
+    }
+  }
+
+  public int getDrawCalls() {
+    return terrain.drawCalls + water.drawCalls + foliage.drawCalls;
+  }
+
+  @Override
+  public void dispose() {
+    lod.dispose();
+    terrain.dispose();
+    water.dispose();
+    foliage.dispose();
+  }
+
+  private class PageLayer implements Disposable {
+    private int layer;
+    private Mesh mesh;
+    private float[] vertices;
+    private int vertexSize;
+    private int vertexCount;
+    private int[] vertexStart;
+    private int[] vertexCapacity;
+    private int[] slotVertexCount;
+    private int[] slotTierEnds;
+    private boolean[] dirtySlots;
+    private boolean[] packableSlots;
+    private boolean packed;
+    private boolean dirty  = true;
+    private boolean repack = true;
+    private boolean meshCompact;
+    private boolean meshStatic;
+    private ArrayList<Renderable> renderables = new ArrayList<Renderable>();
+    private int drawCalls;
+
+    public PageLayer(int layer) {
+      this.layer          = layer;
+      this.vertexStart     = new int[sectors.length];
+      this.vertexCapacity  = new int[sectors.length];
+      this.slotVertexCount = new int[sectors.length];
+      this.dirtySlots      = new boolean[sectors.length];
+      this.packableSlots   = new boolean[sectors.length];
+      this.slotTierEnds    = new int[sectors.length * Foliage.TIERS];
+    }
+
+    private TriangleGrid getGrid(int slot) {
+      SectorGeometry geometry = sectors[slot].getGeometry();
+      switch (layer) {
+        case Sector.LAYER_TERRAIN:
+          return geometry.terrain;
+        case Sector.LAYER_WATER:
+          return geometry.water;
+        default:
+          return geometry.foliage;
+      }
+    }
+
+    public void invalidate(int slot) {
+      dirtySlots[slot] = true;
+      dirty            = true;
+    }
+
+    public boolean isSynced() {
+      return !dirty && !repack;
+    }
+
+    private void sync() {
+      if (!dirty && !repack) {
+        return;
+      }
+
+      // positions out of the compact range keep the whole layer in the float layout
+      boolean packable = compact;
+      for (int slot = 0; slot < sectors.length; slot++) {
+        if (compact && (repack || dirtySlots[slot])) {
+          packableSlots[slot] = getGrid(slot).isPackable(originX, originZ);
+        }
+        packable &= packableSlots[slot];
+      }
+      if (compact && !packable && (repack || packed)) {
+        Gdx.app.log(TAG, "Terrain page at " + originX + "x" + originZ + " is out of the compact vertex range, using full vertices");
+      }
+      if (packable != packed) {
+        packed = packable;
+        repack = true;
+      }
+      if (getPackedVertexSize() != vertexSize || meshCompact != packed) {
+        repack = true;
+      }
+
+      if (!repack) {
+        for (int slot = 0; slot < sectors.length; slot++) {
+          if (dirtySlots[slot]) {
+            TriangleGrid grid = getGrid(slot);
+            if (grid.getVertexCount() > vertexCapacity[slot]) {
+              repack = true;
+              break;
+            }
+          }
+        }
+      }
+
+      if (repack) {
+        pack();
+        if (mesh != null) {
+          mesh.setVertices(vertices, 0, vertexCount * vertexSize);
+        }
+      } else {
+        // edits only touch the slots of rebuilt sectors, so only their ranges go to the GPU
+        boolean uploadAll = false;
+        for (int slot = 0; slot < sectors.length; slot++) {
+          if (dirtySlots[slot]) {
+            writeSlot(slot);
+            if (mesh instanceof PageMesh) {
+              ((PageMesh)mesh).updateVertices(vertices, vertexStart[slot] * vertexSize, vertexCapacity[slot] * vertexSize);
+            } else {
+              uploadAll = mesh != null;
+            }
+          }
+        }
+        if (uploadAll) {
+          mesh.setVertices(vertices, 0, vertexCount * vertexSize);
+        }
+      }
+
+      Arrays.fill(dirtySlots, false);
+      dirty  = false;
+      repack = false;
+    }
+
+    private int getPackedVertexSize() {
+      return packed ? getGrid(0).getCompactVertexSize() : getGrid(0).getVertexSize();
+    }
+
+    private void pack() {
+      vertexSize = getPackedVertexSize();
+      layout(true);
+      if (vertexCount > TriangleGrid.MAX_VERTICES) {
+        layout(false);
+      }
+
+      if (vertices == null || vertices.length < vertexCount * vertexSize) {
+        vertices = new float[vertexCount * vertexSize];
+      }
+
+      for (int slot = 0; slot < sectors.length; slot++) {
+        writeSlot(slot);
+      }
+
+      if (mesh != null && (mesh.getVertexSize() / 4 != vertexSize || mesh.getMaxVertices() < vertexCount || meshCompact != packed || meshStatic != frozen)) {
+        releaseMesh();
+      }
+
+      if (mesh == null && vertexCount > 0) {
+        // frozen pages never change, so they get exactly sized static buffers instead of pooled ones
+        VertexAttribute[] attributes = getGrid(0).getVertexAttributes(packed);
+        mesh        = frozen ? new PageMesh(vertexCount, true, attributes) : meshPool.obtain(vertexCount, attributes);
+        meshCompact = packed;
+        meshStatic  = frozen;
+      }
+    }
+
+    private void releaseMesh() {
+      if (meshStatic) {
+        mesh.dispose();
+      } else {
+        meshPool.free(mesh);
+      }
+      mesh = null;
+    }
+
+    // Water and foliage slots get some spare room so small edits can be written in place
+    private void layout(boolean spare) {
+      vertexCount = 0;
+      for (int slot = 0; slot < sectors.length; slot++) {
+        TriangleGrid grid = getGrid(slot);
+        int slack         = (spare && layer != Sector.LAYER_TERRAIN) ? grid.getVertexCount() / 4 + 4 : 0;
+        // keep slots quad aligned so empty space is filled with degenerate quads
+        vertexCapacity[slot] = (grid.getVertexCount() + slack + 3) & ~3;
+        vertexStart[slot]    = vertexCount;
+        vertexCount         += vertexCapacity[slot];
+      }
+    }
+
+    private void writeSlot(int slot) {
+      TriangleGrid grid     = getGrid(slot);
+      int start             = vertexStart[slot];
+      int count             = grid.getVertexCount();
+      if (packed) {
+        grid.packVertices(vertices, start * vertexSize, originX, originZ);
+      } else {
+        System.arraycopy(grid.getVerties(), 0, vertices, start * vertexSize, count * vertexSize);
+      }
+      // zeroed vertices make degenerate quads, so runs can be drawn across the spare room
+      Arrays.fill(vertices, (start + count) * vertexSize, (start + vertexCapacity[slot]) * vertexSize, 0.0f);
+      slotVertexCount[slot] = count;
+      if (layer == Sector.LAYER_FOLIAGE) {
+        System.arraycopy(sectors[slot].getGeometry().foliageTierEnds, 0, slotTierEnds, slot * Foliage.TIERS, Foliage.TIERS);
+      }
+    }
+
+    public void render(ModelBatch batch, Shader shader, Material material) {
+      drawCalls = 0;
+      if (!anyVisible) {
+        return;
+      }
+      sync();
+      if (mesh == null) {
+        return;
+      }
+
+      int slot = 0;
+      while (slot < sectors.length) {
+        if (!visible[slot] || slotVertexCount[slot] == 0) {
+          slot++;
+          continue;
+        }
+
+        // neighbouring visible slots are merged, empty space between them holds only degenerate triangles
+        int start = vertexStart[slot];
+        int end   = start + slotVertexCount[slot];
+        for (slot++; slot < sectors.length && visible[slot]; slot++) {
+          if (slotVertexCount[slot] > 0) {
+            end = vertexStart[slot] + slotVertexCount[slot];
+          }
+        }
+
+        draw(batch, shader, material, start, end);
+      }
+    }
+
+    // the first tiers of a foliage slot are a prefix of it, so every visible slot needs its own call
+    public void renderTiers(ModelBatch batch, Shader shader, Material material, int tiers) {
+      drawCalls = 0;
+      if (!anyVisible) {
+        return;
+      }
+      sync();
+      if (mesh == null) {
+        return;
+      }
+
+      for (int slot = 0; slot < sectors.length; slot++) {
+        int count = visible[slot] ? slotTierEnds[slot * Foliage.TIERS + tiers - 1] : 0;
+        if (count > 0) {
+          draw(batch, shader, material, vertexStart[slot], vertexStart[slot] + count);
+        }
+      }
+    }
+
+    private void draw(ModelBatch batch, Shader shader, Material material, int start, int end) {
+      Renderable renderable     = obtainRenderable(drawCalls++);
+      renderable.mesh           = mesh;
+      renderable.meshPartOffset = QuadIndexBuffer.getIndexCount(start);
+      renderable.meshPartSize   = QuadIndexBuffer.getIndexCount(end - start);
+      renderable.primitiveType  = GL20.GL_TRIANGLES;
+      renderable.shader         = shader;
+      renderable.material       = material;
+      batch.render(renderable);
+    }
+
+    // the mesh keeps its own buffer to restore the VBO after context loss, so the float copy can go
+    private void freeze() {
+      repack = true;
+      sync();
+      vertices = null;
+    }
+
+    private Renderable obtainRenderable(int index) {
+      if (index < renderables.size()) {
+        return renderables.get(index);
+      }
+
+      Renderable renderable = null;
+      switch (layer) {
+        case Sector.LAYER_TERRAIN:
+          renderable = new TerrainRenderable();
+        break;
+        case Sector.LAYER_WATER:
+          renderable = new WaterRenderable();
+        break;
+        default:
+          renderable = new FoliageRenderable();
+        break;
+      }
+      renderable.worldTransform.setToTranslation(originX, 0, originZ);
+      renderables.add(renderable);
+      return renderable;
+    }
+
+    @Override
+    public void dispose() {
+      if (mesh != null) {
+        releaseMesh();
+      }
+      vertices = null;
+      repack   = true;
+    }
+  }
+}
@@ -0,0 +1,395 @@
+package com.macbury.fabula.terrain;
+
+import java.util.Arrays;
+import java.util.concurrent.RejectedExecutionException;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.graphics.GL20;
+import com.badlogic.gdx.graphics.Mesh;
+import com.badlogic.gdx.graphics.Pixmap;
+import com.badlogic.gdx.graphics.Pixmap.Blending;
+import com.badlogic.gdx.graphics.Pixmap.Filter;
+import com.badlogic.gdx.graphics.Pixmap.Format;
+import com.badlogic.gdx.graphics.Texture;
+import com.badlogic.gdx.graphics.Texture.TextureFilter;
+import com.badlogic.gdx.graphics.Texture.TextureWrap;
+import com.badlogic.gdx.graphics.VertexAttribute;
+import com.badlogic.gdx.graphics.g2d.TextureRegion;
+import com.badlogic.gdx.graphics.g3d.ModelBatch;
+import com.badlogic.gdx.graphics.g3d.Shader;
+import com.badlogic.gdx.graphics.g3d.materials.Material;
+import com.badlogic.gdx.graphics.g3d.materials.TextureAttribute;
+import com.badlogic.gdx.math.MathUtils;
+import com.badlogic.gdx.utils.Disposable;
+import com.macbury.fabula.terrain.geometry.QuadIndexBuffer;
+import com.macbury.fabula.terrain.geometry.TriangleGrid;
+import com.macbury.fabula.terrain.geometry.TriangleGrid.AttributeType;
+import com.macbury.fabula.terrain.tile.Tile;
+
+// Lower resolution terrain of one page for far cameras. Level n samples every 2^n-th tile corner inside the page but
+// keeps every tile edge along the page border, so its edges match full resolution pages and other levels without cracks.
+// Autotiles are baked into one small texture per page instead of being looked up per tile.
+//
+// Levels and the texture are built on the SectorBuilder threads, the GL thread only uploads finished builds. Until a
+// level is uploaded the page is drawn at full resolution, after an edit the previous build is drawn until its
+// replacement is ready.
+public class TerrainPageLod implements Disposable {
+  private static final String TAG              = "TerrainPageLod";
+  public static final int LEVELS               = 3;
+  // camera distance from the page center where each level starts
+  public static final float[] LEVEL_DISTANCES  = { 0, 48f, 96f };
+  private static final int TEXELS_PER_TILE     = 2;
+  private static final int TEXTURE             = -1;
+  // Pixmap blending and filtering are global, bakes on different threads must not change them under each other
+  private static final Object BAKE_LOCK        = new Object();
+
+  private Terrain terrain;
+  private int startX;
+  private int startZ;
+  private int endX;
+  private int endZ;
+  private Mesh[] meshes         = new Mesh[LEVELS];
+  private int[] meshVersions    = new int[LEVELS];
+  private Build[] builds        = new Build[LEVELS];
+  private Texture texture;
+  private int textureVersion;
+  private Build textureBuild;
+  private Material material;
+  private TerrainRenderable renderable = new TerrainRenderable();
+  // bumped by invalidate, builds of older versions are still drawn until a newer one is uploaded
+  private int version = 1;
+
+  public static int getLevel(float distance) {
+    for (int level = LEVELS - 1; level > 0; level--) {
+      if (distance >= LEVEL_DISTANCES[level]) {
+        return level;
+      }
+    }
+    return 0;
+  }
+
+  public TerrainPageLod(Terrain terrain, int startX, int startZ, int endX, int endZ) {
+    this.terrain = terrain;
+    this.startX  = startX;
+    this.startZ  = startZ;
+    this.endX    = endX;
+    this.endZ    = endZ;
+  }
+
+  // Heights or autotiles of the page changed, must be called on the GL thread
+  public void invalidate() {
+    version++;
+  }
+
+  // Drops the meshes and the texture, the page is drawn at full resolution until they are built again. Must be called
+  // on the GL thread, also after the GL context was lost.
+  public void release() {
+    for (int level = 0; level < LEVELS; level++) {
+      if (meshes[level] != null) {
+        meshes[level].dispose();
+        meshes[level] = null;
+      }
+      meshVersions[level] = 0;
+    }
+    if (texture != null) {
+      texture.dispose();
+      texture  = null;
+      material = null;
+    }
+    textureVersion = 0;
+  }
+
+  // Returns false when the level is not uploaded yet, the caller draws the full resolution page instead
+  public boolean render(ModelBatch batch, Shader shader, int level) {
+    if (meshVersions[level] != version) {
+      builds[level] = update(builds[level], level);
+    }
+    if (textureVersion != version) {
+      textureBuild = update(textureBuild, TEXTURE);
+    }
+    if (meshes[level] == null || texture == null) {
+      return false;
+    }
+
+    renderable.mesh           = meshes[level];
+    renderable.meshPartOffset = 0;
+    renderable.meshPartSize   = QuadIndexBuffer.getIndexCount(renderable.mesh.getNumVertices());
+    renderable.primitiveType  = GL20.GL_TRIANGLES;
+    renderable.shader         = shader;
+    renderable.material       = material;
+    batch.render(renderable);
+    return true;
+  }
+
+  // Uploads a finished build and starts the next one while the uploaded data is older than the page
+  private Build update(Build build, int level) {
+    if (build != null) {
+      if (!build.isDone()) {
+        return build;
+      }
+      upload(build);
+    }
+    if ((level == TEXTURE ? textureVersion : meshVersions[level]) == version) {
+      return null;
+    }
+
+    Build next = new Build(level, version);
+    try {
+      terrain.getSectorBuilder().getExecutor().submit(next);
+    } catch (RejectedExecutionException e) {
+      next.run();
+    }
+    return next;
+  }
+
+  private void upload(Build build) {
+    if (build.error != null) {
+      Gdx.app.error(TAG, "Could not build terrain page level of detail", build.error);
+      // not retried until the page changes again
+      if (build.level == TEXTURE) {
+        textureVersion = build.version;
+      } else {
+        meshVersions[build.level] = build.version;
+      }
+      return;
+    }
+
+    if (build.level == TEXTURE) {
+      if (texture != null) {
+        texture.dispose();
+      }
+      texture        = new Texture(build.pixmap);
+      texture.setFilter(TextureFilter.Linear, TextureFilter.Linear);
+      texture.setWrap(TextureWrap.ClampToEdge, TextureWrap.ClampToEdge);
+      material       = new Material(TextureAttribute.createDiffuse(texture));
+      textureVersion = build.version;
+      build.pixmap.dispose();
+      build.pixmap   = null;
+    } else {
+      if (meshes[build.level] != null) {
+        meshes[build.level].dispose();
+      }
+      Mesh mesh = new Mesh(true, build.vertexCount, 0, build.attributes);
+      mesh.setVertices(build.vertices, 0, build.vertices.length);
+      meshes[build.level]       = mesh;
+      meshVersions[build.level] = build.version;
+      build.vertices            = null;
+    }
+  }
+
+  private TriangleGrid build(int step) {
+    LevelBuilder builder = new LevelBuilder();
+    TriangleGrid grid    = builder.grid;
+    grid.useQuadIndices();
+    grid.using(AttributeType.Position);
+    grid.using(AttributeType.TextureCord);
+    grid.using(AttributeType.Color);
+    if (terrain.isDebuging()) {
+      grid.using(AttributeType.TilePosition);
+    }
+
+    grid.begin();
+    for (int z = startZ; z < endZ; z += step) {
+      for (int x = startX; x < endX; x += step) {
+        int nextX = Math.min(x + step, endX);
+        int nextZ = Math.min(z + step, endZ);
+        if (step > 1 && (x == startX || z == startZ || nextX == endX || nextZ == endZ)) {
+          builder.addStitchedCell(x, z, nextX, nextZ);
+        } else {
+          builder.addCell(x, z, nextX, nextZ);
+        }
+      }
+    }
+    grid.end();
+    return grid;
+  }
+
+  private float getTextureWidth() {
+    return MathUtils.nextPowerOfTwo((endX - startX) * TEXELS_PER_TILE);
+  }
+
+  private float getTextureHeight() {
+    return MathUtils.nextPowerOfTwo((endZ - startZ) * TEXELS_PER_TILE);
+  }
+
+  private Pixmap bake() {
+    Pixmap source = terrain.getTileset().getPixmap();
+    Pixmap pixmap = new Pixmap((int)getTextureWidth(), (int)getTextureHeight(), Format.RGB888);
+    Tile cursor   = new Tile(terrain.getStore(), 0, 0);
+    synchronized (BAKE_LOCK) {
+      Pixmap.setBlending(Blending.None);
+      Pixmap.setFilter(Filter.BiLinear);
+      for (int z = startZ; z < endZ; z++) {
+        for (int x = startX; x < endX; x++) {
+          Tile tile = terrain.getTile(x, z, cursor);
+          if (tile == null || tile.getAutoTile() == null) {
+            continue;
+          }
+          TextureRegion region = tile.getTextureRegion();
+          pixmap.drawPixmap(source, region.getRegionX(), region.getRegionY(), region.getRegionWidth(), region.getRegionHeight(), (x - startX) * TEXELS_PER_TILE, (z - startZ) * TEXELS_PER_TILE, TEXELS_PER_TILE, TEXELS_PER_TILE);
+        }
+      }
+      Pixmap.setBlending(Blending.SourceOver);
+    }
+    return pixmap;
+  }
+
+  @Override
+  public void dispose() {
+    release();
+    for (int level = 0; level < LEVELS; level++) {
+      if (builds[level] != null) {
+        builds[level].cancel();
+        builds[level] = null;
+      }
+    }
+    if (textureBuild != null) {
+      textureBuild.cancel();
+      textureBuild = null;
+    }
+  }
+
+  // One level mesh or the texture built on a worker thread, picked up by the GL thread once done
+  private class Build implements Runnable {
+    private final int level;
+    private final int version;
+    private boolean done;
+    private boolean cancelled;
+    private float[] vertices;
+    private int vertexCount;
+    private VertexAttribute[] attributes;
+    private Pixmap pixmap;
+    private Exception error;
+
+    public Build(int level, int version) {
+      this.level   = level;
+      this.version = version;
+    }
+
+    @Override
+    public void run() {
+      try {
+        if (level == TEXTURE) {
+          pixmap = bake();
+        } else {
+          TriangleGrid grid = build(1 << level);
+          vertexCount       = grid.getVertexCount();
+          attributes        = grid.getVertexAttributes(false);
+          vertices          = Arrays.copyOf(grid.getVerties(), vertexCount * grid.getVertexSize());
+        }
+      } catch (Exception e) {
+        error = e;
+      }
+
+      synchronized (this) {
+        done = true;
+        if (cancelled && pixmap != null) {
+          pixmap.dispose();
+        }
+      }
+    }
+
+    public synchronized boolean isDone() {
+      return done;
+    }
+
+    public synchronized void cancel() {
+      cancelled = true;
+      if (done && pixmap != null) {
+        pixmap.dispose();
+      }
+    }
+  }
+
+  // Fills the grid of one level, keeps its own cursor and light scratch space so levels can be built in parallel
+  private class LevelBuilder {
+    private TriangleGrid grid    = new TriangleGrid(endX - startX, endZ - startZ, false);
+    private Tile cursor          = new Tile(terrain.getStore(), 0, 0);
+    private float[] lightHeights = new float[TerrainLighting.getHeightsSize(0, 0)];
+    private float[] light        = new float[1];
+
+    // same vertex order as a flat tile template: top right, top left, bottom right, bottom left
+    public void addCell(int x, int z, int nextX, int nextZ) {
+      short first = addCorner(nextX, getCornerHeight(nextX, z), z);
+      addCorner(x, getCornerHeight(x, z), z);
+      addCorner(nextX, getCornerHeight(nextX, nextZ), nextZ);
+      addCorner(x, getCornerHeight(x, nextZ), nextZ);
+      addQuadIndices(first);
+    }
+
+    // Fan around the cell center, sides on the page border get a vertex at every tile corner
+    public void addStitchedCell(int x, int z, int nextX, int nextZ) {
+      float centerX = (x + nextX) * 0.5f;
+      float centerZ = (z + nextZ) * 0.5f;
+      float centerY = (getCornerHeight(x, z) + getCornerHeight(nextX, z) + getCornerHeight(x, nextZ) + getCornerHeight(nextX, nextZ)) * 0.25f;
+
+      addFanSide(centerX, centerY, centerZ, x, z, nextX, z, z == startZ);
+      addFanSide(centerX, centerY, centerZ, nextX, z, nextX, nextZ, nextX == endX);
+      addFanSide(centerX, centerY, centerZ, nextX, nextZ, x, nextZ, nextZ == endZ);
+      addFanSide(centerX, centerY, centerZ, x, nextZ, x, z, x == startX);
+    }
+
+    private void addFanSide(float centerX, float centerY, float centerZ, int fromX, int fromZ, int toX, int toZ, boolean border) {
+      int length = Math.max(Math.abs(toX - fromX), Math.abs(toZ - fromZ));
+      int steps  = border ? length : 1;
+      int dx     = (toX - fromX) / steps;
+      int dz     = (toZ - fromZ) / steps;
+      for (int i = 0; i < steps; i++) {
+        int ax = fromX + dx * i;
+        int az = fromZ + dz * i;
+        int bx = ax + dx;
+        int bz = az + dz;
+        float ay = getCornerHeight(ax, az);
+        float by = getCornerHeight(bx, bz);
+        if (border) {
+          // both ends from the tile of the page along this edge, as the sector mesh of that tile has them
+          int tileX = Math.min(Math.min(ax, bx), endX - 1);
+          int tileZ = Math.min(Math.min(az, bz), endZ - 1);
+          ay        = getTileCorner(tileX, tileZ, ax, az);
+          by        = getTileCorner(tileX, tileZ, bx, bz);
+        }
+        // one triangle as a quad with a repeated vertex, the second triangle of the pattern is degenerate
+        short first = addCorner(centerX, centerY, centerZ);
+        addCorner(bx, by, bz);
+        addCorner(ax, ay, az);
+        addCorner(ax, ay, az);
+        addQuadIndices(first);
+      }
+    }
+
+    private short addCorner(float x, float y, float z) {
+      short n = grid.addVertex(x, y, z);
+      grid.addUVMap((x - startX) * TEXELS_PER_TILE / getTextureWidth(), (z - startZ) * TEXELS_PER_TILE / getTextureHeight());
+      // fan centers take the light of the closest tile corner
+      terrain.getLighting().bake(terrain, Math.round(x), Math.round(z), 0, 0, lightHeights, light, cursor);
+      grid.addPackedColor(light[0]);
+      if (terrain.isDebuging()) {
+        grid.addTilePos(Math.min((int)x, endX - 1), Math.min((int)z, endZ - 1));
+      }
+      return n;
+    }
+
+    private void addQuadIndices(short first) {
+      grid.addIndices(first, (short)(first + 1), (short)(first + 2));
+      grid.addIndices((short)(first + 2), (short)(first + 1), (short)(first + 3));
+    }
+
+    // Corner shared by up to four tiles, taken from the tile of this page below and right of it
+    private float getCornerHeight(int x, int z) {
+      return getTileCorner(Math.min(x, endX - 1), Math.min(z, endZ - 1), x, z);
+    }
+
+    // Height of the corner (x, z) of the tile, with the corner order of Sector.createTerrainTileGeometry
+    private float getTileCorner(int tileX, int tileZ, int x, int z) {
+      Tile tile = terrain.getTile(tileX, tileZ, cursor);
+      if (tile == null) {
+        return 0;
+      }
+      if (tileX == x) {
+        return tileZ == z ? tile.getY1() : tile.getY2();
+      } else {
+        return tileZ == z ? tile.getY3() : tile.getY4();
+      }
+    }
+  }
+}
@@ -0,0 +1,46 @@
+package com.macbury.fabula.terrain;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+// Entries are only appended. Sector rebuilds, level of detail bakes and chunk decoding read it on worker threads while
+// other threads add entries, so every add publishes a new copy of the array and get reads it without locking.
+public class TerrainPalette<T> {
+  public static final short EMPTY = 0;
+  private volatile Object[] entries;
+  private HashMap<T, Short> indexes;
+
+  public TerrainPalette() {
+    this.entries = new Object[] { null };
+    this.indexes = new HashMap<T, Short>();
+  }
+
+  @SuppressWarnings("unchecked")
+  public T get(short index) {
+    return (T) entries[index];
+  }
+
+  public synchronized short indexOf(T entry) {
+    if (entry == null) {
+      return EMPTY;
+    }
+
+    Short index = indexes.get(entry);
+    if (index == null) {
+      Object[] current = entries;
+      if (current.length > Short.MAX_VALUE) {
+        throw new RuntimeException("Terrain palette is full!");
+      }
+      index = (short) current.length;
+      Object[] grown        = Arrays.copyOf(current, current.length + 1);
+      grown[current.length] = entry;
+      entries               = grown;
+      indexes.put(entry, index);
+    }
+    return index;
+  }
+
+  public int size() {
+    return entries.length;
+  }
+}
@@ -2,24 +2,34 @@ package com.macbury.fabula.terrain;
 
 import com.badlogic.gdx.graphics.Camera;
 import com.badlogic.gdx.graphics.GL20;
+import com.badlogic.gdx.graphics.Mesh;
+import com.badlogic.gdx.graphics.Texture;
 import com.badlogic.gdx.graphics.g3d.Renderable;
 import com.badlogic.gdx.graphics.g3d.Shader;
 import com.badlogic.gdx.graphics.g3d.lights.Lights;
 import com.badlogic.gdx.graphics.g3d.materials.Material;
 import com.badlogic.gdx.graphics.g3d.materials.TextureAttribute;
 import com.badlogic.gdx.graphics.g3d.utils.RenderContext;
+import com.macbury.fabula.graphics.Fog;
 import com.macbury.fabula.manager.G;
 import com.macbury.fabula.terrain.Terrain.TerrainDebugListener;
+import com.macbury.fabula.terrain.geometry.QuadIndexBuffer;
 
 public class TerrainShader implements Shader {
   private static final String DEFAULT_SHADER = "terrain";
   private static final String EDITOR_SHADER  = "terrain-editor";
   private static final String UNIFORM_PROJECTION_MATRIX  = "u_projectionViewMatrix";
   private static final String UNIFORM_MAIN_TEXTURE_INDEX = "u_texture0";
+  private static final String UNIFORM_CAMERA_POSITION    = "u_camera_position";
+  private static final String UNIFORM_AMBIENT_COLOR      = "u_ambient_color";
   private String shaderName;
+  private Mesh currentMesh;
+  private Texture currentTexture;
+  private RenderContext context;
   private Lights lights;
   private Material terrainMaterial;
   private TerrainDebugListener debugListener;
+  private Fog fog;
   
   public TerrainShader() {
     setShaderName(DEFAULT_SHADER);
@@ -41,28 +51,63 @@ public class TerrainShader implements Shader {
     context.setCullFace(GL20.GL_BACK);
     G.shaders.begin(shaderName);
     G.shaders.setUniformMatrix(UNIFORM_PROJECTION_MATRIX, camera.combined);
-    /*if (lights != null) {
-      G.shaders.getCurrent().setUniformf("u_ambient_color", lights.ambientLight);
-      G.shaders.getCurrent().setUniformf("u_light_color", lights.directionalLights.get(0).color);
-      G.shaders.getCurrent().setUniformf("u_light_direction", lights.directionalLights.get(0).direction);
-    }*/
+    // the sun is baked into vertex colors by TerrainLighting, only the ambient light is applied here
+    if (lights != null && G.shaders.getCurrent().hasUniform(UNIFORM_AMBIENT_COLOR)) {
+      G.shaders.getCurrent().setUniformf(UNIFORM_AMBIENT_COLOR, lights.ambientLight);
+    }
     
     
-    TextureAttribute textureAttr = (TextureAttribute) terrainMaterial.get(TextureAttribute.Diffuse);
-    G.shaders.setUniformi(UNIFORM_MAIN_TEXTURE_INDEX, context.textureBinder.bind(textureAttr.textureDescription));
+    this.context = context;
+    bindTexture(terrainMaterial);
+    if (G.shaders.getCurrent().hasUniform(UNIFORM_CAMERA_POSITION)) {
+      G.shaders.setUniformf(UNIFORM_CAMERA_POSITION, camera.position.x, camera.position.y, camera.position.z);
+    }
+    if (fog != null) {
+      fog.apply(G.shaders.getCurrent(), camera);
+    }
 
     if (debugListener != null) {
       debugListener.onDebugTerrainConfigureShader(G.shaders.getCurrent());
     }
   }
   
+  // far pages bring their own baked texture
+  private void bindTexture(Material material) {
+    TextureAttribute textureAttr = (TextureAttribute) material.get(TextureAttribute.Diffuse);
+    if (textureAttr.textureDescription.texture != currentTexture) {
+      currentTexture = textureAttr.textureDescription.texture;
+      G.shaders.setUniformi(UNIFORM_MAIN_TEXTURE_INDEX, context.textureBinder.bind(textureAttr.textureDescription));
+    }
+  }
+  
   @Override
   public void render(Renderable renderable) {
-    renderable.mesh.render(G.shaders.getCurrent(), renderable.primitiveType, renderable.meshPartOffset, renderable.meshPartSize, true);
+    if (renderable.material != null) {
+      bindTexture(renderable.material);
+    }
+    // page meshes are drawn in several parts, bind them only once
+    if (currentMesh != renderable.mesh) {
+      unbindMesh();
+      currentMesh = renderable.mesh;
+      currentMesh.bind(G.shaders.getCurrent());
+      QuadIndexBuffer.bind();
+      TerrainPage.setVertexUniforms(G.shaders.getCurrent(), renderable);
+    }
+    QuadIndexBuffer.render(renderable.primitiveType, renderable.meshPartOffset, renderable.meshPartSize);
+  }
+  
+  private void unbindMesh() {
+    if (currentMesh != null) {
+      currentMesh.unbind(G.shaders.getCurrent());
+      QuadIndexBuffer.unbind();
+      currentMesh = null;
+    }
   }
   
   @Override
   public void end() {
+    unbindMesh();
+    currentTexture = null;
     G.shaders.end();
   }
   
@@ -89,6 +134,10 @@ public class TerrainShader implements Shader {
   public Material getMaterial() {
     return this.terrainMaterial;
   }
+
+  public void setFog(Fog fog) {
+    this.fog = fog;
+  }
   
   public Lights getLights() {
     return lights;
@@ -0,0 +1,297 @@
+package com.macbury.fabula.terrain;
+
+import com.badlogic.gdx.utils.GdxRuntimeException;
+import com.macbury.fabula.terrain.foliage.FoliageDescriptor;
+import com.macbury.fabula.terrain.tile.AutoTile;
+import com.macbury.fabula.terrain.tile.Tile.TypeSlope;
+
+/* Terrain tiles kept as parallel primitive arrays indexed by z * columns + x. Tile is only a view over one slot. */
+public class TerrainStore implements TileData {
+  public static final int FLAG_PASSABLE = 1;
+  public static final int FLAG_LIQUID   = 2;
+  public static final int FLAG_PRESENT  = 4;
+  public static final int SLOPE_SHIFT   = 4;
+  public static final int SLOPE_MASK    = 0xF0;
+  private static final TypeSlope[] SLOPES = TypeSlope.values();
+
+  private int columns;
+  private int rows;
+
+  private float[] y;
+  private float[] y1;
+  private float[] y2;
+  private float[] y3;
+  private float[] y4;
+  private float[] liquidHeight;
+  private int[]   gid;
+  private short[] autoTile;
+  private short[] foliage;
+  private byte[]  flags;
+  private boolean frozen;
+
+  private TerrainPalette<AutoTile> autoTilePalette;
+  private TerrainPalette<FoliageDescriptor> foliagePalette;
+
+  public TerrainStore(int columns, int rows) {
+    this.columns         = columns;
+    this.rows            = rows;
+    int size             = columns * rows;
+    this.y               = new float[size];
+    this.y1              = new float[size];
+    this.y2              = new float[size];
+    this.y3              = new float[size];
+    this.y4              = new float[size];
+    this.liquidHeight    = new float[size];
+    this.gid             = new int[size];
+    this.autoTile        = new short[size];
+    this.foliage         = new short[size];
+    this.flags           = new byte[size];
+    this.autoTilePalette = new TerrainPalette<AutoTile>();
+    this.foliagePalette  = new TerrainPalette<FoliageDescriptor>();
+  }
+
+  public int getColumns() {
+    return columns;
+  }
+
+  public int getRows() {
+    return rows;
+  }
+
+  public int size() {
+    return flags.length;
+  }
+
+  public boolean contains(int x, int z) {
+    return x >= 0 && z >= 0 && x < columns && z < rows;
+  }
+
+  public int index(int x, int z) {
+    return z * columns + x;
+  }
+
+  public boolean isPresent(int i) {
+    return (flags[i] & FLAG_PRESENT) != 0;
+  }
+
+  public void setPresent(int i) {
+    flags[i] |= FLAG_PRESENT;
+  }
+
+  public float getY(int i) {
+    return y[i];
+  }
+
+  public void setY(int i, float value) {
+    y[i] = value;
+  }
+
+  public float getY1(int i) {
+    return y1[i];
+  }
+
+  public void setY1(int i, float value) {
+    y1[i] = value;
+  }
+
+  public float getY2(int i) {
+    return y2[i];
+  }
+
+  public void setY2(int i, float value) {
+    y2[i] = value;
+  }
+
+  public float getY3(int i) {
+    return y3[i];
+  }
+
+  public void setY3(int i, float value) {
+    y3[i] = value;
+  }
+
+  public float getY4(int i) {
+    return y4[i];
+  }
+
+  public void setY4(int i, float value) {
+    y4[i] = value;
+  }
+
+  public float getLiquidHeight(int i) {
+    return liquidHeight[i];
+  }
+
+  public void setLiquidHeight(int i, float value) {
+    liquidHeight[i] = value;
+  }
+
+  public int getGid(int i) {
+    return frozen ? 0 : gid[i];
+  }
+
+  public void setGid(int i, int value) {
+    checkEditable();
+    gid[i] = value;
+  }
+
+  public AutoTile getAutoTile(int i) {
+    return autoTilePalette.get(autoTile[i]);
+  }
+
+  public void setAutoTile(int i, AutoTile value) {
+    autoTile[i] = autoTilePalette.indexOf(value);
+  }
+
+  // Palette index for setAutoTileIndex, loaders resolve it once instead of for every tile
+  public short indexOfAutoTile(AutoTile value) {
+    return autoTilePalette.indexOf(value);
+  }
+
+  public void setAutoTileIndex(int i, short index) {
+    autoTile[i] = index;
+  }
+
+  public FoliageDescriptor getFoliage(int i) {
+    return frozen ? null : foliagePalette.get(foliage[i]);
+  }
+
+  public boolean haveFoliage(int i) {
+    return !frozen && foliage[i] != TerrainPalette.EMPTY;
+  }
+
+  public void setFoliage(int i, FoliageDescriptor value) {
+    checkEditable();
+    foliage[i] = foliagePalette.indexOf(value);
+  }
+
+  public short indexOfFoliage(FoliageDescriptor value) {
+    return foliagePalette.indexOf(value);
+  }
+
+  public void setFoliageIndex(int i, short index) {
+    checkEditable();
+    foliage[i] = index;
+  }
+
+  public boolean isPassable(int i) {
+    return (flags[i] & FLAG_PASSABLE) != 0;
+  }
+
+  public void setPassable(int i, boolean value) {
+    setFlag(i, FLAG_PASSABLE, value);
+  }
+
+  public boolean isLiquid(int i) {
+    return (flags[i] & FLAG_LIQUID) != 0;
+  }
+
+  public void setLiquid(int i, boolean value) {
+    setFlag(i, FLAG_LIQUID, value);
+  }
+
+  public byte getFlags(int i) {
+    return flags[i];
+  }
+
+  public TypeSlope getSlope(int i) {
+    return SLOPES[(flags[i] & SLOPE_MASK) >> SLOPE_SHIFT];
+  }
+
+  public void setSlope(int i, TypeSlope slope) {
+    flags[i] = (byte) ((flags[i] & ~SLOPE_MASK) | (slope.ordinal() << SLOPE_SHIFT));
+  }
+
+  private void setFlag(int i, int flag, boolean value) {
+    if (value) {
+      flags[i] |= flag;
+    } else {
+      flags[i] &= ~flag;
+    }
+  }
+
+  // Gameplay only needs heights, flags and auto tiles once the meshes are built, editor ids and foliage are dropped
+  public void freeze() {
+    frozen  = true;
+    gid     = null;
+    foliage = null;
+  }
+
+  public boolean isFrozen() {
+    return frozen;
+  }
+
+  private void checkEditable() {
+    if (frozen) {
+      throw new GdxRuntimeException("Terrain store is frozen!");
+    }
+  }
+
+  public void copy(int i, TerrainStore source, int sourceIndex) {
+    checkEditable();
+    y[i]            = source.y[sourceIndex];
+    y1[i]           = source.y1[sourceIndex];
+    y2[i]           = source.y2[sourceIndex];
+    y3[i]           = source.y3[sourceIndex];
+    y4[i]           = source.y4[sourceIndex];
+    liquidHeight[i] = source.liquidHeight[sourceIndex];
+    gid[i]          = source.gid[sourceIndex];
+    flags[i]        = source.flags[sourceIndex];
+
+    if (source.autoTilePalette == autoTilePalette) {
+      autoTile[i] = source.autoTile[sourceIndex];
+      foliage[i]  = source.foliage[sourceIndex];
+    } else {
+      setAutoTile(i, source.getAutoTile(sourceIndex));
+      setFoliage(i, source.getFoliage(sourceIndex));
+    }
+  }
+
+  // Copies the slot of a detached tile, slots of other stores go through the array copy above
+  public void copy(int i, TileData source, int sourceIndex) {
+    if (source instanceof TerrainStore) {
+      copy(i, (TerrainStore)source, sourceIndex);
+      return;
+    }
+    checkEditable();
+    y[i]            = source.getY(sourceIndex);
+    y1[i]           = source.getY1(sourceIndex);
+    y2[i]           = source.getY2(sourceIndex);
+    y3[i]           = source.getY3(sourceIndex);
+    y4[i]           = source.getY4(sourceIndex);
+    liquidHeight[i] = source.getLiquidHeight(sourceIndex);
+    gid[i]          = source.getGid(sourceIndex);
+    flags[i]        = source.getFlags(sourceIndex);
+    setAutoTile(i, source.getAutoTile(sourceIndex));
+    setFoliage(i, source.getFoliage(sourceIndex));
+  }
+
+  public TerrainStore resize(int width, int height) {
+    checkEditable();
+    TerrainStore store     = new TerrainStore(width, height);
+    store.autoTilePalette  = autoTilePalette;
+    store.foliagePalette   = foliagePalette;
+    int copyColumns        = Math.min(width, columns);
+
+    for (int z = 0; z < Math.min(height, rows); z++) {
+      int from = index(0, z);
+      int to   = store.index(0, z);
+      System.arraycopy(y, from, store.y, to, copyColumns);
+      System.arraycopy(y1, from, store.y1, to, copyColumns);
+      System.arraycopy(y2, from, store.y2, to, copyColumns);
+      System.arraycopy(y3, from, store.y3, to, copyColumns);
+      System.arraycopy(y4, from, store.y4, to, copyColumns);
+      System.arraycopy(liquidHeight, from, store.liquidHeight, to, copyColumns);
+      System.arraycopy(gid, from, store.gid, to, copyColumns);
+      System.arraycopy(autoTile, from, store.autoTile, to, copyColumns);
+      System.arraycopy(foliage, from, store.foliage, to, copyColumns);
+      System.arraycopy(flags, from, store.flags, to, copyColumns);
+    }
+
+    return store;
+  }
+
+  public long getMemoryFootprint() {
+    return (long)size() * (frozen ? 6 * 4 + 2 + 1 : 6 * 4 + 4 + 2 * 2 + 1);
+  }
+}
@@ -0,0 +1,37 @@
+package com.macbury.fabula.terrain;
+
+import com.macbury.fabula.terrain.foliage.FoliageDescriptor;
+import com.macbury.fabula.terrain.tile.AutoTile;
+import com.macbury.fabula.terrain.tile.Tile.TypeSlope;
+
+/* Slots a Tile reads and writes. TerrainStore keeps every tile of a map, detached tiles keep their single slot in a
+ * small holder instead of a whole store. */
+public interface TileData {
+  public float getY(int i);
+  public void setY(int i, float value);
+  public float getY1(int i);
+  public void setY1(int i, float value);
+  public float getY2(int i);
+  public void setY2(int i, float value);
+  public float getY3(int i);
+  public void setY3(int i, float value);
+  public float getY4(int i);
+  public void setY4(int i, float value);
+  public float getLiquidHeight(int i);
+  public void setLiquidHeight(int i, float value);
+  public int getGid(int i);
+  public void setGid(int i, int value);
+  public AutoTile getAutoTile(int i);
+  public void setAutoTile(int i, AutoTile value);
+  public FoliageDescriptor getFoliage(int i);
+  public void setFoliage(int i, FoliageDescriptor value);
+  public boolean haveFoliage(int i);
+  public boolean isPassable(int i);
+  public void setPassable(int i, boolean value);
+  public boolean isLiquid(int i);
+  public void setLiquid(int i, boolean value);
+  public TypeSlope getSlope(int i);
+  public void setSlope(int i, TypeSlope slope);
+  public byte getFlags(int i);
+  public boolean isFrozen();
+}
@@ -4,15 +4,23 @@ import com.badlogic.gdx.graphics.Texture;
 import com.badlogic.gdx.graphics.g3d.materials.Material;
 import com.badlogic.gdx.graphics.g3d.materials.TextureAttribute;
 import com.badlogic.gdx.graphics.g3d.utils.TextureDescriptor;
+import com.macbury.fabula.graphics.Fog;
 import com.macbury.fabula.map.Scene;
 
 public class Foliage {
+  // Foliage tiles are sorted into density tiers when sectors are meshed. Tier n fades out at TIER_FADE[n] of the
+  // fade distance, so far pages only need to draw the first tiers of every sector.
+  public static final int TIERS             = 3;
+  public static final float[] TIER_FADE     = { 1.0f, 0.6f, 0.35f };
+  
   private Material material;
   private FoliageShader shader;
   
   private float time      = 0.0f;
   private float amplitude = 0.04f;
   private float speed     = 6f;
+  private float fadeDistance = 40f;
+  private float fadeLength   = 8f;
   private Scene scene;
   
   public Foliage(Scene scene) {
@@ -30,10 +38,30 @@ public class Foliage {
     return textureAttr.textureDescription;
   }
   
+  // a quarter of the tiles in tier 0, a quarter in tier 1 and the rest in tier 2, stable for a tile position
+  public static int getTier(int x, int z) {
+    int hash = (x * 73856093) ^ (z * 19349663);
+    hash     = (hash ^ (hash >>> 13)) & 3;
+    return Math.min(hash, TIERS - 1);
+  }
+  
+  // number of tiers with any foliage closer than its fade distance
+  public int getTierCount(float distance) {
+    int tiers = 0;
+    while (tiers < TIERS && distance < fadeDistance * TIER_FADE[tiers]) {
+      tiers++;
+    }
+    return tiers;
+  }
+  
   public void update(float delta) {
     this.time += delta * speed;
   }
 
+  public Fog getFog() {
+    return scene.getTerrain().getFog();
+  }
+
   public Material getMaterial() {
     return material;
   }
@@ -54,6 +82,14 @@ public class Foliage {
     return speed;
   }
 
+  public float getFadeDistance() {
+    return fadeDistance;
+  }
+
+  public float getFadeLength() {
+    return fadeLength;
+  }
+
   public void setMaterial(Material material) {
     this.material = material;
   }
@@ -73,4 +109,12 @@ public class Foliage {
   public void setSpeed(float speed) {
     this.speed = speed;
   }
+
+  public void setFadeDistance(float fadeDistance) {
+    this.fadeDistance = fadeDistance;
+  }
+
+  public void setFadeLength(float fadeLength) {
+    this.fadeLength = fadeLength;
+  }
 }
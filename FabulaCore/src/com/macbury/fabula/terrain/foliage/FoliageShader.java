@@ -4,17 +4,23 @@ import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.graphics.Camera;
 import com.badlogic.gdx.graphics.GL10;
 import com.badlogic.gdx.graphics.GL20;
+import com.badlogic.gdx.graphics.Mesh;
 import com.badlogic.gdx.graphics.g3d.Renderable;
 import com.badlogic.gdx.graphics.g3d.Shader;
 import com.badlogic.gdx.graphics.g3d.utils.RenderContext;
 import com.macbury.fabula.manager.G;
+import com.macbury.fabula.terrain.TerrainPage;
+import com.macbury.fabula.terrain.geometry.QuadIndexBuffer;
 
 public class FoliageShader implements Shader {
   private static final String SHADER_NAME                = "grass";
   private static final String UNIFORM_MODEL_VIEW         = "u_model_view";
   private static final String UNIFORM_TEXTURE_ID         = "u_texture";
   private static final String UNIFORM_WAVE_DATA          = "u_wave_data";
+  private static final String UNIFORM_CAMERA_POSITION    = "u_camera_position";
+  private static final String UNIFORM_FADE               = "u_fade";
   private Foliage foliage;
+  private Mesh currentMesh;
 
   public FoliageShader(Foliage foliage) {
     this.foliage = foliage;
@@ -35,6 +41,9 @@ public class FoliageShader implements Shader {
     G.shaders.setUniformMatrix(UNIFORM_MODEL_VIEW, camera.combined);
     G.shaders.setUniformi(UNIFORM_TEXTURE_ID, context.textureBinder.bind(foliage.getTextureId()));
     G.shaders.setUniformf(UNIFORM_WAVE_DATA, foliage.getTime(), foliage.getAmplitude());
+    G.shaders.setUniformf(UNIFORM_CAMERA_POSITION, camera.position.x, camera.position.y, camera.position.z);
+    G.shaders.setUniformf(UNIFORM_FADE, foliage.getFadeDistance(), foliage.getFadeLength());
+    foliage.getFog().apply(G.shaders.getCurrent(), camera);
   }
   
   @Override
@@ -51,6 +60,7 @@ public class FoliageShader implements Shader {
   
   @Override
   public void end() {
+    unbindMesh();
     G.shaders.end();
     Gdx.gl.glEnable(GL10.GL_CULL_FACE);
   }
@@ -63,7 +73,23 @@ public class FoliageShader implements Shader {
   
   @Override
   public void render(Renderable renderable) {
-    renderable.mesh.render(G.shaders.getCurrent(), renderable.primitiveType, renderable.meshPartOffset, renderable.meshPartSize, true);
+    // page meshes are drawn in several parts, bind them only once
+    if (currentMesh != renderable.mesh) {
+      unbindMesh();
+      currentMesh = renderable.mesh;
+      currentMesh.bind(G.shaders.getCurrent());
+      QuadIndexBuffer.bind();
+      TerrainPage.setVertexUniforms(G.shaders.getCurrent(), renderable);
+    }
+    QuadIndexBuffer.render(renderable.primitiveType, renderable.meshPartOffset, renderable.meshPartSize);
+  }
+  
+  private void unbindMesh() {
+    if (currentMesh != null) {
+      currentMesh.unbind(G.shaders.getCurrent());
+      QuadIndexBuffer.unbind();
+      currentMesh = null;
+    }
   }
   
 }
@@ -0,0 +1,69 @@
+package com.macbury.fabula.terrain.geometry;
+
+import java.util.ArrayList;
+
+import com.badlogic.gdx.graphics.Mesh;
+import com.badlogic.gdx.graphics.VertexAttribute;
+import com.badlogic.gdx.graphics.VertexAttributes;
+import com.badlogic.gdx.math.MathUtils;
+import com.badlogic.gdx.utils.Disposable;
+
+// Recycles the dynamic page meshes of the editor. Capacities are rounded up to powers of two, so a page can grow
+// inside its mesh and meshes freed by disposed or resized pages fit the new ones.
+public class MeshPool implements Disposable {
+  private static final int MIN_CAPACITY = 256;
+  private static final int MAX_FREE     = 32;
+  private ArrayList<Mesh> free          = new ArrayList<Mesh>();
+  private boolean disposed              = false;
+
+  public static int getCapacity(int vertexCount) {
+    return Math.min(TriangleGrid.MAX_VERTICES, MathUtils.nextPowerOfTwo(Math.max(MIN_CAPACITY, vertexCount)));
+  }
+
+  // Must be called on the GL thread
+  public Mesh obtain(int vertexCount, VertexAttribute[] attributes) {
+    int capacity = getCapacity(vertexCount);
+    for (int i = free.size() - 1; i >= 0; i--) {
+      Mesh mesh = free.get(i);
+      if (mesh.getMaxVertices() == capacity && isSameLayout(mesh.getVertexAttributes(), attributes)) {
+        free.remove(i);
+        return mesh;
+      }
+    }
+    return new PageMesh(capacity, attributes);
+  }
+
+  public void free(Mesh mesh) {
+    if (disposed || free.size() >= MAX_FREE) {
+      mesh.dispose();
+    } else {
+      free.add(mesh);
+    }
+  }
+
+  public int getFreeCount() {
+    return free.size();
+  }
+
+  private static boolean isSameLayout(VertexAttributes layout, VertexAttribute[] attributes) {
+    if (layout.size() != attributes.length) {
+      return false;
+    }
+    for (int i = 0; i < attributes.length; i++) {
+      VertexAttribute attribute = layout.get(i);
+      if (attribute.usage != attributes[i].usage || attribute.numComponents != attributes[i].numComponents || !attribute.alias.equals(attributes[i].alias)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public void dispose() {
+    for (Mesh mesh : free) {
+      mesh.dispose();
+    }
+    free.clear();
+    disposed = true;
+  }
+}
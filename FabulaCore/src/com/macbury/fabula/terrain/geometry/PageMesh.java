@@ -0,0 +1,196 @@
+package com.macbury.fabula.terrain.geometry;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.graphics.GL20;
+import com.badlogic.gdx.graphics.Mesh;
+import com.badlogic.gdx.graphics.VertexAttribute;
+import com.badlogic.gdx.graphics.VertexAttributes;
+import com.badlogic.gdx.graphics.glutils.ShaderProgram;
+import com.badlogic.gdx.utils.BufferUtils;
+import com.badlogic.gdx.utils.GdxRuntimeException;
+
+// Page mesh with a vertex buffer it allocates itself. Mesh only uploads its whole buffer, this one claims GPU storage
+// for its full capacity once and then writes ranges of vertices in place with glBufferSubData. It also binds the packed
+// attributes of the compact layout, which Mesh would read as floats. The vertex data of Mesh is only a one vertex
+// placeholder that keeps the layout, everything the shaders and pages use goes to the owned buffer.
+public class PageMesh extends Mesh {
+  private static final ArrayList<PageMesh> meshes = new ArrayList<PageMesh>();
+  private ByteBuffer byteBuffer;
+  private FloatBuffer buffer;
+  private int maxVertices;
+  private int numVertices;
+  private int handle;
+  private int usage;
+  private boolean allocated;
+
+  // Must be called on the GL thread
+  public PageMesh(int maxVertices, VertexAttribute... attributes) {
+    this(maxVertices, false, attributes);
+  }
+
+  // Static meshes are written once, frozen pages use them
+  public PageMesh(int maxVertices, boolean isStatic, VertexAttribute... attributes) {
+    super(VertexDataType.VertexArray, false, 1, 0, attributes);
+    this.usage       = isStatic ? GL20.GL_STATIC_DRAW : GL20.GL_DYNAMIC_DRAW;
+    this.maxVertices = maxVertices;
+    this.byteBuffer  = BufferUtils.newByteBuffer(maxVertices * getVertexSize());
+    this.buffer      = byteBuffer.asFloatBuffer();
+    this.handle      = createHandle();
+    meshes.add(this);
+  }
+
+  // Must be called after the GL context was lost, the buffers are restored from their copies on the next write or bind
+  public static void invalidateAll() {
+    for (PageMesh mesh : meshes) {
+      mesh.handle    = createHandle();
+      mesh.allocated = false;
+    }
+  }
+
+  private static int createHandle() {
+    IntBuffer tmp = BufferUtils.newIntBuffer(1);
+    Gdx.gl20.glGenBuffers(1, tmp);
+    return tmp.get(0);
+  }
+
+  @Override
+  public Mesh setVertices(float[] vertices, int offset, int count) {
+    if (count > buffer.capacity()) {
+      throw new GdxRuntimeException("Page mesh holds " + maxVertices + " vertices, got " + (count / (getVertexSize() / 4)));
+    }
+    buffer.position(0);
+    buffer.put(vertices, offset, count);
+    buffer.position(0);
+    numVertices = count / (getVertexSize() / 4);
+    upload(0, count);
+    return this;
+  }
+
+  @Override
+  public Mesh setVertices(float[] vertices) {
+    return setVertices(vertices, 0, vertices.length);
+  }
+
+  // Writes vertices[offset, offset + count) to the same floats of the buffer, offset and count are in floats
+  public void updateVertices(float[] vertices, int offset, int count) {
+    if (offset < 0 || offset + count > buffer.capacity()) {
+      throw new GdxRuntimeException("Range " + offset + "+" + count + " is outside of the page mesh");
+    }
+    buffer.position(offset);
+    buffer.put(vertices, offset, count);
+    buffer.position(0);
+    upload(offset, count);
+  }
+
+  private void upload(int offset, int count) {
+    GL20 gl = Gdx.gl20;
+    gl.glBindBuffer(GL20.GL_ARRAY_BUFFER, handle);
+    if (allocated) {
+      byteBuffer.limit((offset + count) * 4);
+      byteBuffer.position(offset * 4);
+      gl.glBufferSubData(GL20.GL_ARRAY_BUFFER, offset * 4, count * 4, byteBuffer);
+    } else {
+      allocate(gl);
+    }
+    byteBuffer.limit(byteBuffer.capacity());
+    byteBuffer.position(0);
+    gl.glBindBuffer(GL20.GL_ARRAY_BUFFER, 0);
+  }
+
+  // Claims the whole capacity at once, so later writes never resize the buffer on the GPU
+  private void allocate(GL20 gl) {
+    byteBuffer.limit(byteBuffer.capacity());
+    byteBuffer.position(0);
+    gl.glBufferData(GL20.GL_ARRAY_BUFFER, byteBuffer.capacity(), byteBuffer, usage);
+    allocated = true;
+  }
+
+  @Override
+  public int getNumVertices() {
+    return numVertices;
+  }
+
+  @Override
+  public int getMaxVertices() {
+    return maxVertices;
+  }
+
+  // Writes through this buffer are not uploaded, use setVertices or updateVertices
+  @Override
+  public FloatBuffer getVerticesBuffer() {
+    return buffer.asReadOnlyBuffer();
+  }
+
+  @Override
+  public void bind() {
+    throw new GdxRuntimeException("Page meshes can only be rendered with a shader");
+  }
+
+  @Override
+  public void unbind() {
+    throw new GdxRuntimeException("Page meshes can only be rendered with a shader");
+  }
+
+  @Override
+  public void bind(ShaderProgram shader) {
+    bind(shader, null);
+  }
+
+  @Override
+  public void bind(ShaderProgram shader, int[] locations) {
+    GL20 gl = Gdx.gl20;
+    gl.glBindBuffer(GL20.GL_ARRAY_BUFFER, handle);
+    if (!allocated) {
+      allocate(gl);
+    }
+
+    VertexAttributes attributes = getVertexAttributes();
+    int vertexSize              = attributes.vertexSize;
+    for (int i = 0; i < attributes.size(); i++) {
+      VertexAttribute attribute = attributes.get(i);
+      int location              = locations == null ? shader.getAttributeLocation(attribute.alias) : locations[i];
+      if (location < 0) {
+        continue;
+      }
+      shader.enableVertexAttribute(location);
+      if (TriangleGrid.isPacked(attribute)) {
+        shader.setVertexAttribute(location, 4, GL20.GL_UNSIGNED_BYTE, true, vertexSize, attribute.offset);
+      } else {
+        shader.setVertexAttribute(location, attribute.numComponents, GL20.GL_FLOAT, false, vertexSize, attribute.offset);
+      }
+    }
+  }
+
+  @Override
+  public void unbind(ShaderProgram shader) {
+    unbind(shader, null);
+  }
+
+  @Override
+  public void unbind(ShaderProgram shader, int[] locations) {
+    VertexAttributes attributes = getVertexAttributes();
+    for (int i = 0; i < attributes.size(); i++) {
+      int location = locations == null ? shader.getAttributeLocation(attributes.get(i).alias) : locations[i];
+      if (location >= 0) {
+        shader.disableVertexAttribute(location);
+      }
+    }
+    Gdx.gl20.glBindBuffer(GL20.GL_ARRAY_BUFFER, 0);
+  }
+
+  @Override
+  public void dispose() {
+    if (meshes.remove(this)) {
+      IntBuffer tmp = BufferUtils.newIntBuffer(1);
+      tmp.put(0, handle);
+      Gdx.gl20.glDeleteBuffers(1, tmp);
+      handle = 0;
+    }
+    super.dispose();
+  }
+}
@@ -0,0 +1,65 @@
+package com.macbury.fabula.terrain.geometry;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.graphics.GL20;
+import com.badlogic.gdx.graphics.glutils.IndexBufferObject;
+
+// One read only index buffer shared by every terrain, water and foliage mesh. Quad n is always drawn as
+// vertices (4n, 4n+1, 4n+2) and (4n+2, 4n+1, 4n+3), so meshes only need to upload their vertices.
+public class QuadIndexBuffer {
+  public static final int INDICES_PER_QUAD = 6;
+  public static final int MAX_QUADS        = TriangleGrid.MAX_VERTICES / 4;
+  private static final short[] PATTERN     = { 0, 1, 2, 2, 1, 3 };
+  private static IndexBufferObject buffer;
+
+  public static int getIndex(int i) {
+    return (i / INDICES_PER_QUAD) * 4 + PATTERN[i % INDICES_PER_QUAD];
+  }
+
+  public static int getIndexCount(int vertexCount) {
+    return vertexCount / 4 * INDICES_PER_QUAD;
+  }
+
+  public static int getMemoryFootprint() {
+    return MAX_QUADS * INDICES_PER_QUAD * 2;
+  }
+
+  private static IndexBufferObject getBuffer() {
+    if (buffer == null) {
+      short[] indices = new short[MAX_QUADS * INDICES_PER_QUAD];
+      for (int i = 0; i < indices.length; i++) {
+        indices[i] = (short)getIndex(i);
+      }
+      buffer = new IndexBufferObject(true, indices.length);
+      buffer.setIndices(indices, 0, indices.length);
+    }
+    return buffer;
+  }
+
+  public static void bind() {
+    getBuffer().bind();
+  }
+
+  public static void unbind() {
+    getBuffer().unbind();
+  }
+
+  // Draws count indices starting at offset, the vertex buffer must be bound already
+  public static void render(int primitiveType, int offset, int count) {
+    Gdx.gl20.glDrawElements(primitiveType, count, GL20.GL_UNSIGNED_SHORT, offset * 2);
+  }
+
+  // Must be called after the GL context was lost
+  public static void invalidate() {
+    if (buffer != null) {
+      buffer.invalidate();
+    }
+  }
+
+  public static void dispose() {
+    if (buffer != null) {
+      buffer.dispose();
+    }
+    buffer = null;
+  }
+}
@@ -1,16 +1,13 @@
 package com.macbury.fabula.terrain.geometry;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 
-import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.graphics.Color;
 import com.badlogic.gdx.graphics.Mesh;
 import com.badlogic.gdx.graphics.VertexAttribute;
-import com.badlogic.gdx.graphics.VertexAttributes;
 import com.badlogic.gdx.graphics.VertexAttributes.Usage;
-import com.badlogic.gdx.graphics.g3d.utils.MeshPartBuilder.VertexInfo;
 import com.badlogic.gdx.graphics.glutils.ShaderProgram;
-import com.badlogic.gdx.math.Vector3;
 import com.badlogic.gdx.utils.Disposable;
 import com.badlogic.gdx.utils.GdxRuntimeException;
 
@@ -18,162 +15,293 @@ public class TriangleGrid implements Disposable {
   public static enum AttributeType {
     Position, Normal, Color, TextureCord, TilePosition, Passable
   }
-  
+
   public static final int VERTEXT_PER_COL        = 4;
+  public static final int MAX_VERTICES           = 65536;
+  // compact layout, the shaders decode it with the scale and bias uniforms set by TerrainPage.setVertexUniforms
+  public static final String COMPACT_POSITION_XZ_ATTRIBUTE   = "a_position_xz";
+  public static final String COMPACT_POSITION_Y_ATTRIBUTE    = "a_position_y";
+  public static final String COMPACT_NORMAL_ATTRIBUTE        = "a_normal_packed";
+  public static final String COMPACT_TEXTURE_CORDS_ATTRIBUTE = "a_textCords_packed";
+  public static final float POSITION_SCALE       = 256.0f;
+  public static final float POSITION_BIAS        = 8.0f;
+  public static final float HEIGHT_BIAS          = 128.0f;
+  public static final float UV_SCALE             = 16383.0f;
+  private static final int MAX_PACKED_POSITION   = 0x7EFF;
+  private static final float WHITE               = Color.WHITE.toFloatBits();
   private int rows;
   private int columns;
-  private short vertexCursor;
-  private short vertexIndex;
-  private short indicesCursor;
-  private ArrayList<GridVertex> vertexsList;
   private ArrayList<AttributeType> attributeTypes;
-  
+
   private float[] verties;
   private short[] indices;
   private Mesh mesh;
-  private int vertextCount;
-  private GridVertex currentVertex;
+  private int vertexCount;
+  private int indicesCount;
+  private int usedIndicesLength;
+  private int vertexOffset;
+  private int stride;
+  private int normalOffset;
+  private int colorOffset;
+  private int uvOffset;
+  private int tilePositionOffset;
   private boolean started = false;
-  
+  private boolean quads   = false;
+
   public TriangleGrid(int width, int height, boolean isStatic) {
     this.rows           = height;
     this.columns        = width;
-    
-    this.vertexsList    = new ArrayList<GridVertex>(rows*columns);
     this.attributeTypes = new ArrayList<AttributeType>();
   }
-  
+
   public void using(AttributeType type) {
     if (!isUsing(type)) {
+      if (started) {
+        throw new GdxRuntimeException("Attribute " + type + " must be declared before begin()!");
+      }
       this.attributeTypes.add(type);
     }
   }
-  
+
+  // Every four vertices form a quad drawn with the QuadIndexBuffer pattern, so no index data is kept
+  public void useQuadIndices() {
+    if (started) {
+      throw new GdxRuntimeException("Quad indices must be enabled before begin()!");
+    }
+    this.quads   = true;
+    this.indices = null;
+  }
+
+  public boolean isUsingQuadIndices() {
+    return quads;
+  }
+
   public boolean isUsing(AttributeType type) {
     return (this.attributeTypes.indexOf(type) >= 0);
   }
-  
+
   public int getAttributesPerVertex() {
     int count = 0;
     if (isUsing(AttributeType.Position)) {
       count+=3;
     }
-    
+
     if (isUsing(AttributeType.Normal)) {
       count+=3;
     }
-    
+
     if (isUsing(AttributeType.TextureCord)) {
       count+=2;
     }
-    
+
     if (isUsing(AttributeType.TilePosition)) {
       count+=2;
     }
-    
+
     if (isUsing(AttributeType.Color)) {
       count++;
     }
     return count;
   }
-  
+
+  private void computeOffsets() {
+    int offset         = 3;
+    normalOffset       = -1;
+    colorOffset        = -1;
+    uvOffset           = -1;
+    tilePositionOffset = -1;
+
+    if (isUsing(AttributeType.Normal)) {
+      normalOffset = offset;
+      offset      += 3;
+    }
+
+    if (isUsing(AttributeType.Color)) {
+      colorOffset = offset;
+      offset     += 1;
+    }
+
+    if (isUsing(AttributeType.TextureCord)) {
+      uvOffset = offset;
+      offset  += 2;
+    }
+
+    if (isUsing(AttributeType.TilePosition)) {
+      tilePositionOffset = offset;
+      offset            += 2;
+    }
+
+    this.stride = offset;
+  }
+
   public void calculateNormals() {
-    //Gdx.app.log("Debug", "Indices: " + indices.length + " Vertex: " + vertexsList.size());
-    if (indices.length <= 3) {
+    if (normalOffset == -1) {
       return;
     }
-    for (int i = 0; i < indices.length / 3; i++) {
-      int index1 = indices[i * 3];
-      int index2 = indices[i * 3 + 1];
-      int index3 = indices[i * 3 + 2];
-      
-      Vector3 side1   = this.vertexsList.get(index1).position.cpy().sub(this.vertexsList.get(index3).position);
-      Vector3 side2   = this.vertexsList.get(index1).position.cpy().sub(this.vertexsList.get(index2).position);
-      Vector3 normal  = side1.crs(side2);
-      
-      this.vertexsList.get(index1).normal.add(normal);
-      this.vertexsList.get(index2).normal.add(normal);
-      this.vertexsList.get(index3).normal.add(normal);
-    }
-  }
-  
+
+    for (int i = 0; i < indicesCount; i += 3) {
+      int a = getIndex(i) * stride;
+      int b = getIndex(i + 1) * stride;
+      int c = getIndex(i + 2) * stride;
+
+      float s1x = verties[a] - verties[c];
+      float s1y = verties[a + 1] - verties[c + 1];
+      float s1z = verties[a + 2] - verties[c + 2];
+      float s2x = verties[a] - verties[b];
+      float s2y = verties[a + 1] - verties[b + 1];
+      float s2z = verties[a + 2] - verties[b + 2];
+
+      float nx  = s1y * s2z - s1z * s2y;
+      float ny  = s1z * s2x - s1x * s2z;
+      float nz  = s1x * s2y - s1y * s2x;
+
+      addToNormal(a, nx, ny, nz);
+      addToNormal(b, nx, ny, nz);
+      addToNormal(c, nx, ny, nz);
+    }
+
+    for (int v = 0; v < vertexCount; v++) {
+      int n     = v * stride + normalOffset;
+      float len = (float)Math.sqrt(verties[n] * verties[n] + verties[n + 1] * verties[n + 1] + verties[n + 2] * verties[n + 2]);
+      if (len != 0) {
+        verties[n]     /= len;
+        verties[n + 1] /= len;
+        verties[n + 2] /= len;
+      }
+    }
+  }
+
+  private int getIndex(int i) {
+    if (quads) {
+      return QuadIndexBuffer.getIndex(i);
+    } else {
+      return indices[i] & 0xFFFF;
+    }
+  }
+
+  private void addToNormal(int vertex, float nx, float ny, float nz) {
+    int n          = vertex + normalOffset;
+    verties[n]     += nx;
+    verties[n + 1] += ny;
+    verties[n + 2] += nz;
+  }
+
   public int getVertexSize() {
-    return getAttributesPerVertex();
+    return stride;
   }
-  
+
   public void begin() {
     if (this.started) {
       throw new GdxRuntimeException("Already started building geometry! Call end() first!");
     }
-    
+
+    using(AttributeType.Position);
     clear();
-    this.indices = new short[vertextCount * 3];
-    this.verties = null;
+    computeOffsets();
+    ensureVertexCapacity(rows * columns * VERTEXT_PER_COL);
+    if (!quads) {
+      ensureIndicesCapacity(rows * columns * 6);
+    }
+    this.started = true;
   }
-  
+
   public void clear() {
-    this.vertexCursor  = 0;
-    this.indicesCursor = 0;
-    this.vertexIndex   = 0;
+    this.vertexCount   = 0;
+    this.indicesCount  = 0;
+    this.vertexOffset  = 0;
+  }
 
-    this.vertextCount   = rows*columns*getAttributesPerVertex();
-    this.attributeTypes.clear();
-    this.vertexsList.clear();
+  private void ensureVertexCapacity(int count) {
+    int size = count * stride;
+    if (verties == null || verties.length < size) {
+      verties = verties == null ? new float[size] : Arrays.copyOf(verties, Math.max(size, verties.length * 2));
+    }
   }
-  
+
+  private void ensureIndicesCapacity(int count) {
+    if (indices == null || indices.length < count) {
+      indices = indices == null ? new short[count] : Arrays.copyOf(indices, Math.max(count, indices.length * 2));
+    }
+  }
+
   public short addVertex(float x, float y, float z) {
-    currentVertex = new GridVertex();
-    currentVertex.position.set(x, y, z);
-    using(AttributeType.Position);
-    this.vertexsList.add(currentVertex);
-    this.started       = true;
-    return vertexIndex++;
+    if (vertexCount >= MAX_VERTICES) {
+      throw new GdxRuntimeException("Grid has more vertices than 16 bit indices can address!");
+    }
+    ensureVertexCapacity(vertexCount + 1);
+    vertexOffset = vertexCount * stride;
+    Arrays.fill(verties, vertexOffset, vertexOffset + stride, 0.0f);
+    verties[vertexOffset]     = x;
+    verties[vertexOffset + 1] = y;
+    verties[vertexOffset + 2] = z;
+    if (colorOffset != -1) {
+      verties[vertexOffset + colorOffset] = WHITE;
+    }
+    return (short)vertexCount++;
   }
-  
+
   public void addNormal() {
     this.addNormal(0.0f,0.0f,0.0f);
-    using(AttributeType.Normal);
   }
 
   public void addNormal(float x, float y, float z) {
-    currentVertex.normal.set(x, y, z);
-    using(AttributeType.Normal);
+    int n          = attributeOffset(normalOffset, AttributeType.Normal);
+    verties[n]     = x;
+    verties[n + 1] = y;
+    verties[n + 2] = z;
   }
 
   public void addTilePos(float x, float z) {
-    using(AttributeType.TilePosition);
-    currentVertex.tilePosition.set(x, z);
+    int n          = attributeOffset(tilePositionOffset, AttributeType.TilePosition);
+    verties[n]     = x;
+    verties[n + 1] = z;
   }
-  
+
   public void addColorToVertex(float r, float g, float b, float a) {
-    using(AttributeType.Color);
-    currentVertex.color.set(r, g, b, a);
+    verties[attributeOffset(colorOffset, AttributeType.Color)] = Color.toFloatBits(r, g, b, a);
+  }
+
+  public void addPackedColor(float color) {
+    verties[attributeOffset(colorOffset, AttributeType.Color)] = color;
   }
-  
+
   public void addPassableInfo(boolean passable) {
     //using(AttributeType.Passable);
     //currentVertex.passable = passable;
   }
-  
+
   public void addUVMap(float u, float v) {
-    using(AttributeType.TextureCord);
-    currentVertex.textureCordinates.set(u, v);
+    int n          = attributeOffset(uvOffset, AttributeType.TextureCord);
+    verties[n]     = u;
+    verties[n + 1] = v;
+  }
+
+  private int attributeOffset(int offset, AttributeType type) {
+    if (offset == -1) {
+      throw new GdxRuntimeException("Attribute " + type + " must be declared before begin()!");
+    }
+    return vertexOffset + offset;
   }
-  
+
   public void addRectangle(float x, float y, float z, float width, float height) {
     short n1 = this.addVertex(x, y, z); // top left corner
     short n2 = this.addVertex(x, y, z+1f); // bottom left corner
     short n3 = this.addVertex(x+1f, y, z); // top right corner
     addIndices(n1,n2,n3);
-    
+
     n1 = this.addVertex(x+1f, y, z+1f);
     addIndices(n3,n2,n1);
   }
-  
+
   public void addIndices(short n1, short n2, short n3) {
-    this.indices[indicesCursor++] = n1;
-    this.indices[indicesCursor++] = n2;
-    this.indices[indicesCursor++] = n3;
+    if (quads) {
+      indicesCount += 3;
+      return;
+    }
+    ensureIndicesCapacity(indicesCount + 3);
+    this.indices[indicesCount++] = n1;
+    this.indices[indicesCount++] = n2;
+    this.indices[indicesCount++] = n3;
   }
 
   public boolean end() {
@@ -182,50 +310,14 @@ public class TriangleGrid implements Disposable {
     }
     started = false;
     calculateNormals();
-    this.verties          = new float[vertextCount * getAttributesPerVertex()];
-    boolean usingTilePos  = isUsing(AttributeType.TilePosition);
-    boolean usingTextCord = isUsing(AttributeType.TextureCord);
-    boolean usingNormals  = isUsing(AttributeType.Normal);
-    boolean usingColor    = isUsing(AttributeType.Color);
-    if (usingNormals) {
-      calculateNormals();
-    }
-    
-    vertexCursor = 0;
-    for (GridVertex vertex : this.vertexsList) {
-      this.verties[vertexCursor++] = vertex.position.x;
-      this.verties[vertexCursor++] = vertex.position.y;
-      this.verties[vertexCursor++] = vertex.position.z;
-      
-      if (usingNormals) {
-        vertex.normal.nor();
-        this.verties[vertexCursor++] = vertex.normal.x;
-        this.verties[vertexCursor++] = vertex.normal.y;
-        this.verties[vertexCursor++] = vertex.normal.z;
-      }
-      
-      if (usingColor) {
-        this.verties[vertexCursor++] = Color.toFloatBits(vertex.color.r, vertex.color.g, vertex.color.b, vertex.color.a);
-      }
-      
-      if (usingTextCord) {
-        this.verties[vertexCursor++] = vertex.textureCordinates.x;
-        this.verties[vertexCursor++] = vertex.textureCordinates.y;
-      }
-      
-      
-      if (usingTilePos) {
-        this.verties[vertexCursor++] = vertex.tilePosition.x;
-        this.verties[vertexCursor++] = vertex.tilePosition.y;
-      }
-      
-      //if (passable) {
-      //  this.verties[vertexCursor++] = vertex.passable ? 1.0f : 0.0f;
-      //}
+
+    if (!quads && usedIndicesLength > indicesCount) {
+      Arrays.fill(indices, indicesCount, usedIndicesLength, (short)0);
     }
-    
+    usedIndicesLength = indicesCount;
+
     this.mesh = null;
-    return true;
+    return vertexCount > 0;
   }
 
   public float[] getVerties() {
@@ -236,53 +328,177 @@ public class TriangleGrid implements Disposable {
     return indices;
   }
 
+  public int getVertexCount() {
+    return vertexCount;
+  }
+
+  public int getIndicesCount() {
+    return indicesCount;
+  }
+
   public Mesh getMesh() {
     if (this.mesh == null) {
-      this.mesh = new Mesh(true, this.verties.length, this.indices.length, this.getVertexAttributes());
-      mesh.setVertices(this.verties);
-      mesh.setIndices(this.indices);
-      this.vertexsList.clear();
+      this.mesh = new Mesh(true, vertexCount, quads ? 0 : indicesCount, this.getVertexAttributes());
+      mesh.setVertices(this.verties, 0, vertexCount * stride);
+      if (!quads) {
+        mesh.setIndices(this.indices, 0, indicesCount);
+      }
     }
     return mesh;
   }
 
   public VertexAttribute[] getVertexAttributes() {
+    return getVertexAttributes(false);
+  }
+
+  // Compact layout packs every attribute into normalized bytes, see packVertices(). libgdx wants one position and accepts
+  // only one packed color per layout, so the packed attributes are declared as a single float (the position one as the
+  // position), which gives them the same 4 bytes. Only PageMesh can bind them, see isPacked.
+  public VertexAttribute[] getVertexAttributes(boolean compact) {
     ArrayList<VertexAttribute> attributes = new ArrayList<VertexAttribute>();
-    
+
     if (isUsing(AttributeType.Position)) {
-      attributes.add(new VertexAttribute(Usage.Position, 3, ShaderProgram.POSITION_ATTRIBUTE));
+      if (compact) {
+        attributes.add(new VertexAttribute(Usage.Position, 1, COMPACT_POSITION_XZ_ATTRIBUTE));
+        attributes.add(new VertexAttribute(Usage.Generic, 1, COMPACT_POSITION_Y_ATTRIBUTE));
+      } else {
+        attributes.add(new VertexAttribute(Usage.Position, 3, ShaderProgram.POSITION_ATTRIBUTE));
+      }
     }
-    
+
     if (isUsing(AttributeType.Normal)) {
-      attributes.add(new VertexAttribute(Usage.Normal, 3, ShaderProgram.NORMAL_ATTRIBUTE));
+      if (compact) {
+        attributes.add(new VertexAttribute(Usage.Generic, 1, COMPACT_NORMAL_ATTRIBUTE));
+      } else {
+        attributes.add(new VertexAttribute(Usage.Normal, 3, ShaderProgram.NORMAL_ATTRIBUTE));
+      }
     }
-    
+
     if (isUsing(AttributeType.Color)) {
       attributes.add(new VertexAttribute(Usage.ColorPacked, 4, ShaderProgram.COLOR_ATTRIBUTE));
     }
-    
+
     if (isUsing(AttributeType.TextureCord)) {
-      attributes.add(new VertexAttribute(Usage.TextureCoordinates, 2, "a_textCords"));
+      if (compact) {
+        attributes.add(new VertexAttribute(Usage.Generic, 1, COMPACT_TEXTURE_CORDS_ATTRIBUTE));
+      } else {
+        attributes.add(new VertexAttribute(Usage.TextureCoordinates, 2, "a_textCords"));
+      }
     }
-    
+
     if (isUsing(AttributeType.TilePosition)) {
       attributes.add(new VertexAttribute(Usage.Generic, 2, "a_tile_position"));
     }
-    
+
     if (isUsing(AttributeType.Passable)) {
 //      attributes.add(new VertexAttribute(Usage.Generic, 1, "a_is_passable"));
     }
-    
+
     return attributes.toArray(new VertexAttribute[attributes.size()]);
   }
 
+  public int getCompactVertexSize() {
+    int size = stride - 1;
+    if (normalOffset != -1) {
+      size -= 2;
+    }
+    if (uvOffset != -1) {
+      size -= 1;
+    }
+    return size;
+  }
+
+  // True when every position fits the compact layout relative to the origin, heights must be in [-128, 128)
+  public boolean isPackable(float originX, float originZ) {
+    for (int v = 0; v < vertexCount; v++) {
+      int source = v * stride;
+      if (!fits((verties[source] - originX + POSITION_BIAS) * POSITION_SCALE, MAX_PACKED_POSITION)
+          || !fits((verties[source + 1] + HEIGHT_BIAS) * POSITION_SCALE, 0xFFFF)
+          || !fits((verties[source + 2] - originZ + POSITION_BIAS) * POSITION_SCALE, MAX_PACKED_POSITION)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // Writes vertices in the compact layout. Positions are stored relative to the origin in 1/256 of a tile,
+  // texture cords in 14 bits and normals in bytes. Every value keeps the packed float away from NaN bit patterns.
+  // Positions must be checked with isPackable first.
+  public void packVertices(float[] out, int offset, float originX, float originZ) {
+    int packedStride = getCompactVertexSize();
+    for (int v = 0; v < vertexCount; v++) {
+      int source = v * stride;
+      int target = offset + v * packedStride;
+
+      int x = quantize((verties[source] - originX + POSITION_BIAS) * POSITION_SCALE, MAX_PACKED_POSITION);
+      int y = quantize((verties[source + 1] + HEIGHT_BIAS) * POSITION_SCALE, 0xFFFF);
+      int z = quantize((verties[source + 2] - originZ + POSITION_BIAS) * POSITION_SCALE, MAX_PACKED_POSITION);
+      out[target++] = Float.intBitsToFloat(x | (z << 16));
+      out[target++] = Float.intBitsToFloat(y);
+
+      if (normalOffset != -1) {
+        int n         = source + normalOffset;
+        out[target++] = Float.intBitsToFloat(packNormal(verties[n]) | (packNormal(verties[n + 1]) << 8) | (packNormal(verties[n + 2]) << 16));
+      }
+
+      if (colorOffset != -1) {
+        out[target++] = verties[source + colorOffset];
+      }
+
+      if (uvOffset != -1) {
+        int u         = quantize(verties[source + uvOffset] * UV_SCALE, (int)UV_SCALE);
+        int w         = quantize(verties[source + uvOffset + 1] * UV_SCALE, (int)UV_SCALE);
+        out[target++] = Float.intBitsToFloat(u | (w << 16));
+      }
+
+      if (tilePositionOffset != -1) {
+        out[target++] = verties[source + tilePositionOffset];
+        out[target++] = verties[source + tilePositionOffset + 1];
+      }
+    }
+  }
+
+  private static boolean fits(float value, int max) {
+    int rounded = Math.round(value);
+    return rounded >= 0 && rounded <= max;
+  }
+
+  private static int quantize(float value, int max) {
+    return Math.max(0, Math.min(max, Math.round(value)));
+  }
+
+  private static int packNormal(float value) {
+    return quantize((value * 0.5f + 0.5f) * 255f, 255);
+  }
+
+  // Attributes of the compact layout that hold 4 normalized unsigned bytes
+  public static boolean isPacked(VertexAttribute attribute) {
+    return attribute.usage == Usage.ColorPacked || COMPACT_POSITION_XZ_ATTRIBUTE.equals(attribute.alias)
+        || COMPACT_POSITION_Y_ATTRIBUTE.equals(attribute.alias) || COMPACT_NORMAL_ATTRIBUTE.equals(attribute.alias)
+        || COMPACT_TEXTURE_CORDS_ATTRIBUTE.equals(attribute.alias);
+  }
+
+  public static boolean isCompact(Mesh mesh) {
+    return COMPACT_POSITION_XZ_ATTRIBUTE.equals(mesh.getVertexAttributes().get(0).alias);
+  }
+
+  // Drops the CPU copy once the vertices live only on the GPU, counts and layout stay valid
+  public void releaseVertices() {
+    if (started) {
+      throw new GdxRuntimeException("Cannot release geometry while it is being built!");
+    }
+    this.verties = null;
+    this.indices = null;
+  }
+
   @Override
   public void dispose() {
     if (this.mesh != null) {
       this.mesh.dispose();
     }
-    this.mesh   = null;
-    vertexsList = null;
+    this.mesh    = null;
+    this.verties = null;
+    this.indices = null;
   }
 
   public int getColumns() {
@@ -294,9 +510,9 @@ public class TriangleGrid implements Disposable {
   }
 
   public boolean haveMeshData() {
-    return this.verties != null;
+    return this.vertexCount > 0;
   }
 
-  
-  
+
+
 }
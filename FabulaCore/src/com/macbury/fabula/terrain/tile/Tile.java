@@ -3,6 +3,8 @@ package com.macbury.fabula.terrain.tile;
 import com.badlogic.gdx.graphics.g2d.TextureRegion;
 import com.badlogic.gdx.math.MathUtils;
 import com.badlogic.gdx.math.Vector3;
+import com.macbury.fabula.terrain.TerrainStore;
+import com.macbury.fabula.terrain.TileData;
 import com.macbury.fabula.terrain.foliage.FoliageDescriptor;
 import com.macbury.fabula.terrain.tileset.AutoTiles;
 import com.macbury.fabula.terrain.tileset.AutoTiles.Types;
@@ -13,172 +15,174 @@ public class Tile implements Cloneable, Comparable<Tile> {
     None, Down, Up, Left, Right, CornerBottomLeft, CornerBottomRight, CornerTopLeft, CornerTopRight, EdgeBottomRight, EdgeBottomLeft, EdgeTopLeft, EdgeTopRight
   }
   
+  // Slope for every corner mask returned by computeSlope
+  private static final TypeSlope[] SLOPE_BY_MASK = {
+    TypeSlope.None, TypeSlope.CornerBottomRight, TypeSlope.CornerTopRight, TypeSlope.Right,
+    TypeSlope.CornerBottomLeft, TypeSlope.Down, TypeSlope.None, TypeSlope.EdgeBottomRight,
+    TypeSlope.CornerTopLeft, TypeSlope.None, TypeSlope.Up, TypeSlope.EdgeTopLeft,
+    TypeSlope.Left, TypeSlope.EdgeBottomLeft, TypeSlope.EdgeTopRight, TypeSlope.None
+  };
+  
   public static int GID_COUNTER  = 0;
   public static final float TILE_SIZE_IN_PIXELS = 32;
-  private TypeSlope slope        = TypeSlope.None;
-  private Vector3 position;
-  float y1 = 0; // |1----3|
-  float y2 = 0; // |      |
-  float y3 = 0; // |      |
-  float y4 = 0; // |2----4|
-  
-  private int gid = 0;
-  private AutoTile autoTile;
-  private boolean passable = true;
-  private boolean liquid   = false;
-  private float   liquidHeight   = 0.0f;
-  private FoliageDescriptor  foliage;
+  private TileData store;
+  private int index;
+  private int x;
+  private int z;
+  private boolean detached;
   
   public Tile(float x, float y, float z) {
-    gid      = GID_COUNTER++;
-    position = new Vector3(x,y,z);
+    TileValues values = new TileValues();
+    values.setFlags((byte)(TerrainStore.FLAG_PRESENT | TerrainStore.FLAG_PASSABLE));
+    this.store    = values;
+    this.detached = true;
+    this.x        = (int)x;
+    this.z        = (int)z;
+    setGid(GID_COUNTER++);
     setY(y);
   }
   
   public Tile(Vector3 cpy) {
-    gid      = GID_COUNTER++;
-    position = cpy;
-    setY(cpy.y);
+    this(cpy.x, cpy.y, cpy.z);
+  }
+  
+  public Tile(TerrainStore store, int x, int z) {
+    set(store, x, z);
+  }
+  
+  public Tile set(TerrainStore store, int x, int z) {
+    this.store    = store;
+    this.detached = false;
+    this.x        = x;
+    this.z        = z;
+    this.index    = store.index(x, z);
+    return this;
+  }
+  
+  // Writes this tile into slot i of the store, detached tiles included
+  public void copyTo(TerrainStore target, int i) {
+    target.copy(i, store, index);
+  }
+  
+  public int getIndex() {
+    return index;
   }
 
   public void setPosition(Vector3 pos) {
-    this.position = pos;
+    setX((int)pos.x);
+    setZ((int)pos.z);
+    setRawY(pos.y);
   }
   
   public void setY(float ny) {
-    this.position.y = this.y1 = this.y2 = this.y3 = this.y4 = ny;
+    store.setY(index, ny);
+    store.setY1(index, ny);
+    store.setY2(index, ny);
+    store.setY3(index, ny);
+    store.setY4(index, ny);
+    maskSlope();
   }
   
   public TextureRegion getTextureRegion() {
-    return autoTile.getRegion();
+    return getAutoTile().getRegion();
   }
 
   public float getY() {
-    return this.position.y;
+    return store.getY(index);
   }
   
   public int getId() {
-    return this.gid;
+    return getGid();
   }
 
   public void setY(int i) {
-    this.position.y = this.y1 = this.y2 = this.y3 = this.y4 = i;
+    setY((float)i);
     calculateHeight();
   }
   
   public void setRawY(float f) {
-    this.position.y = f;
+    store.setY(index, f);
   }
   
   public float getY1() {
-    return y1;
+    return store.getY1(index);
   }
 
   public float getY2() {
-    return y2;
+    return store.getY2(index);
   }
 
   public float getY3() {
-    return y3;
+    return store.getY3(index);
   }
 
   public float getY4() {
-    return y4;
+    return store.getY4(index);
   }
   
   public void calculateHeight() {
-    this.position.y = (y1 + y2 + y3 + y4 + this.position.y) / 5;
+    store.setY(index, (getY1() + getY2() + getY3() + getY4() + getY()) / 5);
     maskSlope();
   }
   
+  // Restores saved heights as they are, setY1..setY4 would average the corners into y again
+  public void setHeights(float y, float y1, float y2, float y3, float y4) {
+    store.setY(index, y);
+    store.setY1(index, y1);
+    store.setY2(index, y2);
+    store.setY3(index, y3);
+    store.setY4(index, y4);
+    maskSlope();
+  }
+
   private void maskSlope() {
-    switch (computeSlope()) {
-      case 14:
-        this.slope = TypeSlope.EdgeTopRight;
-      break;
-      case 13:
-        this.slope = TypeSlope.EdgeBottomLeft;
-      break;
-      case 12:
-        this.slope = TypeSlope.Left;
-      break;
-      case 11:
-        this.slope = TypeSlope.EdgeTopLeft;
-      break;
-      case 10:
-        this.slope = TypeSlope.Up;
-      break;
-      case 8:
-        this.slope = TypeSlope.CornerTopLeft;
-      break;
-      case 7:
-        this.slope = TypeSlope.EdgeBottomRight;
-      break;
-      case 5:
-        this.slope = TypeSlope.Down;
-      break;
-      case 4:
-        this.slope = TypeSlope.CornerBottomLeft;
-      break;
-      case 3:
-        this.slope = TypeSlope.Right;
-      break;
-      case 2:
-        this.slope = TypeSlope.CornerTopRight;
-      break;
-      case 1:
-        this.slope = TypeSlope.CornerBottomRight;
-      break;
-      default:
-        this.slope = TypeSlope.None;
-      break;
-    }
+    setSlope(SLOPE_BY_MASK[computeSlope()]);
   }
 
   public void setY1(float y1) {
-    this.y1 = y1;
+    store.setY1(index, y1);
     calculateHeight();
   }
 
   public void setY2(float y2) {
-    this.y2 = y2;;
+    store.setY2(index, y2);
     calculateHeight();
   }
 
   public void setY3(float y3) {
-    this.y3 = y3;
+    store.setY3(index, y3);
     calculateHeight();
   }
 
   public void setY4(float y4) {
-    this.y4 = y4;
+    store.setY4(index, y4);
     calculateHeight();
   }
 
  
   public float getX() {
-    return position.x;
+    return x;
   }
 
   public float getZ() {
-    return position.z;
+    return z;
   }
 
   public void setAutoTile(AutoTile autoTile) {
-    this.autoTile = autoTile;
+    store.setAutoTile(index, autoTile);
   }
   
   public AutoTile getAutoTile() {
-    return autoTile;
+    return store.getAutoTile(index);
   }
 
   public AutoTiles getAutoTiles() {
-    return autoTile.getAutoTiles();
+    return getAutoTile().getAutoTiles();
   }
   
  
   public Types getAutoType() {
-    return autoTile.getType();
+    return getAutoTile().getType();
   }
   
   public boolean haveTheSameAutoTileAndIsNotSimple(AutoTile at) {
@@ -190,11 +194,11 @@ public class Tile implements Cloneable, Comparable<Tile> {
   }
 
   public boolean haveTheSameAutoTile(AutoTile at) {
-    return autoTile.getAutoTiles().equals(at.getAutoTiles());
+    return getAutoTile().getAutoTiles().equals(at.getAutoTiles());
   }
   
   public TypeSlope getSlope() {
-    return this.slope;
+    return store.getSlope(index);
   }
   
   public float slopeAngle (float ny) {
@@ -209,29 +213,29 @@ public class Tile implements Cloneable, Comparable<Tile> {
   }
   
   private float minY() {
-    return Math.min(y1, Math.min(y2, Math.min(y3,y4)));
+    return getMinY();
   }
 
   public void setSlope(TypeSlope slope2) {
-    this.slope = slope2;
+    store.setSlope(index, slope2);
   }
   
   public int computeSlope() {
     byte slopeMask   = 0;
     
-    if (isSlope(y1)) {
+    if (isSlope(getY1())) {
       slopeMask |= 1;
     }
     
-    if (isSlope(y2)) {
+    if (isSlope(getY2())) {
       slopeMask |= 2;
     }
     
-    if (isSlope(y3)) {
+    if (isSlope(getY3())) {
       slopeMask |= 4;
     }
     
-    if (isSlope(y4)) {
+    if (isSlope(getY4())) {
       slopeMask |= 8;
     }
     
@@ -239,73 +243,86 @@ public class Tile implements Cloneable, Comparable<Tile> {
   }
   
   public String getSlopeDebugInfo() {
-    return this.slope.toString() + " Y1 = "+this.y1 + " Y2 = "+ y2 + " Y3 = " + y3 + " Y4 = " + y4 + " Slope: " + computeSlope() + " == " + this.slope;
+    return getSlope().toString() + " Y1 = "+getY1() + " Y2 = "+ getY2() + " Y3 = " + getY3() + " Y4 = " + getY4() + " Slope: " + computeSlope() + " == " + getSlope();
   }
   
   public int getGid() {
-    return this.gid;
+    return store.getGid(index);
   }
   
   public void setGid(int gid2) {
-    this.gid = gid2;
+    store.setGid(index, gid2);
   }
   
   @Override
   public Tile clone() {
-    Tile tile = new Tile(this.position.cpy());
-    tile.setY1(new Float(getY1()));
-    tile.setY2(new Float(getY2()));
-    tile.setY3(new Float(getY3()));
-    tile.setY4(new Float(getY4()));
-    
-    tile.setAutoTile(this.getAutoTile());
-    tile.setSlope(this.getSlope());
-    tile.setFoliage(this.getFoliage());
-    tile.setPassable(new Boolean(this.isPassable()));
-    tile.setLiquid(new Boolean(this.isLiquid()));
-    tile.setLiquidHeight(new Float(this.getLiquidHeight()));
-    tile.setGid(this.getGid());
+    Tile tile = new Tile(x, getY(), z);
+    ((TileValues)tile.store).copy(store, index);
     return tile;
   }
 
   @Override
   public int compareTo(Tile o) {
+    if (isFrozen(o)) {
+      return o.index - this.index;
+    }
     return o.getGid() - this.getGid();
   }
 
   @Override
   public String toString() {
-    return "Tile: " + this.position.toString();
+    return "Tile: [" + x + "," + getY() + "," + z + "]";
   }
 
   @Override
   public boolean equals(Object obj) {
     Tile tile = (Tile) obj;
+    if (isFrozen(tile)) {
+      return tile.x == this.x && tile.z == this.z;
+    }
     return tile.getGid() == this.getGid();
   }
+  
+  @Override
+  public int hashCode() {
+    return store.isFrozen() ? index : getGid();
+  }
+  
+  // a frozen store has dropped the gids, its tiles are told apart by position
+  private boolean isFrozen(Tile other) {
+    return store.isFrozen() || other.store.isFrozen();
+  }
 
   public void setX(int x) {
-    this.position.x = x;
+    this.x = x;
+    reindex();
   }
 
   public void setZ(int z) {
-    this.position.z = z;
+    this.z = z;
+    reindex();
+  }
+  
+  private void reindex() {
+    if (!detached) {
+      this.index = ((TerrainStore)store).index(x, z);
+    }
   }
 
   public void setPassable(boolean b) {
-    this.passable = b;
+    store.setPassable(index, b);
   }
   
   public boolean isPassable() {
-    return this.passable;
+    return store.isPassable(index);
   }
 
   public float getMinY() {
-    return Math.min(y1, Math.min(y2, Math.min(y3, y4)));
+    return Math.min(getY1(), Math.min(getY2(), Math.min(getY3(), getY4())));
   }
   
   public float getMaxY() {
-    return Math.max(y1, Math.max(y2, Math.max(y3, y4)));
+    return Math.max(getY1(), Math.max(getY2(), Math.max(getY3(), getY4())));
   }
   
   public float getHeight() {
@@ -313,31 +330,31 @@ public class Tile implements Cloneable, Comparable<Tile> {
   }
 
   public boolean isLiquid() {
-    return liquid;
+    return store.isLiquid(index);
   }
 
   public float getLiquidHeight() {
-    return liquidHeight;
+    return store.getLiquidHeight(index);
   }
 
   public void setLiquid(boolean l) {
-    this.liquid = l;
+    store.setLiquid(index, l);
   }
 
   public void setLiquidHeight(float liquidHeight) {
-    this.liquidHeight = liquidHeight;
+    store.setLiquidHeight(index, liquidHeight);
   }
 
   public FoliageDescriptor getFoliage() {
-    return foliage;
+    return store.getFoliage(index);
   }
 
   public void setFoliage(FoliageDescriptor foliage) {
-    this.foliage = foliage;
+    store.setFoliage(index, foliage);
   }
 
   public boolean haveFoliage() {
-    return this.foliage != null;
+    return store.haveFoliage(index);
   }
   
 }
@@ -1,10 +0,0 @@
-package com.macbury.fabula.terrain.tile;
-
-public class TileTransformer {
-
-  public void setTile(Tile tile) {
-    // TODO Auto-generated method stub
-    
-  }
-  
-}
@@ -0,0 +1,183 @@
+package com.macbury.fabula.terrain.tile;
+
+import com.macbury.fabula.terrain.TerrainStore;
+import com.macbury.fabula.terrain.TileData;
+import com.macbury.fabula.terrain.foliage.FoliageDescriptor;
+import com.macbury.fabula.terrain.tile.Tile.TypeSlope;
+
+/* The single slot of a detached tile, brushes and undo clone tiles on every stroke so this stays one small object
+ * instead of a one tile TerrainStore. The index is ignored. */
+class TileValues implements TileData {
+  private static final TypeSlope[] SLOPES = TypeSlope.values();
+
+  private float y;
+  private float y1;
+  private float y2;
+  private float y3;
+  private float y4;
+  private float liquidHeight;
+  private int gid;
+  private AutoTile autoTile;
+  private FoliageDescriptor foliage;
+  private byte flags;
+
+  public void copy(TileData source, int i) {
+    y            = source.getY(i);
+    y1           = source.getY1(i);
+    y2           = source.getY2(i);
+    y3           = source.getY3(i);
+    y4           = source.getY4(i);
+    liquidHeight = source.getLiquidHeight(i);
+    gid          = source.getGid(i);
+    autoTile     = source.getAutoTile(i);
+    foliage      = source.getFoliage(i);
+    flags        = source.getFlags(i);
+  }
+
+  @Override
+  public float getY(int i) {
+    return y;
+  }
+
+  @Override
+  public void setY(int i, float value) {
+    y = value;
+  }
+
+  @Override
+  public float getY1(int i) {
+    return y1;
+  }
+
+  @Override
+  public void setY1(int i, float value) {
+    y1 = value;
+  }
+
+  @Override
+  public float getY2(int i) {
+    return y2;
+  }
+
+  @Override
+  public void setY2(int i, float value) {
+    y2 = value;
+  }
+
+  @Override
+  public float getY3(int i) {
+    return y3;
+  }
+
+  @Override
+  public void setY3(int i, float value) {
+    y3 = value;
+  }
+
+  @Override
+  public float getY4(int i) {
+    return y4;
+  }
+
+  @Override
+  public void setY4(int i, float value) {
+    y4 = value;
+  }
+
+  @Override
+  public float getLiquidHeight(int i) {
+    return liquidHeight;
+  }
+
+  @Override
+  public void setLiquidHeight(int i, float value) {
+    liquidHeight = value;
+  }
+
+  @Override
+  public int getGid(int i) {
+    return gid;
+  }
+
+  @Override
+  public void setGid(int i, int value) {
+    gid = value;
+  }
+
+  @Override
+  public AutoTile getAutoTile(int i) {
+    return autoTile;
+  }
+
+  @Override
+  public void setAutoTile(int i, AutoTile value) {
+    autoTile = value;
+  }
+
+  @Override
+  public FoliageDescriptor getFoliage(int i) {
+    return foliage;
+  }
+
+  @Override
+  public void setFoliage(int i, FoliageDescriptor value) {
+    foliage = value;
+  }
+
+  @Override
+  public boolean haveFoliage(int i) {
+    return foliage != null;
+  }
+
+  @Override
+  public boolean isPassable(int i) {
+    return (flags & TerrainStore.FLAG_PASSABLE) != 0;
+  }
+
+  @Override
+  public void setPassable(int i, boolean value) {
+    setFlag(TerrainStore.FLAG_PASSABLE, value);
+  }
+
+  @Override
+  public boolean isLiquid(int i) {
+    return (flags & TerrainStore.FLAG_LIQUID) != 0;
+  }
+
+  @Override
+  public void setLiquid(int i, boolean value) {
+    setFlag(TerrainStore.FLAG_LIQUID, value);
+  }
+
+  @Override
+  public TypeSlope getSlope(int i) {
+    return SLOPES[(flags & TerrainStore.SLOPE_MASK) >> TerrainStore.SLOPE_SHIFT];
+  }
+
+  @Override
+  public void setSlope(int i, TypeSlope slope) {
+    flags = (byte) ((flags & ~TerrainStore.SLOPE_MASK) | (slope.ordinal() << TerrainStore.SLOPE_SHIFT));
+  }
+
+  @Override
+  public byte getFlags(int i) {
+    return flags;
+  }
+
+  public void setFlags(byte value) {
+    flags = value;
+  }
+
+  @Override
+  public boolean isFrozen() {
+    return false;
+  }
+
+  private void setFlag(int flag, boolean value) {
+    if (value) {
+      flags |= flag;
+    } else {
+      flags &= ~flag;
+    }
+  }
+}
@@ -9,7 +9,9 @@ import org.simpleframework.xml.ElementArray;
 import org.simpleframework.xml.Root;
 
 import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.graphics.Pixmap;
 import com.badlogic.gdx.graphics.Texture;
+import com.badlogic.gdx.graphics.TextureData;
 import com.badlogic.gdx.graphics.g2d.TextureAtlas;
 import com.badlogic.gdx.utils.Array;
 import com.macbury.fabula.manager.G;
@@ -33,6 +35,7 @@ public class Tileset {
   private AutoTile defaultAutoTile;
   
   private Texture texture;
+  private Pixmap pixmap;
   
   public Tileset(@Attribute(name="name") String name, @Attribute(name="atlas") String atlasName, @ElementArray(name="auto-tiles") AutoTileBuilderInfo[] autoTileBuilderInfos) {
     this.name                 = name;
@@ -85,6 +88,24 @@ public class Tileset {
     return null;
   }
   
+  // CPU copy of the atlas page, far terrain pages bake their autotiles from it on the SectorBuilder threads
+  public synchronized Pixmap getPixmap() {
+    if (pixmap == null) {
+      TextureData data = texture.getTextureData();
+      if (!data.isPrepared()) {
+        data.prepare();
+      }
+      pixmap = data.consumePixmap();
+      if (!data.disposePixmap()) {
+        // the texture keeps this pixmap, work on a copy so both can be disposed independently
+        Pixmap copy = new Pixmap(pixmap.getWidth(), pixmap.getHeight(), pixmap.getFormat());
+        copy.drawPixmap(pixmap, 0, 0);
+        pixmap = copy;
+      }
+    }
+    return pixmap;
+  }
+  
   public TextureAtlas getAtlas() {
     return textureAtlas;
   }
@@ -8,6 +8,7 @@ import com.badlogic.gdx.graphics.g3d.materials.TextureAttribute;
 import com.badlogic.gdx.graphics.g3d.utils.TextureDescriptor;
 import com.badlogic.gdx.utils.Disposable;
 import com.macbury.fabula.graphics.CubeMap;
+import com.macbury.fabula.graphics.Fog;
 import com.macbury.fabula.manager.G;
 import com.macbury.fabula.map.Scene;
 
@@ -76,6 +77,10 @@ public class Water implements Disposable {
     return null;
   }
   
+  public Fog getFog() {
+    return this.scene.getTerrain().getFog();
+  }
+  
   public void setAngleWaveSpeed(float speed) {
     this.angleWaveSpeed = speed;
   }
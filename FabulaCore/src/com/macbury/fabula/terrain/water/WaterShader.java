@@ -4,11 +4,14 @@ import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.graphics.Camera;
 import com.badlogic.gdx.graphics.GL10;
 import com.badlogic.gdx.graphics.GL20;
+import com.badlogic.gdx.graphics.Mesh;
 import com.badlogic.gdx.graphics.g2d.TextureRegion;
 import com.badlogic.gdx.graphics.g3d.Renderable;
 import com.badlogic.gdx.graphics.g3d.Shader;
 import com.badlogic.gdx.graphics.g3d.utils.RenderContext;
 import com.macbury.fabula.manager.G;
+import com.macbury.fabula.terrain.TerrainPage;
+import com.macbury.fabula.terrain.geometry.QuadIndexBuffer;
 
 public class WaterShader implements Shader {
   private static final String SHADER_NAME                = "water";
@@ -21,6 +24,7 @@ public class WaterShader implements Shader {
   private static final String UNIFORM_WATER_ALPHA        = "u_water_alpha";
   private static final String UNIFORM_WATER_MIX          = "u_water_mix";
   private Water water;
+  private Mesh currentMesh;
 
   public WaterShader(Water water) {
     this.water = water;
@@ -51,6 +55,7 @@ public class WaterShader implements Shader {
     G.shaders.setUniformf(UNIFORM_CAMERA_POSITION, camera.position.x, camera.position.y, camera.position.z);
     G.shaders.setUniformf(UNIFORM_WATER_ALPHA, water.getAlpha());
     G.shaders.setUniformf(UNIFORM_WATER_MIX, water.getMix());
+    water.getFog().apply(G.shaders.getCurrent(), camera);
   }
   
   @Override
@@ -60,11 +65,28 @@ public class WaterShader implements Shader {
   
   @Override
   public void render(Renderable renderable) {
-    renderable.mesh.render(G.shaders.getCurrent(), renderable.primitiveType, renderable.meshPartOffset, renderable.meshPartSize, true);
+    // page meshes are drawn in several parts, bind them only once
+    if (currentMesh != renderable.mesh) {
+      unbindMesh();
+      currentMesh = renderable.mesh;
+      currentMesh.bind(G.shaders.getCurrent());
+      QuadIndexBuffer.bind();
+      TerrainPage.setVertexUniforms(G.shaders.getCurrent(), renderable);
+    }
+    QuadIndexBuffer.render(renderable.primitiveType, renderable.meshPartOffset, renderable.meshPartSize);
+  }
+  
+  private void unbindMesh() {
+    if (currentMesh != null) {
+      currentMesh.unbind(G.shaders.getCurrent());
+      QuadIndexBuffer.unbind();
+      currentMesh = null;
+    }
   }
   
   @Override
   public void end() {
+    unbindMesh();
     G.shaders.end();
   }
   